@@ -11,67 +11,410 @@ import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.store.DataStore;
+import com.google.api.client.util.store.DataStoreFactory;
 import com.google.api.client.util.store.FileDataStoreFactory;
+import com.google.api.services.samples.youtube.cmdline.auth.MappedFileDataStoreFactory;
+import com.google.api.services.samples.youtube.cmdline.auth.TokenRefreshScheduler;
+import com.google.api.services.samples.youtube.cmdline.http.ConcurrencyLimitingHttpTransport;
+import com.google.api.services.samples.youtube.cmdline.http.EtagCachingHttpTransport;
+import com.google.api.services.samples.youtube.cmdline.http.PooledHttpTransport;
+import com.google.api.services.samples.youtube.cmdline.http.QuotaSchedulingHttpTransport;
+import com.google.api.services.samples.youtube.cmdline.http.RetryingHttpTransport;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtubeAnalytics.YouTubeAnalytics;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Shared class used by every sample. Contains methods for authorizing a user and caching credentials.
+ * <p/>
+ * Credentials and API clients are cached for the lifetime of the JVM, so running several samples
+ * (or the same sample several times) in one process only pays for the client secrets parsing, the
+ * datastore setup and the authorization flow once per scope set and datastore.
  */
 public class Auth {
 
     /**
-     * Global instance of the HTTP transport.
+     * Transport that talks to the network, selected with the youtube.http.transport system property:
+     * <ul>
+     * <li>{@code pooled} (default): {@link PooledHttpTransport}, tuned with the youtube.http.* system
+     * properties read in {@link #newPooledTransport()}</li>
+     * <li>{@code http2}: HTTP/2 multiplexing transport, only present when built with JDK 11 or newer</li>
+     * <li>{@code net}: the JDK HttpURLConnection based {@link NetHttpTransport}</li>
+     * </ul>
+     * Exposed so callers can read statistics such as the connection pool size.
      */
-    public static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
+    public static final HttpTransport BASE_TRANSPORT = newBaseTransport();
+
+    /**
+     * Adapts the number of requests in flight to the latency and rate limit errors of the API,
+     * between 1 and the youtube.http.maxConcurrency system property (default 64). Exported through
+     * JMX as com.google.api.services.samples.youtube:type=ConcurrencyLimit,name=youtube.
+     */
+    public static final ConcurrencyLimitingHttpTransport CONCURRENCY_LIMITER = newConcurrencyLimiter(BASE_TRANSPORT);
+
+    /**
+     * Charges every Data API request against the daily quota, which is read from the
+     * youtube.quota.daily system property (default 10000 units). Exposed so callers can read the
+     * remaining budget and move bulk work to the {@link QuotaSchedulingHttpTransport.Lane#BULK} lane.
+     */
+    public static final QuotaSchedulingHttpTransport QUOTA_SCHEDULER =
+            new QuotaSchedulingHttpTransport.Builder(CONCURRENCY_LIMITER)
+                    .setDailyQuota(Long.getLong("youtube.quota.daily", 10000))
+                    .build();
+
+    /**
+     * Global instance of the HTTP transport, which adds the layers built by {@link #newHttpTransport}
+     * on top of {@link #QUOTA_SCHEDULER}.
+     */
+    public static final HttpTransport HTTP_TRANSPORT = newHttpTransport(QUOTA_SCHEDULER);
 
     /**
      * Global instance of the JSON factory.
      */
     public static final JsonFactory JSON_FACTORY = new JacksonFactory();
 
+    /**
+     * Directory under the user's home directory where GET responses are cached with their ETag.
+     */
+    private static final String RESPONSE_CACHE_DIRECTORY = ".youtube-response-cache";
+
     /**
      * This is the directory that will be used under the user's home directory where OAuth tokens will be stored.
      */
     private static final String CREDENTIALS_DIRECTORY = ".oauth-credentials";
 
     /**
-     * Authorizes the installed application to access user's protected data.
+     * Name of the file in the credentials directory that holds every credential datastore.
+     */
+    private static final String CREDENTIALS_STORE_FILE = "credentials.store";
+
+    /**
+     * Refreshes cached credentials in the background shortly before their access token expires.
+     */
+    private static final TokenRefreshScheduler TOKEN_REFRESH_SCHEDULER = new TokenRefreshScheduler();
+
+    /**
+     * Authorized credentials keyed by datastore name and scope set. Each value is a task so that
+     * concurrent callers asking for the same key wait on a single authorization flow.
+     */
+    private static final ConcurrentMap<String, FutureTask<Credential>> CREDENTIALS =
+            new ConcurrentHashMap<String, FutureTask<Credential>>();
+
+    /**
+     * YouTube clients keyed by credential key and application name.
+     */
+    private static final ConcurrentMap<String, YouTube> YOUTUBE_CLIENTS = new ConcurrentHashMap<String, YouTube>();
+
+    /**
+     * YouTube Analytics clients keyed by credential key and application name.
+     */
+    private static final ConcurrentMap<String, YouTubeAnalytics> ANALYTICS_CLIENTS =
+            new ConcurrentHashMap<String, YouTubeAnalytics>();
+
+    /**
+     * Client secrets parsed from /client_secrets.json, loaded on first use.
+     */
+    private static GoogleClientSecrets clientSecrets;
+
+    /**
+     * Datastore factory backing every credential datastore, created on first use.
+     */
+    private static DataStoreFactory dataStoreFactory;
+
+    /**
+     * Name of the HTTP/2 transport class, which is only compiled by the jdk11 build profile.
+     */
+    private static final String HTTP2_TRANSPORT_CLASS =
+            "com.google.api.services.samples.youtube.cmdline.http.Http2HttpTransport";
+
+    /**
+     * Creates the transport selected by the youtube.http.transport system property.
+     */
+    private static HttpTransport newBaseTransport() {
+        String transport = System.getProperty("youtube.http.transport", "pooled");
+        if ("net".equals(transport)) {
+            return new NetHttpTransport();
+        }
+        if ("http2".equals(transport)) {
+            try {
+                return (HttpTransport) Class.forName(HTTP2_TRANSPORT_CLASS).getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(
+                        "youtube.http.transport=http2 requires building and running with JDK 11 or newer", e);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            } catch (InstantiationException e) {
+                throw new IllegalStateException(e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (!"pooled".equals(transport)) {
+            throw new IllegalArgumentException("Unknown youtube.http.transport: " + transport);
+        }
+        return newPooledTransport();
+    }
+
+    /**
+     * Creates the concurrency limiter and exports it through JMX.
+     */
+    private static ConcurrencyLimitingHttpTransport newConcurrencyLimiter(HttpTransport transport) {
+        ConcurrencyLimitingHttpTransport limiter = new ConcurrencyLimitingHttpTransport.Builder(transport)
+                .setMaxLimit(Integer.getInteger("youtube.http.maxConcurrency", 64))
+                .build();
+        limiter.registerMBean("youtube");
+        return limiter;
+    }
+
+    /**
+     * Wraps the given transport with the layers shared by every client:
+     * <ul>
+     * <li>{@link RetryingHttpTransport}, which retries and hedges GET requests</li>
+     * <li>{@link EtagCachingHttpTransport}, unless youtube.http.cache is {@code false}; the memory
+     * tier is sized with youtube.http.cacheMemoryMegabytes (default 16) and the disk tier with
+     * youtube.http.cacheDiskMegabytes (default 64)</li>
+     * </ul>
+     */
+    private static HttpTransport newHttpTransport(HttpTransport transport) {
+        transport = new RetryingHttpTransport.Builder(transport).build();
+        if (Boolean.parseBoolean(System.getProperty("youtube.http.cache", "true"))) {
+            transport = new EtagCachingHttpTransport(transport,
+                    new File(System.getProperty("user.home"), RESPONSE_CACHE_DIRECTORY),
+                    Long.getLong("youtube.http.cacheMemoryMegabytes", 16) * 1024 * 1024,
+                    Long.getLong("youtube.http.cacheDiskMegabytes", 64) * 1024 * 1024);
+        }
+        return transport;
+    }
+
+    /**
+     * Builds the connection pool shared by every client, configured from system properties.
+     */
+    private static PooledHttpTransport newPooledTransport() {
+        return new PooledHttpTransport.Builder()
+                .setMaxConnectionsPerRoute(Integer.getInteger("youtube.http.maxConnectionsPerRoute", 20))
+                .setMaxConnectionsTotal(Integer.getInteger("youtube.http.maxConnectionsTotal", 200))
+                .setIdleTimeout(Long.getLong("youtube.http.idleTimeoutSeconds", 30), TimeUnit.SECONDS)
+                .setTlsSessionCacheSize(Integer.getInteger("youtube.http.tlsSessionCacheSize", 1000))
+                .setTlsSessionTimeout(Long.getLong("youtube.http.tlsSessionTimeoutSeconds", 86400), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Authorizes the installed application to access user's protected data. The returned credential
+     * is cached, so later calls with the same scopes and datastore return the same instance.
      *
      * @param scopes              list of scopes needed to run youtube upload.
      * @param credentialDatastore name of the credential datastore to cache OAuth tokens
      */
-    public static Credential authorize(List<String> scopes, String credentialDatastore) throws IOException {
+    public static Credential authorize(final List<String> scopes, final String credentialDatastore)
+            throws IOException {
+
+        String key = credentialKey(scopes, credentialDatastore);
+        FutureTask<Credential> task = CREDENTIALS.get(key);
+        if (task == null) {
+            FutureTask<Credential> newTask = new FutureTask<Credential>(new Callable<Credential>() {
+                public Credential call() throws IOException {
+                    return newCredential(scopes, credentialDatastore);
+                }
+            });
+            task = CREDENTIALS.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for authorization");
+        } catch (ExecutionException e) {
+            // Do not cache failures; the next caller gets to try again.
+            CREDENTIALS.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Authorization failed: " + cause);
+        }
+    }
+
+    /**
+     * Returns a cached YouTube client authorized for the given scopes and datastore.
+     *
+     * @param scopes              list of scopes needed by the caller.
+     * @param credentialDatastore name of the credential datastore to cache OAuth tokens
+     * @param applicationName     application name sent with every request
+     */
+    public static YouTube getYouTube(List<String> scopes, String credentialDatastore, String applicationName)
+            throws IOException {
+
+        String key = credentialKey(scopes, credentialDatastore) + "#" + applicationName;
+        YouTube youtube = YOUTUBE_CLIENTS.get(key);
+        if (youtube == null) {
+            Credential credential = authorize(scopes, credentialDatastore);
+            YouTube newYoutube = new YouTube.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
+                    .setApplicationName(applicationName).build();
+            youtube = YOUTUBE_CLIENTS.putIfAbsent(key, newYoutube);
+            if (youtube == null) {
+                youtube = newYoutube;
+            }
+        }
+        return youtube;
+    }
+
+    /**
+     * Returns a cached YouTube Analytics client authorized for the given scopes and datastore.
+     *
+     * @param scopes              list of scopes needed by the caller.
+     * @param credentialDatastore name of the credential datastore to cache OAuth tokens
+     * @param applicationName     application name sent with every request
+     */
+    public static YouTubeAnalytics getYouTubeAnalytics(List<String> scopes, String credentialDatastore,
+                                                       String applicationName) throws IOException {
+
+        String key = credentialKey(scopes, credentialDatastore) + "#" + applicationName;
+        YouTubeAnalytics analytics = ANALYTICS_CLIENTS.get(key);
+        if (analytics == null) {
+            Credential credential = authorize(scopes, credentialDatastore);
+            YouTubeAnalytics newAnalytics = new YouTubeAnalytics.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
+                    .setApplicationName(applicationName).build();
+            analytics = ANALYTICS_CLIENTS.putIfAbsent(key, newAnalytics);
+            if (analytics == null) {
+                analytics = newAnalytics;
+            }
+        }
+        return analytics;
+    }
+
+    /**
+     * Runs the authorization flow for a scope set and datastore that is not cached yet.
+     */
+    private static Credential newCredential(List<String> scopes, String credentialDatastore) throws IOException {
+
+        GoogleClientSecrets clientSecrets = getClientSecrets();
+
+        // This opens the credentials datastore named ${credentialDatastore} inside
+        // ~/.oauth-credentials/credentials.store
+        DataStore<StoredCredential> datastore = getDataStoreFactory().getDataStore(credentialDatastore);
+        if (datastore.isEmpty()) {
+            importLegacyDataStore(datastore);
+        }
+
+        GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(
+                HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, scopes).setCredentialDataStore(datastore)
+                .build();
+
+        // Build the local server and bind it to port 8080
+        LocalServerReceiver localReceiver = new LocalServerReceiver.Builder().setPort(8080).build();
+
+        // Authorize.
+        Credential credential = new AuthorizationCodeInstalledApp(flow, localReceiver).authorize("user");
+
+        // Cached credentials live as long as the JVM, so keep their access token fresh.
+        TOKEN_REFRESH_SCHEDULER.register(credential);
+        return credential;
+    }
+
+    /**
+     * Returns the scheduler refreshing cached credentials, e.g. to report its refresh statistics.
+     */
+    public static TokenRefreshScheduler getTokenRefreshScheduler() {
+        return TOKEN_REFRESH_SCHEDULER;
+    }
+
+    /**
+     * Loads the client secrets once per JVM.
+     */
+    private static synchronized GoogleClientSecrets getClientSecrets() throws IOException {
+        if (clientSecrets != null) {
+            return clientSecrets;
+        }
 
         // Load client secrets.
         Reader clientSecretReader = new InputStreamReader(Auth.class.getResourceAsStream("/client_secrets.json"));
-        GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, clientSecretReader);
+        GoogleClientSecrets secrets;
+        try {
+            secrets = GoogleClientSecrets.load(JSON_FACTORY, clientSecretReader);
+        } finally {
+            clientSecretReader.close();
+        }
 
         // Checks that the defaults have been replaced (Default = "Enter X here").
-        if (clientSecrets.getDetails().getClientId().startsWith("Enter")
-                || clientSecrets.getDetails().getClientSecret().startsWith("Enter ")) {
+        if (secrets.getDetails().getClientId().startsWith("Enter")
+                || secrets.getDetails().getClientSecret().startsWith("Enter ")) {
             System.out.println(
                     "Enter Client ID and Secret from https://code.google.com/apis/console/?api=youtube"
                             + "into src/main/resources/client_secrets.json");
             System.exit(1);
         }
 
-        // This creates the credentials datastore at ~/.oauth-credentials/${credentialDatastore}
-        FileDataStoreFactory fileDataStoreFactory = new FileDataStoreFactory(new File(System.getProperty("user.home") + "/" + CREDENTIALS_DIRECTORY));
-        DataStore<StoredCredential> datastore = fileDataStoreFactory.getDataStore(credentialDatastore);
+        clientSecrets = secrets;
+        return clientSecrets;
+    }
 
-        GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(
-                HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, scopes).setCredentialDataStore(datastore)
-                .build();
+    /**
+     * Creates the datastore factory backed by ~/.oauth-credentials/credentials.store once per JVM.
+     */
+    private static synchronized DataStoreFactory getDataStoreFactory() throws IOException {
+        if (dataStoreFactory == null) {
+            dataStoreFactory = new MappedFileDataStoreFactory(
+                    new File(getCredentialsDirectory(), CREDENTIALS_STORE_FILE));
+        }
+        return dataStoreFactory;
+    }
 
-        // Build the local server and bind it to port 8080
-        LocalServerReceiver localReceiver = new LocalServerReceiver.Builder().setPort(8080).build();
+    /**
+     * Copies tokens saved by earlier versions, which kept one file per datastore directly in
+     * ~/.oauth-credentials, so existing users are not asked to authorize again.
+     */
+    private static void importLegacyDataStore(DataStore<StoredCredential> datastore) throws IOException {
+        File legacyFile = new File(getCredentialsDirectory(), datastore.getId());
+        if (!legacyFile.isFile()) {
+            return;
+        }
+        DataStore<StoredCredential> legacyDatastore =
+                new FileDataStoreFactory(getCredentialsDirectory()).getDataStore(datastore.getId());
+        for (String key : legacyDatastore.keySet()) {
+            datastore.set(key, legacyDatastore.get(key));
+        }
+    }
 
-        // Authorize.
-        return new AuthorizationCodeInstalledApp(flow, localReceiver).authorize("user");
+    private static File getCredentialsDirectory() {
+        return new File(System.getProperty("user.home") + "/" + CREDENTIALS_DIRECTORY);
+    }
+
+    /**
+     * Builds the cache key for a scope set and datastore. Scopes are sorted so that the same set in
+     * a different order maps to the same credential.
+     */
+    private static String credentialKey(List<String> scopes, String credentialDatastore) {
+        List<String> sortedScopes = new ArrayList<String>(scopes);
+        Collections.sort(sortedScopes);
+        StringBuilder key = new StringBuilder(credentialDatastore);
+        for (String scope : sortedScopes) {
+            key.append(' ').append(scope);
+        }
+        return key.toString();
     }
 }
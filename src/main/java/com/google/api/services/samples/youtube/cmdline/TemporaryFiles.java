@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Helpers for files that are written under a temporary name and then moved into place.
+ */
+public final class TemporaryFiles {
+
+    private TemporaryFiles() {
+    }
+
+    /**
+     * Moves a temporary file over a file, which need not exist.
+     * <p/>
+     * Where a rename may replace an existing file, as on Linux and Mac OS X, readers see either the
+     * old or the new file. Elsewhere, e.g. on Windows, the file is deleted first, so a reader may
+     * briefly find no file at all. The temporary file is left in place if it cannot be moved.
+     *
+     * @throws IOException if the temporary file cannot be moved
+     */
+    public static void replace(File temporary, File file) throws IOException {
+        if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+            throw new IOException("Cannot rename " + temporary + " to " + file);
+        }
+    }
+}
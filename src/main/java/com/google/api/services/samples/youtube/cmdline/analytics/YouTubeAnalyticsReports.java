@@ -1,11 +1,8 @@
 package com.google.api.services.samples.youtube.cmdline.analytics;
 
-import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.AsyncRequests;
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.Channel;
 import com.google.api.services.youtube.model.ChannelListResponse;
@@ -27,16 +24,6 @@ import java.util.List;
  */
 public class YouTubeAnalyticsReports {
 
-    /**
-     * Global instance of the HTTP transport.
-     */
-    private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
-
-    /**
-     * Global instance of the JSON factory.
-     */
-    private static final JsonFactory JSON_FACTORY = new JacksonFactory();
-
     /**
      * Global instance of Youtube object to make general YouTube API requests.
      */
@@ -62,17 +49,11 @@ public class YouTubeAnalyticsReports {
         );
 
         try {
-            Credential credential = Auth.authorize(scopes, "analyticsreports");
-
             // YouTube object used to make all non-analytic API requests.
-            youtube = new YouTube.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
-                    .setApplicationName("youtube-analytics-api-report-example")
-                    .build();
+            youtube = Auth.getYouTube(scopes, "analyticsreports", "youtube-analytics-api-report-example");
 
-            // YouTube object used to make all analytic API requests.
-            analytics = new YouTubeAnalytics.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
-                    .setApplicationName("youtube-analytics-api-report-example")
-                    .build();
+            // YouTube object used to make all analytic API requests. Both clients share one credential.
+            analytics = Auth.getYouTubeAnalytics(scopes, "analyticsreports", "youtube-analytics-api-report-example");
 
             // Constructs request to get channel id for current user.
             YouTube.Channels.List channelRequest = youtube.channels().list("id,snippet");
@@ -94,9 +75,14 @@ public class YouTubeAnalyticsReports {
                 writer.println("Default Channel: " + defaultChannel.getSnippet().getTitle() +
                         " ( " + channelId + " )\n");
 
-                printData(writer, "Views Over Time.", executeViewsOverTimeQuery(analytics, channelId));
-                printData(writer, "Top Videos", executeTopVideosQuery(analytics, channelId));
-                printData(writer, "Demographics", executeDemographicsQuery(analytics, channelId));
+                // The three reports are independent, so they are requested concurrently.
+                RequestFuture<ResultTable> viewsOverTime = executeViewsOverTimeQuery(analytics, channelId);
+                RequestFuture<ResultTable> topVideos = executeTopVideosQuery(analytics, channelId);
+                RequestFuture<ResultTable> demographics = executeDemographicsQuery(analytics, channelId);
+
+                printData(writer, "Views Over Time.", viewsOverTime.getResult());
+                printData(writer, "Top Videos", topVideos.getResult());
+                printData(writer, "Demographics", demographics.getResult());
             }
         } catch (IOException e) {
             System.err.println("IOException: " + e.getMessage());
@@ -112,20 +98,19 @@ public class YouTubeAnalyticsReports {
      *
      * @param analytics the analytics service object used to access the API.
      * @param id        the string id from which to retrieve data.
-     * @return the response from the API.
+     * @return future of the response from the API.
      * @throws IOException if an API error occurred.
      */
-    private static ResultTable executeViewsOverTimeQuery(YouTubeAnalytics analytics,
-                                                         String id) throws IOException {
+    private static RequestFuture<ResultTable> executeViewsOverTimeQuery(YouTubeAnalytics analytics,
+                                                                        String id) throws IOException {
 
-        return analytics.reports()
+        return AsyncRequests.getDefault().execute(analytics.reports()
                 .query("channel==" + id,     // channel id
                         "2012-01-01",         // Start date.
                         "2012-01-14",         // End date.
                         "views,uniques")      // Metrics.
                 .setDimensions("day")
-                .setSort("day")
-                .execute();
+                .setSort("day"));
     }
 
     /**
@@ -133,21 +118,20 @@ public class YouTubeAnalyticsReports {
      *
      * @param analytics the analytics service object used to access the API.
      * @param id        the string id from which to retrieve data.
-     * @return the response from the API.
+     * @return future of the response from the API.
      * @throws IOException if an API error occurred.
      */
-    private static ResultTable executeTopVideosQuery(YouTubeAnalytics analytics,
-                                                     String id) throws IOException {
+    private static RequestFuture<ResultTable> executeTopVideosQuery(YouTubeAnalytics analytics,
+                                                                    String id) throws IOException {
 
-        return analytics.reports()
+        return AsyncRequests.getDefault().execute(analytics.reports()
                 .query("channel==" + id,                          // channel id
                         "2012-01-01",                              // Start date.
                         "2012-08-14",                              // End date.
                         "views,subscribersGained,subscribersLost") // Metrics.
                 .setDimensions("video")
                 .setSort("-views")
-                .setMaxResults(10)
-                .execute();
+                .setMaxResults(10));
     }
 
     /**
@@ -155,19 +139,18 @@ public class YouTubeAnalyticsReports {
      *
      * @param analytics the analytics service object used to access the API.
      * @param id        the string id from which to retrieve data.
-     * @return the response from the API.
+     * @return future of the response from the API.
      * @throws IOException if an API error occurred.
      */
-    private static ResultTable executeDemographicsQuery(YouTubeAnalytics analytics,
-                                                        String id) throws IOException {
-        return analytics.reports()
+    private static RequestFuture<ResultTable> executeDemographicsQuery(YouTubeAnalytics analytics,
+                                                                       String id) throws IOException {
+        return AsyncRequests.getDefault().execute(analytics.reports()
                 .query("channel==" + id,     // channel id
                         "2007-01-01",         // Start date.
                         "2012-08-14",         // End date.
                         "viewerPercentage")   // Metrics.
                 .setDimensions("ageGroup,gender")
-                .setSort("-viewerPercentage")
-                .execute();
+                .setSort("-viewerPercentage"));
     }
 
     /**
@@ -0,0 +1,622 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.auth;
+
+import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.store.AbstractDataStore;
+import com.google.api.client.util.store.AbstractDataStoreFactory;
+import com.google.api.client.util.store.DataStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Data store factory that keeps every data store in one memory-mapped, append-only file.
+ * <p/>
+ * {@link com.google.api.client.util.store.FileDataStoreFactory} serializes a whole map per data
+ * store and rewrites it on every change. Here each {@code set}, {@code delete} and {@code clear}
+ * appends one small checksummed record, and an in-memory index maps each data store and key to the
+ * position of its latest value in the mapping, so lookups are a hash lookup plus the
+ * deserialization of a single value. Startup reads the file once to rebuild the index.
+ * <p/>
+ * Crash safety: records are forced to disk before the committed length in the file header is
+ * advanced, and on load a record with a bad length or checksum ends the log. Once superseded
+ * records take up more space than live ones, the live records are copied to a temporary file
+ * which then replaces the log by a rename, so a crash during compaction leaves the old file intact.
+ * <p/>
+ * Like {@code FileDataStoreFactory}, the file can be used by several processes at once. Every
+ * operation locks the file for its own duration only (shared for reads, exclusive for changes)
+ * and first applies the records other processes have appended since. A compaction marks the log
+ * it replaced as retired, so that the other processes reopen the file by name.
+ */
+public class MappedFileDataStoreFactory extends AbstractDataStoreFactory {
+
+    private static final Logger LOGGER = Logger.getLogger(MappedFileDataStoreFactory.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x59544453;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Header: magic (int), version (int), committed length of the file (long), which is
+     * {@link #RETIRED} once the file has been replaced by a compacted copy.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    private static final int END_OFFSET = 8;
+
+    private static final long RETIRED = -1;
+
+    /**
+     * Record prefix: body length (int), CRC32 of the body (int).
+     */
+    private static final int RECORD_PREFIX_SIZE = 8;
+
+    private static final byte OP_SET = 1;
+
+    private static final byte OP_DELETE = 2;
+
+    private static final byte OP_CLEAR = 3;
+
+    private static final int MIN_CAPACITY = 64 * 1024;
+
+    /**
+     * Superseded bytes below this size are never compacted away.
+     */
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private final File file;
+
+    private RandomAccessFile randomAccessFile;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Offset right after the last record applied to the index.
+     */
+    private int end;
+
+    /**
+     * Bytes taken by records that no longer contribute to the state.
+     */
+    private long deadBytes;
+
+    /**
+     * Data store id to key to location of the latest record for that key.
+     */
+    private final Map<String, Map<String, Slot>> index = new HashMap<String, Map<String, Slot>>();
+
+    /**
+     * @param file file holding all data stores; it and its parent directory are created if needed
+     */
+    public MappedFileDataStoreFactory(File file) throws IOException {
+        this.file = file.getCanonicalFile();
+        File parent = this.file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("unable to create directory: " + parent);
+        }
+        open();
+    }
+
+    /**
+     * Returns the file holding all data stores.
+     */
+    public final File getFile() {
+        return file;
+    }
+
+    @Override
+    protected <V extends Serializable> DataStore<V> createDataStore(String id) throws IOException {
+        return new MappedDataStore<V>(this, id);
+    }
+
+    private File compactFile() {
+        return new File(file.getPath() + ".compact");
+    }
+
+    /**
+     * Opens and maps the file, initializing it if empty, and rebuilds the index.
+     */
+    private void open() throws IOException {
+        while (true) {
+            boolean created = !file.exists();
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if (created) {
+                restrictToOwner(file);
+            }
+            channel = randomAccessFile.getChannel();
+            FileLock lock = channel.lock();
+            try {
+                long length = channel.size();
+                if (length > Integer.MAX_VALUE) {
+                    close();
+                    throw new IOException("credential store is too large: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        capacityFor((int) Math.max(length, HEADER_SIZE)));
+
+                if (length < HEADER_SIZE) {
+                    buffer.putInt(0, MAGIC);
+                    buffer.putInt(4, VERSION);
+                    buffer.putLong(END_OFFSET, HEADER_SIZE);
+                    buffer.force();
+                } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    close();
+                    throw new IOException("not a credential store file: " + file);
+                } else if (buffer.getLong(END_OFFSET) == RETIRED) {
+                    // Replaced by a compaction between opening and locking.
+                    close();
+                    continue;
+                }
+                index.clear();
+                deadBytes = 0;
+                end = HEADER_SIZE;
+                readNewRecords(true);
+
+                // A leftover from a compaction that did not complete; the log itself is intact,
+                // and no compaction can be running while the log is locked.
+                File compactFile = compactFile();
+                if (compactFile.exists() && !compactFile.delete()) {
+                    LOGGER.warning("Unable to delete " + compactFile);
+                }
+                return;
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * Locks the file and brings the index up to date with the changes of other processes, reopening
+     * the file if it has been compacted.
+     *
+     * @param exclusive whether the caller changes the file
+     */
+    private FileLock lock(boolean exclusive) throws IOException {
+        while (true) {
+            FileLock lock = channel.lock(0, Long.MAX_VALUE, !exclusive);
+            if (buffer.getLong(END_OFFSET) != RETIRED) {
+                readNewRecords(exclusive);
+                return lock;
+            }
+            close();
+            open();
+        }
+    }
+
+    private static void release(FileLock lock) throws IOException {
+        if (lock.isValid()) {
+            lock.release();
+        }
+    }
+
+    /**
+     * Applies the records committed after the last applied one, stopping at the first incomplete
+     * or corrupt record. With {@code repair}, which needs the exclusive lock, the committed length
+     * is cut back to that record.
+     */
+    private void readNewRecords(boolean repair) throws IOException {
+        long committed = buffer.getLong(END_OFFSET);
+        if (committed > buffer.capacity() && committed <= Integer.MAX_VALUE) {
+            // Grown by another process.
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityFor((int) committed));
+        }
+        int limit = (int) Math.min(Math.max(committed, HEADER_SIZE), buffer.capacity());
+        int offset = end;
+        CRC32 crc = new CRC32();
+        while (offset + RECORD_PREFIX_SIZE <= limit) {
+            int bodyLength = buffer.getInt(offset);
+            if (bodyLength <= 0 || offset + RECORD_PREFIX_SIZE + bodyLength > limit) {
+                break;
+            }
+            byte[] body = new byte[bodyLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + RECORD_PREFIX_SIZE);
+            view.get(body);
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            apply(offset, body);
+            offset += RECORD_PREFIX_SIZE + bodyLength;
+        }
+        if (offset != committed && repair) {
+            LOGGER.warning("Discarding " + (committed - offset) + " bytes after offset " + offset + " in " + file);
+            buffer.putLong(END_OFFSET, offset);
+            buffer.force();
+        }
+        end = offset;
+    }
+
+    /**
+     * Applies a record read from the log to the index.
+     */
+    private void apply(int offset, byte[] body) {
+        ByteBuffer in = ByteBuffer.wrap(body);
+        byte op = in.get();
+        String id = readString(in);
+        int recordSize = RECORD_PREFIX_SIZE + body.length;
+        if (op == OP_CLEAR) {
+            Map<String, Slot> store = index.remove(id);
+            deadBytes += recordSize + sizeOf(store);
+            return;
+        }
+        String key = readString(in);
+        if (op == OP_SET) {
+            int valueLength = in.getInt();
+            int valueOffset = offset + RECORD_PREFIX_SIZE + in.position();
+            Slot previous = storeFor(id).put(key, new Slot(offset, recordSize, valueOffset, valueLength));
+            if (previous != null) {
+                deadBytes += previous.recordSize;
+            }
+        } else {
+            Map<String, Slot> store = index.get(id);
+            Slot previous = store == null ? null : store.remove(key);
+            deadBytes += recordSize + (previous == null ? 0 : previous.recordSize);
+        }
+    }
+
+    private static long sizeOf(Map<String, Slot> store) {
+        long size = 0;
+        if (store != null) {
+            for (Slot slot : store.values()) {
+                size += slot.recordSize;
+            }
+        }
+        return size;
+    }
+
+    private Map<String, Slot> storeFor(String id) {
+        Map<String, Slot> store = index.get(id);
+        if (store == null) {
+            store = new HashMap<String, Slot>();
+            index.put(id, store);
+        }
+        return store;
+    }
+
+    synchronized Set<String> keySet(String id) throws IOException {
+        FileLock lock = lock(false);
+        try {
+            Map<String, Slot> store = index.get(id);
+            if (store == null) {
+                return Collections.emptySet();
+            }
+            return Collections.unmodifiableSet(new HashSet<String>(store.keySet()));
+        } finally {
+            release(lock);
+        }
+    }
+
+    synchronized <V extends Serializable> List<V> values(String id) throws IOException {
+        FileLock lock = lock(false);
+        try {
+            Map<String, Slot> store = index.get(id);
+            if (store == null) {
+                return Collections.emptyList();
+            }
+            List<V> values = new ArrayList<V>(store.size());
+            for (Slot slot : store.values()) {
+                values.add(this.<V>read(slot));
+            }
+            return Collections.unmodifiableList(values);
+        } finally {
+            release(lock);
+        }
+    }
+
+    synchronized <V extends Serializable> V get(String id, String key) throws IOException {
+        FileLock lock = lock(false);
+        try {
+            Map<String, Slot> store = index.get(id);
+            Slot slot = store == null ? null : store.get(key);
+            return slot == null ? null : this.<V>read(slot);
+        } finally {
+            release(lock);
+        }
+    }
+
+    synchronized int size(String id) throws IOException {
+        FileLock lock = lock(false);
+        try {
+            Map<String, Slot> store = index.get(id);
+            return store == null ? 0 : store.size();
+        } finally {
+            release(lock);
+        }
+    }
+
+    synchronized void set(String id, String key, Serializable value) throws IOException {
+        byte[] valueBytes = IOUtils.serialize(value);
+        FileLock lock = lock(true);
+        try {
+            append(OP_SET, id, key, valueBytes);
+        } finally {
+            release(lock);
+        }
+    }
+
+    synchronized void delete(String id, String key) throws IOException {
+        FileLock lock = lock(true);
+        try {
+            Map<String, Slot> store = index.get(id);
+            if (store != null && store.containsKey(key)) {
+                append(OP_DELETE, id, key, null);
+            }
+        } finally {
+            release(lock);
+        }
+    }
+
+    synchronized void clear(String id) throws IOException {
+        FileLock lock = lock(true);
+        try {
+            if (index.containsKey(id)) {
+                append(OP_CLEAR, id, null, null);
+            }
+        } finally {
+            release(lock);
+        }
+    }
+
+    private <V extends Serializable> V read(Slot slot) throws IOException {
+        byte[] bytes = new byte[slot.valueLength];
+        ByteBuffer view = buffer.duplicate();
+        view.position(slot.valueOffset);
+        view.get(bytes);
+        return IOUtils.<V>deserialize(bytes);
+    }
+
+    /**
+     * Appends a record, forces it to disk, commits it in the header and applies it to the index.
+     * Called with the exclusive lock held.
+     */
+    private void append(byte op, String id, String key, byte[] value) throws IOException {
+        byte[] body = encode(op, id, key, value);
+        int recordSize = RECORD_PREFIX_SIZE + body.length;
+        if ((long) end + recordSize > Integer.MAX_VALUE) {
+            throw new IOException("credential store is full: " + file);
+        }
+        ensureCapacity(end + recordSize);
+
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer out = buffer.duplicate();
+        out.position(end);
+        out.putInt(body.length);
+        out.putInt((int) crc.getValue());
+        out.put(body);
+        buffer.force();
+
+        int offset = end;
+        end += recordSize;
+        buffer.putLong(END_OFFSET, end);
+        buffer.force();
+        apply(offset, body);
+
+        long liveBytes = end - HEADER_SIZE - deadBytes;
+        if (deadBytes > MIN_COMPACTION_BYTES && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    private static byte[] encode(byte op, String id, String key, byte[] value) {
+        byte[] idBytes = id.getBytes(UTF_8);
+        byte[] keyBytes = key == null ? null : key.getBytes(UTF_8);
+        int length = 1 + 4 + idBytes.length;
+        if (keyBytes != null) {
+            length += 4 + keyBytes.length;
+        }
+        if (value != null) {
+            length += 4 + value.length;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.put(op);
+        body.putInt(idBytes.length).put(idBytes);
+        if (keyBytes != null) {
+            body.putInt(keyBytes.length).put(keyBytes);
+        }
+        if (value != null) {
+            body.putInt(value.length).put(value);
+        }
+        return body.array();
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required > buffer.capacity()) {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityFor(required));
+        }
+    }
+
+    private static int capacityFor(int required) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < required && capacity > 0) {
+            capacity <<= 1;
+        }
+        return capacity > 0 ? capacity : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Rewrites the live records into a fresh file and swaps it in. Called with the exclusive lock
+     * held, which the old file keeps until it is closed.
+     */
+    private void compact() throws IOException {
+        File compactFile = compactFile();
+        RandomAccessFile target = new RandomAccessFile(compactFile, "rw");
+        try {
+            restrictToOwner(compactFile);
+            FileChannel targetChannel = target.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+            targetChannel.write(header);
+            long offset = HEADER_SIZE;
+            for (Map<String, Slot> store : index.values()) {
+                for (Slot slot : store.values()) {
+                    ByteBuffer record = buffer.duplicate();
+                    record.position(slot.offset);
+                    record.limit(slot.offset + slot.recordSize);
+                    while (record.hasRemaining()) {
+                        targetChannel.write(record);
+                    }
+                    offset += slot.recordSize;
+                }
+            }
+            targetChannel.force(true);
+            header.clear();
+            header.putLong(offset).flip();
+            targetChannel.write(header, END_OFFSET);
+            targetChannel.force(true);
+        } finally {
+            target.close();
+        }
+
+        if (!compactFile.renameTo(file)) {
+            // Some platforms cannot rename over an open file. The log is still intact and in use;
+            // the compaction is simply retried later.
+            LOGGER.warning("Unable to replace " + file + " with compacted copy");
+            if (!compactFile.delete()) {
+                LOGGER.warning("Unable to delete " + compactFile);
+            }
+            return;
+        }
+        // Processes waiting for the lock of the old file reopen the file by name once they get it.
+        buffer.putLong(END_OFFSET, RETIRED);
+        close();
+        open();
+    }
+
+    /**
+     * Closes the file, which releases any lock held on it.
+     */
+    private void close() throws IOException {
+        buffer.force();
+        randomAccessFile.close();
+    }
+
+    /**
+     * Tokens are secrets, so only the owner may read the file.
+     */
+    private static void restrictToOwner(File file) {
+        if (!(file.setReadable(false, false) && file.setWritable(false, false)
+                && file.setReadable(true, true) && file.setWritable(true, true))) {
+            LOGGER.warning("Unable to restrict permissions of " + file + " to its owner");
+        }
+    }
+
+    /**
+     * Location of the latest record for a key.
+     */
+    private static final class Slot {
+
+        final int offset;
+
+        final int recordSize;
+
+        final int valueOffset;
+
+        final int valueLength;
+
+        Slot(int offset, int recordSize, int valueOffset, int valueLength) {
+            this.offset = offset;
+            this.recordSize = recordSize;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+        }
+    }
+
+    /**
+     * Data store view over one id in the shared file.
+     */
+    static class MappedDataStore<V extends Serializable> extends AbstractDataStore<V> {
+
+        MappedDataStore(MappedFileDataStoreFactory dataStoreFactory, String id) {
+            super(dataStoreFactory, id);
+        }
+
+        @Override
+        public MappedFileDataStoreFactory getDataStoreFactory() {
+            return (MappedFileDataStoreFactory) super.getDataStoreFactory();
+        }
+
+        @Override
+        public int size() throws IOException {
+            return getDataStoreFactory().size(getId());
+        }
+
+        public Set<String> keySet() throws IOException {
+            return getDataStoreFactory().keySet(getId());
+        }
+
+        public Collection<V> values() throws IOException {
+            return getDataStoreFactory().<V>values(getId());
+        }
+
+        public V get(String key) throws IOException {
+            if (key == null) {
+                return null;
+            }
+            return getDataStoreFactory().<V>get(getId(), key);
+        }
+
+        public DataStore<V> set(String key, V value) throws IOException {
+            if (key == null || value == null) {
+                throw new NullPointerException();
+            }
+            getDataStoreFactory().set(getId(), key, value);
+            return this;
+        }
+
+        public DataStore<V> clear() throws IOException {
+            getDataStoreFactory().clear(getId());
+            return this;
+        }
+
+        public DataStore<V> delete(String key) throws IOException {
+            if (key != null) {
+                getDataStoreFactory().delete(getId(), key);
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.auth;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.CredentialRefreshListener;
+import com.google.api.client.auth.oauth2.RefreshTokenRequest;
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.auth.oauth2.TokenResponseException;
+import com.google.api.client.http.GenericUrl;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refreshes the access token of registered credentials in the background, shortly before it
+ * expires.
+ * <p/>
+ * {@link Credential} refreshes lazily: the first request made within a minute of expiry (or after
+ * a 401) performs the token round trip while holding the credential lock, so every other thread
+ * using the credential blocks behind it. This scheduler runs the refresh ahead of time on its own
+ * thread and only takes the credential lock to install the new token, so request threads never
+ * wait on the token server unless the token has actually expired (for example, because every
+ * background attempt failed).
+ * <p/>
+ * At most one refresh runs per credential at any time. Refresh latency, successes and failures
+ * are counted and available through the getters and {@link #toString()}.
+ */
+public class TokenRefreshScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(TokenRefreshScheduler.class.getName());
+
+    /**
+     * Default number of seconds before expiry at which the refresh is started. {@link Credential}
+     * itself refreshes synchronously within 60 seconds of expiry, so this must be larger than that.
+     */
+    public static final long DEFAULT_REFRESH_LEAD_SECONDS = 300;
+
+    /**
+     * Upper bound on the delay between two attempts after a failed refresh.
+     */
+    private static final long MAX_RETRY_DELAY_SECONDS = 60;
+
+    private final ConcurrentMap<Credential, Registration> registrations =
+            new ConcurrentHashMap<Credential, Registration>();
+
+    private final ScheduledExecutorService executor;
+
+    private final long refreshLeadSeconds;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Creates a scheduler that refreshes {@link #DEFAULT_REFRESH_LEAD_SECONDS} before expiry.
+     */
+    public TokenRefreshScheduler() {
+        this(DEFAULT_REFRESH_LEAD_SECONDS);
+    }
+
+    /**
+     * @param refreshLeadSeconds number of seconds before expiry at which the refresh is started
+     */
+    public TokenRefreshScheduler(long refreshLeadSeconds) {
+        if (refreshLeadSeconds <= 60) {
+            throw new IllegalArgumentException("refreshLeadSeconds must be greater than 60");
+        }
+        this.refreshLeadSeconds = refreshLeadSeconds;
+        ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "token-refresh-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = scheduledExecutor;
+    }
+
+    /**
+     * Starts refreshing the given credential in the background. Registering the same credential
+     * twice has no effect. Credentials without a refresh token are ignored.
+     *
+     * @param credential credential to keep fresh
+     */
+    public void register(Credential credential) {
+        if (credential.getRefreshToken() == null) {
+            return;
+        }
+        Registration registration = new Registration(credential);
+        if (registrations.putIfAbsent(credential, registration) == null) {
+            registration.scheduleNext();
+        }
+    }
+
+    /**
+     * Stops refreshing the given credential. A refresh that is already running completes.
+     *
+     * @param credential credential to stop refreshing
+     */
+    public void unregister(Credential credential) {
+        Registration registration = registrations.remove(credential);
+        if (registration != null) {
+            registration.cancel();
+        }
+    }
+
+    /**
+     * Starts a refresh of the given registered credential right away, unless one is already running.
+     *
+     * @param credential registered credential
+     */
+    public void refreshNow(Credential credential) {
+        Registration registration = registrations.get(credential);
+        if (registration != null) {
+            registration.schedule(0);
+        }
+    }
+
+    /**
+     * Stops the background thread. Registered credentials fall back to refreshing lazily.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        registrations.clear();
+    }
+
+    /**
+     * Returns the number of successful refreshes.
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * Returns the number of failed refresh attempts.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the mean latency of refresh attempts (successful or not) in milliseconds.
+     */
+    public double getAverageLatencyMillis() {
+        long attempts = refreshCount.get() + failureCount.get();
+        return attempts == 0 ? 0 : totalLatencyNanos.get() / 1e6 / attempts;
+    }
+
+    /**
+     * Returns the slowest refresh attempt in milliseconds.
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TokenRefreshScheduler[credentials=%d, refreshes=%d, failures=%d, "
+                + "avgLatencyMs=%.1f, maxLatencyMs=%.1f]", registrations.size(), getRefreshCount(),
+                getFailureCount(), getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+
+    private void recordLatency(long nanos) {
+        totalLatencyNanos.addAndGet(nanos);
+        long max = maxLatencyNanos.get();
+        while (nanos > max && !maxLatencyNanos.compareAndSet(max, nanos)) {
+            max = maxLatencyNanos.get();
+        }
+    }
+
+    /**
+     * Refresh state of a single credential.
+     */
+    private final class Registration implements Runnable {
+
+        private final Credential credential;
+
+        /**
+         * Guards against two refreshes of the same credential running at once.
+         */
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private ScheduledFuture<?> next;
+
+        private boolean cancelled;
+
+        Registration(Credential credential) {
+            this.credential = credential;
+        }
+
+        /**
+         * Schedules the next refresh from the current expiry time of the credential.
+         */
+        void scheduleNext() {
+            Long expiresInSeconds = credential.getExpiresInSeconds();
+            long delaySeconds = expiresInSeconds == null ? 0 : Math.max(0, expiresInSeconds - refreshLeadSeconds);
+            schedule(delaySeconds);
+        }
+
+        synchronized void schedule(long delaySeconds) {
+            if (cancelled || executor.isShutdown()) {
+                return;
+            }
+            if (next != null) {
+                next.cancel(false);
+            }
+            next = executor.schedule(this, delaySeconds, TimeUnit.SECONDS);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+
+        public void run() {
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                refresh();
+            } finally {
+                refreshing.set(false);
+            }
+        }
+
+        private void refresh() {
+            long start = System.nanoTime();
+            try {
+                // The token request is made outside of the credential lock; only installing the
+                // response locks the credential, so request threads keep using the old token meanwhile.
+                TokenResponse response = new RefreshTokenRequest(credential.getTransport(),
+                        credential.getJsonFactory(), new GenericUrl(credential.getTokenServerEncodedUrl()),
+                        credential.getRefreshToken())
+                        .setClientAuthentication(credential.getClientAuthentication())
+                        .setRequestInitializer(credential.getRequestInitializer())
+                        .execute();
+                credential.setFromTokenResponse(response);
+                recordLatency(System.nanoTime() - start);
+                refreshCount.incrementAndGet();
+
+                // Lets listeners such as the credential datastore persist the new token.
+                for (CredentialRefreshListener listener : credential.getRefreshListeners()) {
+                    listener.onTokenResponse(credential, response);
+                }
+                scheduleNext();
+
+            } catch (TokenResponseException e) {
+                recordLatency(System.nanoTime() - start);
+                failureCount.incrementAndGet();
+                notifyError(e);
+                if (e.getStatusCode() == 400 || e.getStatusCode() == 401) {
+                    // The refresh token was revoked or is invalid; retrying will not help.
+                    LOGGER.log(Level.WARNING, "Token refresh rejected, no longer refreshing in background", e);
+                    unregister(credential);
+                } else {
+                    retryLater(e);
+                }
+            } catch (IOException e) {
+                recordLatency(System.nanoTime() - start);
+                failureCount.incrementAndGet();
+                retryLater(e);
+            } catch (RuntimeException e) {
+                recordLatency(System.nanoTime() - start);
+                failureCount.incrementAndGet();
+                retryLater(e);
+            }
+        }
+
+        private void notifyError(TokenResponseException e) {
+            for (CredentialRefreshListener listener : credential.getRefreshListeners()) {
+                try {
+                    listener.onTokenErrorResponse(credential, e.getDetails());
+                } catch (IOException listenerError) {
+                    LOGGER.log(Level.WARNING, "Credential refresh listener failed", listenerError);
+                }
+            }
+        }
+
+        /**
+         * Retries after half of the remaining token lifetime, capped at a minute. Once the token has
+         * expired the credential refreshes itself on the next request, as it does without this
+         * scheduler.
+         */
+        private void retryLater(Exception e) {
+            LOGGER.log(Level.WARNING, "Background token refresh failed", e);
+            Long expiresInSeconds = credential.getExpiresInSeconds();
+            if (expiresInSeconds != null && expiresInSeconds > 0) {
+                schedule(Math.max(1, Math.min(MAX_RETRY_DELAY_SECONDS, expiresInSeconds / 2)));
+            } else {
+                schedule(MAX_RETRY_DELAY_SECONDS);
+            }
+        }
+    }
+}
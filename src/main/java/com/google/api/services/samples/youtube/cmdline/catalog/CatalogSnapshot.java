@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.catalog;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only video catalog in a memory-mapped file.
+ * <p/>
+ * The file holds the columns of a {@link VideoCatalog} and its ID index as they are laid out in
+ * memory, so {@link #map} only validates a 32-byte header: opening a snapshot of millions of videos
+ * takes milliseconds and no heap, and pages are read from disk (or the page cache) as rows are
+ * accessed. Lookups probe the mapped copy of the {@link LongIntHashMap} table.
+ * <p/>
+ * Layout, big-endian: a header (magic, format version, row count, index capacity, tag count,
+ * title arena length, tag arena length, tag name bytes), then packed IDs and publish times as
+ * {@code long}s, the index keys and values, title offsets and lengths, tag offsets and counts, the
+ * tag arena, tag name offsets, and finally the UTF-8 bytes of titles and tag names. A snapshot is
+ * limited to 2 GB. Instances are safe for use by multiple threads.
+ */
+public final class CatalogSnapshot {
+
+    private static final int MAGIC = 0x59545643;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private final int indexCapacity;
+
+    private final int tagCount;
+
+    private final int videoIds;
+
+    private final int publishedAt;
+
+    private final int indexKeys;
+
+    private final int indexValues;
+
+    private final int titleOffsets;
+
+    private final int titleLengths;
+
+    private final int tagOffsets;
+
+    private final int tagCounts;
+
+    private final int tagArena;
+
+    private final int tagNameOffsets;
+
+    private final int titleArena;
+
+    private final int tagNames;
+
+    private CatalogSnapshot(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a video catalog snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported video catalog snapshot version " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.indexCapacity = buffer.getInt(12);
+        this.tagCount = buffer.getInt(16);
+        int titleArenaLength = buffer.getInt(20);
+        int tagArenaLength = buffer.getInt(24);
+        int tagNamesLength = buffer.getInt(28);
+
+        videoIds = HEADER_BYTES;
+        publishedAt = videoIds + size * 8;
+        indexKeys = publishedAt + size * 8;
+        indexValues = indexKeys + indexCapacity * 8;
+        titleOffsets = indexValues + indexCapacity * 4;
+        titleLengths = titleOffsets + size * 4;
+        tagOffsets = titleLengths + size * 4;
+        tagCounts = tagOffsets + size * 4;
+        tagArena = tagCounts + size * 4;
+        tagNameOffsets = tagArena + tagArenaLength * 4;
+        titleArena = tagNameOffsets + (tagCount + 1) * 4;
+        tagNames = titleArena + titleArenaLength;
+        if ((long) tagNames + tagNamesLength != buffer.capacity()) {
+            throw new IOException("Truncated video catalog snapshot");
+        }
+    }
+
+    /**
+     * Maps a snapshot file read-only. The mapping stays valid after the file is replaced or deleted.
+     *
+     * @throws IOException if the file cannot be read, or is not a snapshot of this format version
+     */
+    public static CatalogSnapshot map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return new CatalogSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a compacted snapshot of a catalog. Rows keep their order; titles and tags replaced in
+     * the catalog are not written.
+     */
+    public static void write(VideoCatalog catalog, File file) throws IOException {
+        int size = catalog.size();
+
+        // First pass: sizes of the arenas and the tag dictionary.
+        LongIntHashMap index = new LongIntHashMap(size);
+        Map<String, Integer> tagNumbers = new HashMap<String, Integer>();
+        List<byte[]> tagNameBytes = new ArrayList<byte[]>();
+        int[] titleLengths = new int[size];
+        long titleArenaLength = 0;
+        long tagArenaLength = 0;
+        long tagNamesLength = 0;
+        for (int row = 0; row < size; row++) {
+            index.put(catalog.getPackedVideoId(row), row);
+            titleLengths[row] = catalog.getTitle(row).getBytes(UTF_8).length;
+            titleArenaLength += titleLengths[row];
+            List<String> tags = catalog.getTags(row);
+            tagArenaLength += tags.size();
+            for (String tag : tags) {
+                if (!tagNumbers.containsKey(tag)) {
+                    tagNumbers.put(tag, tagNumbers.size());
+                    byte[] bytes = tag.getBytes(UTF_8);
+                    tagNameBytes.add(bytes);
+                    tagNamesLength += bytes.length;
+                }
+            }
+        }
+        long[] keys = index.keys();
+        int[] values = index.values();
+        long length = HEADER_BYTES + size * 16L + keys.length * 12L + size * 16L + tagArenaLength * 4
+                + (tagNameBytes.size() + 1) * 4L + titleArenaLength + tagNamesLength;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Video catalog too large for a snapshot: " + length + " bytes");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(size);
+            out.writeInt(keys.length);
+            out.writeInt(tagNameBytes.size());
+            out.writeInt((int) titleArenaLength);
+            out.writeInt((int) tagArenaLength);
+            out.writeInt((int) tagNamesLength);
+            for (int row = 0; row < size; row++) {
+                out.writeLong(catalog.getPackedVideoId(row));
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeLong(catalog.getPublishedAt(row));
+            }
+            for (long key : keys) {
+                out.writeLong(key);
+            }
+            for (int value : values) {
+                out.writeInt(value);
+            }
+            int offset = 0;
+            for (int row = 0; row < size; row++) {
+                out.writeInt(offset);
+                offset += titleLengths[row];
+            }
+            for (int titleLength : titleLengths) {
+                out.writeInt(titleLength);
+            }
+            offset = 0;
+            for (int row = 0; row < size; row++) {
+                out.writeInt(offset);
+                offset += catalog.getTags(row).size();
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeInt(catalog.getTags(row).size());
+            }
+            for (int row = 0; row < size; row++) {
+                for (String tag : catalog.getTags(row)) {
+                    out.writeInt(tagNumbers.get(tag));
+                }
+            }
+            offset = 0;
+            for (byte[] bytes : tagNameBytes) {
+                out.writeInt(offset);
+                offset += bytes.length;
+            }
+            out.writeInt(offset);
+            for (int row = 0; row < size; row++) {
+                out.write(catalog.getTitle(row).getBytes(UTF_8));
+            }
+            for (byte[] bytes : tagNameBytes) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the number of videos.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the row of a video, or -1 if the video is not in the snapshot.
+     */
+    public int indexOf(String videoId) {
+        if (!VideoIds.isValid(videoId)) {
+            return -1;
+        }
+        long key = VideoIds.pack(videoId);
+        int mask = indexCapacity - 1;
+        for (int slot = LongIntHashMap.slot(key, mask); ; slot = (slot + 1) & mask) {
+            int row = buffer.getInt(indexValues + slot * 4);
+            if (row < 0) {
+                return -1;
+            }
+            if (buffer.getLong(indexKeys + slot * 8) == key) {
+                return row;
+            }
+        }
+    }
+
+    public String getVideoId(int row) {
+        return VideoIds.unpack(getPackedVideoId(row));
+    }
+
+    /**
+     * Returns the {@linkplain VideoIds packed} video ID of a row.
+     */
+    public long getPackedVideoId(int row) {
+        checkRow(row);
+        return buffer.getLong(videoIds + row * 8);
+    }
+
+    public String getTitle(int row) {
+        checkRow(row);
+        return string(titleArena + buffer.getInt(titleOffsets + row * 4), buffer.getInt(titleLengths + row * 4));
+    }
+
+    /**
+     * Returns the publish time of a row in milliseconds since the epoch, or
+     * {@link VideoCatalog#UNKNOWN_TIME}.
+     */
+    public long getPublishedAt(int row) {
+        checkRow(row);
+        return buffer.getLong(publishedAt + row * 8);
+    }
+
+    public List<String> getTags(int row) {
+        checkRow(row);
+        int count = buffer.getInt(tagCounts + row * 4);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        int first = buffer.getInt(tagOffsets + row * 4);
+        List<String> tags = new ArrayList<String>(count);
+        for (int i = first; i < first + count; i++) {
+            int number = buffer.getInt(tagArena + i * 4);
+            int start = buffer.getInt(tagNameOffsets + number * 4);
+            int end = buffer.getInt(tagNameOffsets + (number + 1) * 4);
+            tags.add(string(tagNames + start, end - start));
+        }
+        return tags;
+    }
+
+    /**
+     * Returns the size of the snapshot, in bytes.
+     */
+    public long getMappedBytes() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogSnapshot[videos=" + size + ", tags=" + tagCount + ", mappedBytes=" + getMappedBytes() + "]";
+    }
+
+    /**
+     * Decodes UTF-8 at an absolute position; absolute reads leave the shared buffer untouched.
+     */
+    private String string(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+}
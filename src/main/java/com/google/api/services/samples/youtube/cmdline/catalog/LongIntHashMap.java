@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.catalog;
+
+import java.util.Arrays;
+
+/**
+ * Map from {@code long} keys to non-negative {@code int} values without boxing, such as packed
+ * video IDs to catalog rows.
+ * <p/>
+ * Keys and values live in two parallel arrays probed linearly from a mixed hash of the key, which
+ * costs 12 bytes per slot instead of the ~80 bytes per entry of a {@code HashMap<Long, Integer>}.
+ * Every {@code long} is a valid key, so a free slot is marked by a negative value. The table
+ * doubles when it is more than two thirds full. Entries cannot be removed. Not thread-safe.
+ */
+public final class LongIntHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private int size;
+
+    private int resizeThreshold;
+
+    public LongIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries the map holds without resizing
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of the key, or -1 if the key is absent.
+     */
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); values[slot] >= 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps the key to the value.
+     *
+     * @param value non-negative value
+     * @return the previous value of the key, or -1 if the key was absent
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; values[slot] >= 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            resize(keys.length * 2);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the approximate heap size of the arrays, in bytes.
+     */
+    public long getMemoryBytes() {
+        return keys.length * 12L;
+    }
+
+    /**
+     * Returns the key slots, for writing the table to a snapshot.
+     */
+    long[] keys() {
+        return keys;
+    }
+
+    /**
+     * Returns the value slots, negative for free slots, for writing the table to a snapshot.
+     */
+    int[] values() {
+        return values;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] >= 0) {
+                int slot = slot(oldKeys[i], mask);
+                while (values[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        resizeThreshold = capacity / 3 * 2;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity / 3 * 2 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Packed IDs are well spread, but other keys may not be; the finalizer of MurmurHash3 spreads
+     * every bit of the key over the slot index. {@link CatalogSnapshot} probes its mapped copy of
+     * the table with the same function.
+     */
+    static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.catalog;
+
+import com.google.api.services.samples.youtube.cmdline.TemporaryFiles;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Video catalog that survives restarts: a memory-mapped {@link CatalogSnapshot} plus an append log
+ * of the videos put since the snapshot was written.
+ * <p/>
+ * Opening maps the snapshot, which takes milliseconds however large it is, and replays the log
+ * into a small in-memory {@link VideoCatalog} in front of it. Puts are appended to the log and
+ * become durable once {@link #flush()} or {@link #close()} returns, or the background thread has
+ * flushed them (every compaction interval). When the log holds more videos than the compaction
+ * threshold, the background thread compacts: it writes a new snapshot of the snapshot and the
+ * logged videos, maps it and starts an empty log. Reads and puts continue meanwhile; the videos
+ * being compacted stay readable from memory until the new snapshot is mapped. A compaction builds
+ * the new snapshot on the heap first, so it needs memory for one {@link VideoCatalog} of all videos.
+ * <p/>
+ * Files: {@code <name>.snapshot}, {@code <name>.log} and, while compacting,
+ * {@code <name>.compacting.log}. A log whose last record was cut short by a crash is truncated to
+ * its last complete record when opened. Instances are created with {@link Builder} and are safe
+ * for use by multiple threads.
+ */
+public final class PersistentVideoCatalog {
+
+    private static final Logger LOGGER = Logger.getLogger(PersistentVideoCatalog.class.getName());
+
+    /**
+     * Marks a put record of the log; other values are reserved for future record types.
+     */
+    private static final byte PUT_RECORD = 1;
+
+    private final File snapshotFile;
+
+    private final File logFile;
+
+    private final File compactingLogFile;
+
+    private final int compactionThreshold;
+
+    private final ScheduledExecutorService compactor;
+
+    private CatalogSnapshot snapshot;
+
+    private VideoCatalog logged = new VideoCatalog();
+
+    /**
+     * Logged videos being written to a new snapshot, or {@code null} if no compaction is running.
+     */
+    private VideoCatalog compacting;
+
+    /**
+     * Numbers of videos in {@link #logged} and {@link #compacting} that are in no older store.
+     */
+    private int loggedAdded;
+
+    private int compactingAdded;
+
+    private DataOutputStream log;
+
+    private long compactionCount;
+
+    private PersistentVideoCatalog(Builder builder) throws IOException {
+        this.snapshotFile = new File(builder.directory, builder.name + ".snapshot");
+        this.logFile = new File(builder.directory, builder.name + ".log");
+        this.compactingLogFile = new File(builder.directory, builder.name + ".compacting.log");
+        this.compactionThreshold = builder.compactionThreshold;
+
+        if (snapshotFile.exists()) {
+            snapshot = CatalogSnapshot.map(snapshotFile);
+        }
+        // A compaction was interrupted: its videos are replayed first, and compacted again below.
+        boolean interrupted = compactingLogFile.exists();
+        replay(compactingLogFile);
+        replay(logFile);
+        log = openLog();
+
+        compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "video-catalog-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                compactInBackground();
+            }
+        }, builder.compactionIntervalMillis, builder.compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        if (interrupted) {
+            try {
+                compact();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot compact video catalog " + snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * Adds or replaces a video.
+     *
+     * @param videoId           11-character video ID
+     * @param title             title, or {@code null}
+     * @param publishedAtMillis publish time in milliseconds since the epoch, or
+     *                          {@link VideoCatalog#UNKNOWN_TIME}
+     * @param tags              tags, or {@code null}
+     * @throws IllegalArgumentException if the video ID is not well-formed
+     */
+    public synchronized void put(String videoId, String title, long publishedAtMillis, List<String> tags)
+            throws IOException {
+        boolean known = contains(videoId);
+        logged.put(videoId, title, publishedAtMillis, tags);
+        if (!known) {
+            loggedAdded++;
+        }
+        log.writeByte(PUT_RECORD);
+        log.writeUTF(videoId);
+        log.writeUTF(title == null ? "" : title);
+        log.writeLong(publishedAtMillis);
+        log.writeInt(tags == null ? 0 : tags.size());
+        if (tags != null) {
+            for (String tag : tags) {
+                log.writeUTF(tag);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of videos.
+     */
+    public synchronized int size() {
+        return (snapshot == null ? 0 : snapshot.size()) + compactingAdded + loggedAdded;
+    }
+
+    public synchronized boolean contains(String videoId) {
+        return logged.indexOf(videoId) >= 0 || (compacting != null && compacting.indexOf(videoId) >= 0)
+                || (snapshot != null && snapshot.indexOf(videoId) >= 0);
+    }
+
+    /**
+     * Returns the title of a video, or {@code null} if the video is not in the catalog.
+     */
+    public synchronized String getTitle(String videoId) {
+        int row = logged.indexOf(videoId);
+        if (row >= 0) {
+            return logged.getTitle(row);
+        }
+        if (compacting != null && (row = compacting.indexOf(videoId)) >= 0) {
+            return compacting.getTitle(row);
+        }
+        if (snapshot != null && (row = snapshot.indexOf(videoId)) >= 0) {
+            return snapshot.getTitle(row);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the publish time of a video in milliseconds since the epoch, or
+     * {@link VideoCatalog#UNKNOWN_TIME} if it is not known or the video is not in the catalog.
+     */
+    public synchronized long getPublishedAt(String videoId) {
+        int row = logged.indexOf(videoId);
+        if (row >= 0) {
+            return logged.getPublishedAt(row);
+        }
+        if (compacting != null && (row = compacting.indexOf(videoId)) >= 0) {
+            return compacting.getPublishedAt(row);
+        }
+        if (snapshot != null && (row = snapshot.indexOf(videoId)) >= 0) {
+            return snapshot.getPublishedAt(row);
+        }
+        return VideoCatalog.UNKNOWN_TIME;
+    }
+
+    /**
+     * Returns the tags of a video, or {@code null} if the video is not in the catalog.
+     */
+    public synchronized List<String> getTags(String videoId) {
+        int row = logged.indexOf(videoId);
+        if (row >= 0) {
+            return logged.getTags(row);
+        }
+        if (compacting != null && (row = compacting.indexOf(videoId)) >= 0) {
+            return compacting.getTags(row);
+        }
+        if (snapshot != null && (row = snapshot.indexOf(videoId)) >= 0) {
+            return snapshot.getTags(row);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of videos in the log, which are replayed when the catalog is opened.
+     */
+    public synchronized int getLoggedCount() {
+        return logged.size() + (compacting == null ? 0 : compacting.size());
+    }
+
+    /**
+     * Returns the number of completed compactions.
+     */
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * Makes the puts so far durable.
+     */
+    public synchronized void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * Writes the snapshot and the logged videos to a new snapshot and empties the log. Returns
+     * right away if another compaction is running or nothing was logged.
+     */
+    public void compact() throws IOException {
+        VideoCatalog videos;
+        CatalogSnapshot base;
+        synchronized (this) {
+            if (compacting != null || logged.size() == 0) {
+                return;
+            }
+            log.close();
+            try {
+                rotateLog();
+            } finally {
+                log = openLog();
+            }
+            compacting = logged;
+            compactingAdded = loggedAdded;
+            logged = new VideoCatalog();
+            loggedAdded = 0;
+            videos = compacting;
+            base = snapshot;
+        }
+
+        try {
+            // Later puts replace earlier ones, so the logged videos go last.
+            VideoCatalog merged = new VideoCatalog((base == null ? 0 : base.size()) + videos.size());
+            if (base != null) {
+                for (int row = 0; row < base.size(); row++) {
+                    merged.put(base.getVideoId(row), base.getTitle(row), base.getPublishedAt(row), base.getTags(row));
+                }
+            }
+            for (int row = 0; row < videos.size(); row++) {
+                merged.put(videos.getVideoId(row), videos.getTitle(row), videos.getPublishedAt(row),
+                        videos.getTags(row));
+            }
+            File temporary = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+            CatalogSnapshot.write(merged, temporary);
+            TemporaryFiles.replace(temporary, snapshotFile);
+            CatalogSnapshot compacted = CatalogSnapshot.map(snapshotFile);
+
+            synchronized (this) {
+                snapshot = compacted;
+                compacting = null;
+                compactingAdded = 0;
+                compactionCount++;
+            }
+            compactingLogFile.delete();
+
+        } catch (IOException e) {
+            restoreCompacting();
+            throw e;
+        } catch (RuntimeException e) {
+            restoreCompacting();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the background thread and flushes the log. The log is replayed by the next
+     * {@link Builder#build()}.
+     */
+    public synchronized void close() throws IOException {
+        compactor.shutdownNow();
+        log.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PersistentVideoCatalog[videos=" + size() + ", logged=" + getLoggedCount() + ", snapshot="
+                + snapshot + ", compactions=" + compactionCount + "]";
+    }
+
+    private void compactInBackground() {
+        try {
+            boolean due;
+            synchronized (this) {
+                log.flush();
+                due = logged.size() >= compactionThreshold;
+            }
+            if (due) {
+                compact();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot compact video catalog " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Puts the videos of a failed compaction back in front of the snapshot. Their log stays on
+     * disk and is replayed by the next open, or joined by the log of the next compaction.
+     */
+    private synchronized void restoreCompacting() {
+        VideoCatalog videos = compacting;
+        for (int row = 0; row < logged.size(); row++) {
+            videos.put(logged.getVideoId(row), logged.getTitle(row), logged.getPublishedAt(row), logged.getTags(row));
+        }
+        logged = videos;
+        loggedAdded += compactingAdded;
+        compacting = null;
+        compactingAdded = 0;
+    }
+
+    /**
+     * Moves the log aside for compaction. If the log of an earlier compaction is still there, the
+     * log is appended to it, so that neither is lost.
+     */
+    private void rotateLog() throws IOException {
+        if (!compactingLogFile.exists()) {
+            TemporaryFiles.replace(logFile, compactingLogFile);
+            return;
+        }
+        InputStream in;
+        try {
+            in = new FileInputStream(logFile);
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            OutputStream out = new FileOutputStream(compactingLogFile, true);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        logFile.delete();
+    }
+
+    private DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true), 64 * 1024));
+    }
+
+    /**
+     * Puts the videos of a log into {@link #logged}, truncating a record cut short by a crash.
+     */
+    private void replay(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream fileIn = new DataInputStream(new FileInputStream(file));
+        try {
+            fileIn.readFully(bytes);
+        } finally {
+            fileIn.close();
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int complete = 0;
+        try {
+            while (complete < bytes.length) {
+                if (in.readByte() != PUT_RECORD) {
+                    throw new IOException("Unknown record in video catalog log " + file + " at " + complete);
+                }
+                String videoId = in.readUTF();
+                String title = in.readUTF();
+                long publishedAt = in.readLong();
+                int tagCount = in.readInt();
+                List<String> tags = new ArrayList<String>(tagCount);
+                for (int i = 0; i < tagCount; i++) {
+                    tags.add(in.readUTF());
+                }
+                boolean known = contains(videoId);
+                logged.put(videoId, title, publishedAt, tags);
+                if (!known) {
+                    loggedAdded++;
+                }
+                complete = bytes.length - in.available();
+            }
+        } catch (EOFException e) {
+            LOGGER.warning("Truncating incomplete record at the end of video catalog log " + file);
+            RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+            try {
+                truncated.setLength(complete);
+            } finally {
+                truncated.close();
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link PersistentVideoCatalog}.
+     */
+    public static final class Builder {
+
+        private final File directory;
+
+        private final String name;
+
+        private int compactionThreshold = 10000;
+
+        private long compactionIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+
+        /**
+         * @param directory directory of the catalog files, which must exist
+         * @param name      name of the catalog files
+         */
+        public Builder(File directory, String name) {
+            this.directory = directory;
+            this.name = name;
+        }
+
+        /**
+         * Sets the number of logged videos from which the background thread compacts (default
+         * 10000).
+         */
+        public Builder setCompactionThreshold(int compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Sets how often the background thread flushes the log and checks whether to compact
+         * (default 30 seconds).
+         */
+        public Builder setCompactionInterval(long compactionInterval, TimeUnit unit) {
+            this.compactionIntervalMillis = unit.toMillis(compactionInterval);
+            return this;
+        }
+
+        /**
+         * Maps the snapshot and replays the log.
+         */
+        public PersistentVideoCatalog build() throws IOException {
+            return new PersistentVideoCatalog(this);
+        }
+    }
+}
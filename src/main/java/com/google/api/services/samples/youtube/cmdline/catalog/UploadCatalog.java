@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.catalog;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.ByteStreams;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.samples.youtube.cmdline.TemporaryFiles;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.PlaylistItem;
+import com.google.api.services.youtube.model.PlaylistItemListResponse;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Local catalog of the videos in an uploads playlist, brought up to date incrementally.
+ * <p/>
+ * The catalog is a JSON Lines file with one {@link PlaylistItem} per line. Next to it a checkpoint
+ * records the newest {@code publishedAt} in the catalog, the IDs of the newest videos and the
+ * length of the catalog file. {@link #sync} walks the playlist newest first and stops at the first
+ * video that is already known, or older than the checkpoint, so a sync after a few new uploads
+ * takes a single request however large the channel is. The new videos are appended to the
+ * catalog, newest first, and the next checkpoint is derived from them and the previous one, so the
+ * existing catalog is neither rewritten nor read again. Only the first sync reads the whole
+ * playlist.
+ * <p/>
+ * The checkpoint is replaced once the new lines are on disk, and the catalog is only read up to the
+ * length it records. If a sync is interrupted before that, the next sync cuts off its lines and
+ * fetches the same videos again. Syncs of the same catalog hold a lock on the catalog file, so
+ * they run one at a time.
+ */
+public final class UploadCatalog {
+
+    private static final int CHECKPOINT_FORMAT_VERSION = 2;
+
+    /**
+     * Number of newest video IDs kept in the checkpoint, one full page.
+     */
+    private static final int RECENT_VIDEO_IDS = 50;
+
+    /**
+     * Largest page size allowed by PlaylistItems.List.
+     */
+    private static final long MAX_RESULTS_PER_PAGE = 50;
+
+    private final File directory;
+
+    private final String playlistId;
+
+    private final File catalogFile;
+
+    private final File checkpointFile;
+
+    private final JsonFactory jsonFactory;
+
+    /**
+     * @param directory   directory of the catalog files, created (readable by the owner only) if it
+     *                    does not exist
+     * @param playlistId  ID of the uploads playlist, which names the files
+     * @param jsonFactory JSON factory used to read and write the catalog
+     */
+    public UploadCatalog(File directory, String playlistId, JsonFactory jsonFactory) throws IOException {
+        if (!directory.isDirectory()) {
+            if (!directory.mkdirs()) {
+                throw new IOException("Cannot create upload catalog directory " + directory);
+            }
+            // Private and unlisted videos are cataloged too; keep them readable by the owner only.
+            directory.setReadable(false, false);
+            directory.setReadable(true, true);
+            directory.setWritable(false, false);
+            directory.setWritable(true, true);
+            directory.setExecutable(false, false);
+            directory.setExecutable(true, true);
+        }
+        this.directory = directory;
+        this.playlistId = playlistId;
+        this.catalogFile = new File(directory, playlistId + ".jsonl");
+        this.checkpointFile = new File(directory, playlistId + ".checkpoint");
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Returns the catalog file, which does not exist before the first sync.
+     */
+    public File getCatalogFile() {
+        return catalogFile;
+    }
+
+    /**
+     * Reads the checkpoint of the last sync, or returns {@code null} if there was none.
+     */
+    public Checkpoint readCheckpoint() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new FileInputStream(checkpointFile));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != CHECKPOINT_FORMAT_VERSION) {
+                return null;
+            }
+            long itemCount = in.readLong();
+            long catalogLength = in.readLong();
+            long newestPublishedAt = in.readLong();
+            int size = in.readInt();
+            Set<String> recentVideoIds = new LinkedHashSet<String>(size * 2);
+            for (int i = 0; i < size; i++) {
+                recentVideoIds.add(in.readUTF());
+            }
+            return new Checkpoint(itemCount, catalogLength, newestPublishedAt, recentVideoIds);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the catalog into a compact {@link VideoCatalog}, which is empty before the first sync.
+     * Lines appended by a sync that is still running are not read.
+     */
+    public VideoCatalog load() throws IOException {
+        Checkpoint checkpoint = readCheckpoint();
+        if (checkpoint == null) {
+            return new VideoCatalog(0);
+        }
+        VideoCatalog videos = new VideoCatalog((int) checkpoint.getItemCount());
+        BufferedReader in;
+        try {
+            in = new BufferedReader(new InputStreamReader(
+                    ByteStreams.limit(new FileInputStream(catalogFile), checkpoint.getCatalogLength()), "UTF-8"));
+        } catch (FileNotFoundException e) {
+            return videos;
+        }
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.length() > 0) {
+                    videos.put(readLine(line));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return videos;
+    }
+
+    /**
+     * Opens the memory-mapped copy of the catalog, which is kept up to date by
+     * {@link #sync(YouTube.PlaylistItems.List, PersistentVideoCatalog)} and opens in milliseconds
+     * however large the catalog is. The first time, it is filled from the catalog file.
+     */
+    public PersistentVideoCatalog openVideos() throws IOException {
+        PersistentVideoCatalog videos = new PersistentVideoCatalog.Builder(directory, playlistId).build();
+        Checkpoint checkpoint = readCheckpoint();
+        if (checkpoint != null && videos.size() < checkpoint.getItemCount()) {
+            VideoCatalog catalog = load();
+            for (int row = 0; row < catalog.size(); row++) {
+                videos.put(catalog.getVideoId(row), catalog.getTitle(row), catalog.getPublishedAt(row), null);
+            }
+            videos.compact();
+        }
+        return videos;
+    }
+
+    /**
+     * Fetches the videos added to the playlist since the last sync and appends them to the
+     * catalog.
+     *
+     * @param request list request of the uploads playlist, without a page token; its page size and
+     *                fields are set here
+     */
+    public SyncResult sync(YouTube.PlaylistItems.List request) throws IOException {
+        return sync(request, null);
+    }
+
+    /**
+     * Fetches the videos added to the playlist since the last sync and appends them to the
+     * catalog and to its {@linkplain #openVideos() memory-mapped copy}.
+     *
+     * @param request list request of the uploads playlist, without a page token; its page size and
+     *                fields are set here
+     * @param videos  memory-mapped copy of the catalog, or {@code null}
+     */
+    public SyncResult sync(YouTube.PlaylistItems.List request, PersistentVideoCatalog videos) throws IOException {
+        long start = System.nanoTime();
+        request.setMaxResults(MAX_RESULTS_PER_PAGE);
+        request.setFields("items(contentDetails/videoId,snippet/title,snippet/publishedAt),nextPageToken");
+
+        FileChannel channel = new RandomAccessFile(catalogFile, "rw").getChannel();
+        try {
+            // One sync at a time, so that each one starts from the checkpoint of the last.
+            channel.lock();
+            Checkpoint checkpoint = readCheckpoint();
+            if (checkpoint != null && checkpoint.getCatalogLength() > channel.size()) {
+                checkpoint = null;
+            }
+            // Cuts off the lines of an interrupted sync, which no checkpoint covers.
+            long committedLength = checkpoint == null ? 0 : checkpoint.getCatalogLength();
+            channel.truncate(committedLength);
+            channel.position(committedLength);
+
+            // New videos are appended to the catalog as they arrive.
+            Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), "UTF-8"));
+            Set<String> newVideoIds = new LinkedHashSet<String>();
+            long newestPublishedAt = Long.MIN_VALUE;
+            int pages = 0;
+            String pageToken = null;
+            boolean caughtUp = false;
+            do {
+                request.setPageToken(pageToken);
+                PlaylistItemListResponse response = request.execute();
+                pages++;
+                // The fields mask drops an empty items array, e.g. for a channel without uploads.
+                if (response.getItems() != null) {
+                    for (PlaylistItem item : response.getItems()) {
+                        if (checkpoint != null && checkpoint.contains(item)) {
+                            caughtUp = true;
+                            break;
+                        }
+                        if (newVideoIds.add(videoId(item))) {
+                            writeLine(out, item);
+                            newestPublishedAt = Math.max(newestPublishedAt, publishedAt(item));
+                            if (videos != null) {
+                                videos.put(videoId(item), item.getSnippet().getTitle(), publishedAt(item), null);
+                            }
+                        }
+                    }
+                }
+                pageToken = response.getNextPageToken();
+            } while (!caughtUp && pageToken != null);
+
+            if (newVideoIds.isEmpty() && checkpoint != null) {
+                return new SyncResult(0, checkpoint.getItemCount(), pages, System.nanoTime() - start);
+            }
+            out.flush();
+            channel.force(false);
+
+            Checkpoint updated = Checkpoint.after(checkpoint, newVideoIds, newestPublishedAt, channel.position());
+            writeCheckpoint(updated);
+            return new SyncResult(newVideoIds.size(), updated.getItemCount(), pages, System.nanoTime() - start);
+        } finally {
+            // Also releases the lock.
+            channel.close();
+        }
+    }
+
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        File temporary = File.createTempFile(checkpointFile.getName(), null, directory);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary));
+            try {
+                out.writeInt(CHECKPOINT_FORMAT_VERSION);
+                out.writeLong(checkpoint.getItemCount());
+                out.writeLong(checkpoint.getCatalogLength());
+                out.writeLong(checkpoint.getNewestPublishedAt());
+                out.writeInt(checkpoint.recentVideoIds.size());
+                for (String videoId : checkpoint.recentVideoIds) {
+                    out.writeUTF(videoId);
+                }
+            } finally {
+                out.close();
+            }
+            TemporaryFiles.replace(temporary, checkpointFile);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    private void writeLine(Writer out, PlaylistItem item) throws IOException {
+        out.write(jsonFactory.toString(item));
+        out.write('\n');
+    }
+
+    private PlaylistItem readLine(String line) throws IOException {
+        return jsonFactory.fromString(line, PlaylistItem.class);
+    }
+
+    private static String videoId(PlaylistItem item) {
+        return item.getContentDetails().getVideoId();
+    }
+
+    private static long publishedAt(PlaylistItem item) {
+        DateTime publishedAt = item.getSnippet().getPublishedAt();
+        return publishedAt == null ? Long.MIN_VALUE : publishedAt.getValue();
+    }
+
+    /**
+     * State of the catalog after a sync.
+     */
+    public static final class Checkpoint {
+
+        private final long itemCount;
+
+        private final long catalogLength;
+
+        private final long newestPublishedAt;
+
+        private final Set<String> recentVideoIds;
+
+        Checkpoint(long itemCount, long catalogLength, long newestPublishedAt, Set<String> recentVideoIds) {
+            this.itemCount = itemCount;
+            this.catalogLength = catalogLength;
+            this.newestPublishedAt = newestPublishedAt;
+            this.recentVideoIds = recentVideoIds;
+        }
+
+        /**
+         * Returns the checkpoint after a sync that appended the given videos, newest first, to the
+         * catalog of the previous checkpoint.
+         *
+         * @param previous          checkpoint before the sync, or {@code null} for the first one
+         * @param newVideoIds       IDs of the appended videos, newest first
+         * @param newestPublishedAt newest {@code publishedAt} of the appended videos
+         * @param catalogLength     length of the catalog file after the sync
+         */
+        static Checkpoint after(Checkpoint previous, Set<String> newVideoIds, long newestPublishedAt,
+                long catalogLength) {
+            Set<String> recentVideoIds = new LinkedHashSet<String>(RECENT_VIDEO_IDS * 2);
+            for (String videoId : newVideoIds) {
+                if (recentVideoIds.size() == RECENT_VIDEO_IDS) {
+                    break;
+                }
+                recentVideoIds.add(videoId);
+            }
+            if (previous == null) {
+                return new Checkpoint(newVideoIds.size(), catalogLength, newestPublishedAt, recentVideoIds);
+            }
+            for (String videoId : previous.recentVideoIds) {
+                if (recentVideoIds.size() == RECENT_VIDEO_IDS) {
+                    break;
+                }
+                recentVideoIds.add(videoId);
+            }
+            return new Checkpoint(previous.itemCount + newVideoIds.size(), catalogLength,
+                    Math.max(previous.newestPublishedAt, newestPublishedAt), recentVideoIds);
+        }
+
+        /**
+         * Returns the number of videos in the catalog.
+         */
+        public long getItemCount() {
+            return itemCount;
+        }
+
+        /**
+         * Returns the length in bytes of the part of the catalog file written by completed syncs.
+         */
+        public long getCatalogLength() {
+            return catalogLength;
+        }
+
+        /**
+         * Returns the newest {@code publishedAt} in the catalog, in milliseconds since the epoch.
+         */
+        public long getNewestPublishedAt() {
+            return newestPublishedAt;
+        }
+
+        /**
+         * Returns the IDs of the newest videos in the catalog, newest first.
+         */
+        public List<String> getRecentVideoIds() {
+            return Collections.unmodifiableList(new ArrayList<String>(recentVideoIds));
+        }
+
+        /**
+         * Returns whether the sync has reached videos that are already in the catalog: the video
+         * is one of the newest known ones, or older than all of them.
+         */
+        boolean contains(PlaylistItem item) {
+            return recentVideoIds.contains(videoId(item)) || publishedAt(item) < newestPublishedAt;
+        }
+    }
+
+    /**
+     * Outcome of a {@link #sync}.
+     */
+    public static final class SyncResult {
+
+        private final int newItemCount;
+
+        private final long itemCount;
+
+        private final int pageCount;
+
+        private final long elapsedNanos;
+
+        SyncResult(int newItemCount, long itemCount, int pageCount, long elapsedNanos) {
+            this.newItemCount = newItemCount;
+            this.itemCount = itemCount;
+            this.pageCount = pageCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of videos added to the catalog.
+         */
+        public int getNewItemCount() {
+            return newItemCount;
+        }
+
+        /**
+         * Returns the number of videos in the catalog after the sync.
+         */
+        public long getItemCount() {
+            return itemCount;
+        }
+
+        /**
+         * Returns the number of pages requested.
+         */
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /**
+         * Returns how long the sync took, in milliseconds.
+         */
+        public double getElapsedMillis() {
+            return elapsedNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d new videos, %d in catalog, %d pages requested in %.0f ms", newItemCount,
+                    itemCount, pageCount, getElapsedMillis());
+        }
+    }
+}
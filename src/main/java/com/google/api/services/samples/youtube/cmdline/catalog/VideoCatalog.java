@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.catalog;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.youtube.model.PlaylistItem;
+import com.google.api.services.youtube.model.SearchResult;
+import com.google.api.services.youtube.model.Video;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact in-memory catalog of video metadata: ID, title, publish time and tags.
+ * <p/>
+ * Each video is a row of primitive columns instead of an object graph such as a
+ * {@link PlaylistItem}, which takes kilobytes per video:
+ * <ul>
+ * <li>IDs are {@linkplain VideoIds packed} into a {@code long[]} and indexed by a
+ * {@link LongIntHashMap} from packed ID to row;</li>
+ * <li>publish times are epoch milliseconds in a {@code long[]};</li>
+ * <li>titles are UTF-8 in one shared byte arena, referenced by offset and length;</li>
+ * <li>tags are dictionary-encoded: each distinct tag is stored once, and the tags of a video are
+ * a span of tag numbers in a shared {@code int[]} arena.</li>
+ * </ul>
+ * A video with a short title and a few tags takes well under 100 bytes. Putting a video that is
+ * already in the catalog replaces its row; the old title and tags stay in the arenas as garbage,
+ * reported by {@link #getGarbageBytes()}. Not thread-safe.
+ */
+public final class VideoCatalog {
+
+    /**
+     * Publish time of videos whose publish time is not known.
+     */
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final LongIntHashMap index;
+
+    private int size;
+
+    private long[] videoIds;
+
+    private long[] publishedAt;
+
+    private int[] titleOffsets;
+
+    private int[] titleLengths;
+
+    private byte[] titleArena = new byte[1024];
+
+    private int titleArenaSize;
+
+    private int[] tagOffsets;
+
+    private int[] tagCounts;
+
+    private int[] tagArena = new int[256];
+
+    private int tagArenaSize;
+
+    private final List<String> tagNames = new ArrayList<String>();
+
+    private final Map<String, Integer> tagNumbers = new HashMap<String, Integer>();
+
+    private long garbageBytes;
+
+    public VideoCatalog() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of videos the catalog holds without growing
+     */
+    public VideoCatalog(int expectedSize) {
+        int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        index = new LongIntHashMap(capacity);
+        videoIds = new long[capacity];
+        publishedAt = new long[capacity];
+        titleOffsets = new int[capacity];
+        titleLengths = new int[capacity];
+        tagOffsets = new int[capacity];
+        tagCounts = new int[capacity];
+    }
+
+    /**
+     * Adds or replaces a video.
+     *
+     * @param videoId           11-character video ID
+     * @param title             title, or {@code null}
+     * @param publishedAtMillis publish time in milliseconds since the epoch, or {@link #UNKNOWN_TIME}
+     * @param tags              tags, or {@code null}
+     * @return row of the video
+     * @throws IllegalArgumentException if the video ID is not well-formed
+     */
+    public int put(String videoId, String title, long publishedAtMillis, List<String> tags) {
+        long packedId = VideoIds.pack(videoId);
+        int row = index.get(packedId);
+        if (row < 0) {
+            row = size;
+            ensureCapacity(size + 1);
+            index.put(packedId, row);
+            videoIds[row] = packedId;
+            size++;
+        } else {
+            garbageBytes += titleLengths[row] + tagCounts[row] * 4L;
+        }
+        publishedAt[row] = publishedAtMillis;
+        putTitle(row, title);
+        putTags(row, tags);
+        return row;
+    }
+
+    /**
+     * Adds or replaces the video of a playlist item, which carries no tags.
+     *
+     * @return row of the video
+     */
+    public int put(PlaylistItem item) {
+        return put(item.getContentDetails().getVideoId(), item.getSnippet().getTitle(),
+                millis(item.getSnippet().getPublishedAt()), null);
+    }
+
+    /**
+     * Adds or replaces a video with its tags, if the {@code snippet} part was requested.
+     *
+     * @return row of the video
+     */
+    public int put(Video video) {
+        if (video.getSnippet() == null) {
+            return put(video.getId(), null, UNKNOWN_TIME, null);
+        }
+        return put(video.getId(), video.getSnippet().getTitle(), millis(video.getSnippet().getPublishedAt()),
+                video.getSnippet().getTags());
+    }
+
+    /**
+     * Adds or replaces the video of a search result, which carries no tags.
+     *
+     * @return row of the video, or -1 if the result is a channel or playlist
+     */
+    public int put(SearchResult result) {
+        String videoId = result.getId().getVideoId();
+        if (videoId == null) {
+            return -1;
+        }
+        return put(videoId, result.getSnippet().getTitle(), millis(result.getSnippet().getPublishedAt()), null);
+    }
+
+    /**
+     * Returns the number of videos.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the row of a video, or -1 if the video is not in the catalog.
+     */
+    public int indexOf(String videoId) {
+        return VideoIds.isValid(videoId) ? index.get(VideoIds.pack(videoId)) : -1;
+    }
+
+    public String getVideoId(int row) {
+        return VideoIds.unpack(getPackedVideoId(row));
+    }
+
+    /**
+     * Returns the {@linkplain VideoIds packed} video ID of a row.
+     */
+    public long getPackedVideoId(int row) {
+        checkRow(row);
+        return videoIds[row];
+    }
+
+    public String getTitle(int row) {
+        checkRow(row);
+        return new String(titleArena, titleOffsets[row], titleLengths[row], UTF_8);
+    }
+
+    /**
+     * Returns the publish time of a row in milliseconds since the epoch, or {@link #UNKNOWN_TIME}.
+     */
+    public long getPublishedAt(int row) {
+        checkRow(row);
+        return publishedAt[row];
+    }
+
+    public List<String> getTags(int row) {
+        checkRow(row);
+        int count = tagCounts[row];
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> tags = new ArrayList<String>(count);
+        for (int i = tagOffsets[row]; i < tagOffsets[row] + count; i++) {
+            tags.add(tagNames.get(tagArena[i]));
+        }
+        return tags;
+    }
+
+    /**
+     * Returns the dictionary number of a tag, or -1 if no video has the tag.
+     */
+    public int getTagNumber(String tag) {
+        Integer number = tagNumbers.get(tag);
+        return number == null ? -1 : number;
+    }
+
+    /**
+     * Returns whether the video of a row has the tag with the given {@linkplain #getTagNumber
+     * dictionary number}. Comparing numbers avoids decoding the tags of every row.
+     */
+    public boolean hasTag(int row, int tagNumber) {
+        checkRow(row);
+        for (int i = tagOffsets[row]; i < tagOffsets[row] + tagCounts[row]; i++) {
+            if (tagArena[i] == tagNumber) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of distinct tags.
+     */
+    public int getTagCount() {
+        return tagNames.size();
+    }
+
+    /**
+     * Returns the bytes of titles and tag spans that were replaced by later puts.
+     */
+    public long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * Returns the approximate heap size of the catalog, in bytes, not counting the tag dictionary.
+     */
+    public long getMemoryBytes() {
+        return videoIds.length * (8L + 8 + 4 + 4 + 4 + 4) + titleArena.length + tagArena.length * 4L
+                + index.getMemoryBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "VideoCatalog[videos=" + size + ", tags=" + getTagCount() + ", memoryBytes=" + getMemoryBytes()
+                + ", garbageBytes=" + garbageBytes + "]";
+    }
+
+    private void putTitle(int row, String title) {
+        byte[] bytes = title == null ? new byte[0] : title.getBytes(UTF_8);
+        if (titleArenaSize + bytes.length > titleArena.length) {
+            titleArena = Arrays.copyOf(titleArena, grow(titleArena.length, titleArenaSize + bytes.length));
+        }
+        System.arraycopy(bytes, 0, titleArena, titleArenaSize, bytes.length);
+        titleOffsets[row] = titleArenaSize;
+        titleLengths[row] = bytes.length;
+        titleArenaSize += bytes.length;
+    }
+
+    private void putTags(int row, List<String> tags) {
+        int count = tags == null ? 0 : tags.size();
+        if (tagArenaSize + count > tagArena.length) {
+            tagArena = Arrays.copyOf(tagArena, grow(tagArena.length, tagArenaSize + count));
+        }
+        tagOffsets[row] = tagArenaSize;
+        tagCounts[row] = count;
+        for (int i = 0; i < count; i++) {
+            tagArena[tagArenaSize++] = tagNumber(tags.get(i));
+        }
+    }
+
+    private int tagNumber(String tag) {
+        Integer number = tagNumbers.get(tag);
+        if (number == null) {
+            number = tagNames.size();
+            tagNames.add(tag);
+            tagNumbers.put(tag, number);
+        }
+        return number;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > videoIds.length) {
+            int newCapacity = grow(videoIds.length, capacity);
+            videoIds = Arrays.copyOf(videoIds, newCapacity);
+            publishedAt = Arrays.copyOf(publishedAt, newCapacity);
+            titleOffsets = Arrays.copyOf(titleOffsets, newCapacity);
+            titleLengths = Arrays.copyOf(titleLengths, newCapacity);
+            tagOffsets = Arrays.copyOf(tagOffsets, newCapacity);
+            tagCounts = Arrays.copyOf(tagCounts, newCapacity);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    /**
+     * Grows arrays by half, so that adding a video takes amortized constant time.
+     */
+    private static int grow(int length, int needed) {
+        long grown = Math.max((long) needed, length + (length >> 1));
+        if (grown > Integer.MAX_VALUE - 8) {
+            if (needed > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("Video catalog too large");
+            }
+            grown = Integer.MAX_VALUE - 8;
+        }
+        return (int) grown;
+    }
+
+    private static long millis(DateTime dateTime) {
+        return dateTime == null ? UNKNOWN_TIME : dateTime.getValue();
+    }
+}
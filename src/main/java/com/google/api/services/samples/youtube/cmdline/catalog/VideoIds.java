@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.catalog;
+
+import java.util.Arrays;
+
+/**
+ * Packs YouTube video IDs into {@code long}s.
+ * <p/>
+ * A video ID is 11 characters of the URL-safe base64 alphabet. The first 10 carry 6 bits each and
+ * the last one only 4 (it is always one of {@code AEIMQUYcgkosw048}), so an ID is exactly 64 bits
+ * and every ID maps to a distinct {@code long}.
+ */
+public final class VideoIds {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private static final int ID_LENGTH = 11;
+
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            VALUES[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private VideoIds() {
+    }
+
+    /**
+     * Returns whether the given string is a well-formed video ID.
+     */
+    public static boolean isValid(String videoId) {
+        if (videoId == null || videoId.length() != ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < ID_LENGTH; i++) {
+            if (value(videoId.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return (value(videoId.charAt(ID_LENGTH - 1)) & 3) == 0;
+    }
+
+    /**
+     * Packs a video ID into a {@code long}.
+     *
+     * @throws IllegalArgumentException if the string is not a well-formed video ID
+     */
+    public static long pack(String videoId) {
+        if (!isValid(videoId)) {
+            throw new IllegalArgumentException("Not a video ID: " + videoId);
+        }
+        long packed = 0;
+        for (int i = 0; i < ID_LENGTH - 1; i++) {
+            packed = (packed << 6) | value(videoId.charAt(i));
+        }
+        return (packed << 4) | (value(videoId.charAt(ID_LENGTH - 1)) >> 2);
+    }
+
+    /**
+     * Returns the video ID packed by {@link #pack}.
+     */
+    public static String unpack(long packed) {
+        char[] chars = new char[ID_LENGTH];
+        chars[ID_LENGTH - 1] = ALPHABET.charAt((int) (packed & 0xf) << 2);
+        packed >>>= 4;
+        for (int i = ID_LENGTH - 2; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt((int) (packed & 0x3f));
+            packed >>>= 6;
+        }
+        return new String(chars);
+    }
+
+    private static int value(char c) {
+        return c < VALUES.length ? VALUES[c] : -1;
+    }
+}
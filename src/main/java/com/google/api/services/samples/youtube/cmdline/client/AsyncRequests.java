@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.services.samples.youtube.cmdline.http.QuotaSchedulingHttpTransport;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs blocking API requests on an executor and returns a {@link RequestFuture} for each, so that
+ * independent requests overlap and dependent ones are chained with
+ * {@link RequestFuture#compose}.
+ * <p/>
+ * Cancelling a returned future, or letting it {@linkplain RequestFuture#withTimeout time out},
+ * interrupts the thread executing the request. The {@linkplain QuotaSchedulingHttpTransport.Lane
+ * quota lane} of the submitting thread is carried over to the executing thread.
+ */
+public final class AsyncRequests {
+
+    private static final AsyncRequests DEFAULT =
+            new AsyncRequests(RequestExecutors.newExecutor("async-request"));
+
+    private final ExecutorService executor;
+
+    /**
+     * @param executor executor running the requests
+     */
+    public AsyncRequests(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the instance shared by the samples, running requests on the executor selected by the
+     * youtube.executor system property (see {@link RequestExecutors}).
+     */
+    public static AsyncRequests getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Executes the request asynchronously.
+     *
+     * @return future completed with the parsed response, or with the exception {@code execute()}
+     * threw
+     */
+    public <T> RequestFuture<T> execute(final AbstractGoogleClientRequest<T> request) {
+        return submit(new Callable<T>() {
+            public T call() throws IOException {
+                return request.execute();
+            }
+        });
+    }
+
+    /**
+     * Runs any blocking work asynchronously, for example a sequence of requests.
+     *
+     * @return future completed with the result of the work, or with the exception it threw
+     */
+    public <T> RequestFuture<T> submit(final Callable<T> work) {
+        final RequestFuture<T> future = new RequestFuture<T>();
+        final AtomicBoolean finished = new AtomicBoolean();
+        final QuotaSchedulingHttpTransport.Lane lane = QuotaSchedulingHttpTransport.getLane();
+        final Future<?> task = executor.submit(new Runnable() {
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                QuotaSchedulingHttpTransport.Lane previousLane = QuotaSchedulingHttpTransport.setLane(lane);
+                try {
+                    T result = work.call();
+                    finished.set(true);
+                    future.set(result);
+                } catch (Exception e) {
+                    finished.set(true);
+                    future.setException(e);
+                } catch (Error e) {
+                    finished.set(true);
+                    future.setException(e);
+                    throw e;
+                } finally {
+                    QuotaSchedulingHttpTransport.setLane(previousLane);
+                }
+            }
+        });
+        // Stops the work when the future is cancelled or times out before the work finishes.
+        future.addListener(new Runnable() {
+            public void run() {
+                if (!finished.get()) {
+                    task.cancel(true);
+                }
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * Failure of a request sent by {@link RequestBatcher}, carrying the JSON error of its part of the
+ * batch response.
+ * <p/>
+ * This is the batch counterpart of
+ * {@link com.google.api.client.googleapis.json.GoogleJsonResponseException}, whose constructor is
+ * not accessible outside the client library.
+ */
+public class BatchResponseException extends HttpResponseException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient GoogleJsonError details;
+
+    /**
+     * @param details         JSON error of the failed request
+     * @param responseHeaders headers of its part of the batch response
+     */
+    public BatchResponseException(GoogleJsonError details, HttpHeaders responseHeaders) {
+        super(new Builder(details.getCode(), null, responseHeaders)
+                .setMessage(details.getCode() + " " + details.getMessage()));
+        this.details = details;
+    }
+
+    /**
+     * Returns the JSON error of the failed request.
+     */
+    public final GoogleJsonError getDetails() {
+        return details;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a group of blocking tasks concurrently as one operation: "fetch N things, fail fast,
+ * cancel the rest".
+ * <p/>
+ * {@link #invokeAll} returns the results in task order once every task has succeeded. As soon as
+ * one task fails, the others are cancelled (their threads interrupted) and the failure is thrown.
+ * Either way no task is still running when the call returns, so work started by a fan-out never
+ * outlives it. With a virtual thread executor from {@link RequestExecutors} a fan-out can start one
+ * task per item, even for thousands of items.
+ */
+public final class FanOut {
+
+    private FanOut() {
+    }
+
+    /**
+     * Runs the tasks on the executor and returns their results in task order.
+     *
+     * @throws IOException the first failure of a task, which cancelled the others
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, Collection<? extends Callable<T>> tasks)
+            throws IOException {
+        CountDownLatch finished = new CountDownLatch(tasks.size());
+        CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+        List<Task<T>> submitted = new ArrayList<Task<T>>(tasks.size());
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                Task<T> wrapper = new Task<T>(task, finished);
+                futures.add(completion.submit(wrapper));
+                submitted.add(wrapper);
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                completion.take().get();
+            }
+
+            List<T> results = new ArrayList<T>(futures.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAndJoin(futures, submitted, finished, tasks.size());
+            throw new InterruptedIOException("Interrupted while waiting for the fan-out");
+        } catch (ExecutionException e) {
+            cancelAndJoin(futures, submitted, finished, tasks.size());
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Fan-out task failed: " + cause);
+        } catch (RuntimeException e) {
+            // For example a RejectedExecutionException while submitting.
+            cancelAndJoin(futures, submitted, finished, tasks.size());
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels every task and waits until none is running any more. Tasks that never ran, because
+     * they were cancelled before they started or never submitted, are counted down here instead.
+     */
+    private static void cancelAndJoin(List<? extends Future<?>> futures, List<? extends Task<?>> tasks,
+                                      CountDownLatch finished, int taskCount) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+        for (Task<?> task : tasks) {
+            if (task.claim()) {
+                finished.countDown();
+            }
+        }
+        for (int i = tasks.size(); i < taskCount; i++) {
+            finished.countDown();
+        }
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    finished.await();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Task of a fan-out, which counts the latch down once it has run. Either the task or
+     * {@link #cancelAndJoin} claims it first; a claimed task no longer runs.
+     */
+    private static final class Task<T> implements Callable<T> {
+
+        private final Callable<T> task;
+
+        private final CountDownLatch finished;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Task(Callable<T> task, CountDownLatch finished) {
+            this.task = task;
+            this.finished = finished;
+        }
+
+        public T call() throws Exception {
+            if (!claim()) {
+                throw new CancellationException("Fan-out cancelled");
+            }
+            try {
+                return task.call();
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Returns whether the caller is the first to claim the task.
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
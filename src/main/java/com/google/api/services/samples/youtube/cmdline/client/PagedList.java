@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.json.GenericJson;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The items of every page of a paged list request, such as {@code PlaylistItems.List},
+ * {@code LiveBroadcasts.List}, {@code LiveStreams.List}, {@code Search.List} or
+ * {@code Subscriptions.List}, read one page at a time.
+ * <p/>
+ * Items are consumed either with {@link #iterator()} or, asynchronously, by subscribing to this
+ * reactive-streams {@link Publisher} (on JDK 9 or newer, {@code org.reactivestreams.FlowAdapters}
+ * turns it into a {@code java.util.concurrent.Flow.Publisher}). Subscribers receive no more items
+ * than they requested. While the items of one page are consumed, the next page is already being
+ * fetched, and no further page is fetched until the current one is used up. At most two pages are
+ * held in memory, however many items the list has.
+ * <p/>
+ * Each iterator or subscription starts again from the page token the request had when this list
+ * was created. The request itself is shared, so its pages are fetched one at a time.
+ *
+ * @param <T> type of the items, e.g. {@code PlaylistItem}
+ */
+public final class PagedList<T> implements Publisher<T> {
+
+    private final AbstractGoogleClientRequest<? extends GenericJson> request;
+
+    private final Class<T> itemType;
+
+    private final AsyncRequests asyncRequests;
+
+    private final String firstPageToken;
+
+    /**
+     * Creates a list fetching its pages with {@link AsyncRequests#getDefault()}.
+     *
+     * @param request  list request; its {@code pageToken} is set for every page
+     * @param itemType type of the elements of the {@code items} of a response
+     */
+    public PagedList(AbstractGoogleClientRequest<? extends GenericJson> request, Class<T> itemType) {
+        this(request, itemType, AsyncRequests.getDefault());
+    }
+
+    /**
+     * @param request       list request; its {@code pageToken} is set for every page
+     * @param itemType      type of the elements of the {@code items} of a response
+     * @param asyncRequests runs the page requests
+     */
+    public PagedList(AbstractGoogleClientRequest<? extends GenericJson> request, Class<T> itemType,
+                     AsyncRequests asyncRequests) {
+        if (request.getClassInfo().getField("pageToken") == null) {
+            throw new IllegalArgumentException(request.getClass().getName() + " is not a paged list request");
+        }
+        this.request = request;
+        this.itemType = itemType;
+        this.asyncRequests = asyncRequests;
+        this.firstPageToken = (String) request.get("pageToken");
+    }
+
+    /**
+     * Returns an iterator over the items of all pages, fetching the first page right away.
+     */
+    public ItemIterator iterator() {
+        return new ItemIterator();
+    }
+
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        ItemSubscription subscription = new ItemSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        // Signals are held back until onSubscribe has returned.
+        subscription.drainLoop();
+    }
+
+    /**
+     * Fetches the page with the given token.
+     */
+    private RequestFuture<Page<T>> fetch(final String pageToken) {
+        return asyncRequests.submit(new Callable<Page<T>>() {
+            public Page<T> call() throws IOException {
+                GenericJson response;
+                synchronized (request) {
+                    request.set("pageToken", pageToken);
+                    response = request.execute();
+                }
+                return new Page<T>(items(response), (String) response.get("nextPageToken"));
+            }
+        });
+    }
+
+    private List<T> items(GenericJson response) {
+        List<?> items = (List<?>) response.get("items");
+        if (items == null) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<T>(items.size());
+        for (Object item : items) {
+            result.add(itemType.cast(item));
+        }
+        return result;
+    }
+
+    /**
+     * Items of one page and the token of the next page, {@code null} on the last page.
+     */
+    private static final class Page<T> {
+
+        final List<T> items;
+
+        final String nextPageToken;
+
+        Page(List<T> items, String nextPageToken) {
+            this.items = items;
+            this.nextPageToken = nextPageToken;
+        }
+    }
+
+    /**
+     * Blocking iterator over the items of all pages. A failed page request is thrown by
+     * {@link #hasNext()} or {@link #next()}, after which the iteration ends.
+     */
+    public final class ItemIterator {
+
+        private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+        private RequestFuture<Page<T>> next = fetch(firstPageToken);
+
+        private ItemIterator() {
+        }
+
+        /**
+         * Returns whether there is another item, waiting for its page if necessary.
+         */
+        public boolean hasNext() throws IOException {
+            while (!current.hasNext()) {
+                RequestFuture<Page<T>> page = next;
+                if (page == null) {
+                    return false;
+                }
+                next = null;
+                Page<T> result = page.getResult();
+                if (result.nextPageToken != null) {
+                    next = fetch(result.nextPageToken);
+                }
+                current = result.items.iterator();
+            }
+            return true;
+        }
+
+        /**
+         * Returns the next item, waiting for its page if necessary.
+         */
+        public T next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * Returns whether the current page has another item, so that {@link #next()} returns without
+         * waiting for the next page.
+         */
+        public boolean isNextBuffered() {
+            return current.hasNext();
+        }
+
+        /**
+         * Stops the iteration, cancelling the page request in progress, if any.
+         */
+        public void close() {
+            RequestFuture<Page<T>> page = next;
+            next = null;
+            current = Collections.<T>emptyList().iterator();
+            if (page != null) {
+                page.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Delivers the items to one subscriber. Every signal is sent from {@link #drainLoop()}, which
+     * runs on one thread at a time: whichever thread requested items, cancelled or completed a page
+     * request while no other thread was draining.
+     */
+    private final class ItemSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super T> subscriber;
+
+        private final AtomicLong requested = new AtomicLong();
+
+        /**
+         * Number of drain requests not yet handled; starts at one so that nothing is signalled
+         * before {@code onSubscribe} has returned.
+         */
+        private final AtomicInteger pendingDrains = new AtomicInteger(1);
+
+        private volatile boolean cancelled;
+
+        private volatile boolean invalidRequest;
+
+        // Only used while draining.
+
+        private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+        private RequestFuture<Page<T>> next;
+
+        private boolean terminated;
+
+        ItemSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            this.next = fetchAndDrain(firstPageToken);
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = true;
+            } else {
+                long current;
+                long updated;
+                do {
+                    current = requested.get();
+                    updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, updated));
+            }
+            run();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            run();
+        }
+
+        /**
+         * Drains, or makes the draining thread loop again.
+         */
+        public void run() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                drainLoop();
+            }
+        }
+
+        private RequestFuture<Page<T>> fetchAndDrain(String pageToken) {
+            RequestFuture<Page<T>> page = fetch(pageToken);
+            page.addListener(this);
+            return page;
+        }
+
+        void drainLoop() {
+            int missed = 1;
+            while (true) {
+                if (!terminated) {
+                    drain();
+                }
+                missed = pendingDrains.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            long demand = requested.get();
+            long emitted = 0;
+            while (true) {
+                if (cancelled) {
+                    terminate();
+                    break;
+                }
+                if (invalidRequest) {
+                    terminate();
+                    subscriber.onError(new IllegalArgumentException("Requested a non-positive number of items"));
+                    break;
+                }
+                if (!current.hasNext()) {
+                    RequestFuture<Page<T>> page = next;
+                    if (page == null) {
+                        terminate();
+                        subscriber.onComplete();
+                        break;
+                    }
+                    if (!page.isDone()) {
+                        break;
+                    }
+                    Page<T> result;
+                    try {
+                        result = page.getResult();
+                    } catch (IOException e) {
+                        terminate();
+                        subscriber.onError(e);
+                        break;
+                    } catch (RuntimeException e) {
+                        terminate();
+                        subscriber.onError(e);
+                        break;
+                    }
+                    // Prefetches the next page while this one is consumed.
+                    next = result.nextPageToken == null ? null : fetchAndDrain(result.nextPageToken);
+                    current = result.items.iterator();
+                    continue;
+                }
+                if (emitted == demand) {
+                    break;
+                }
+                subscriber.onNext(current.next());
+                emitted++;
+            }
+            if (emitted != 0 && demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            current = Collections.<T>emptyList().iterator();
+            RequestFuture<Page<T>> page = next;
+            next = null;
+            if (page != null) {
+                page.cancel(true);
+            }
+        }
+    }
+}
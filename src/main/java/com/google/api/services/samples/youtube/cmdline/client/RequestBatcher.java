@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.services.AbstractGoogleClient;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Combines API requests into batch requests, so that up to 50 of them share one HTTP round trip.
+ * <p/>
+ * Requests are queued with {@link #queue} instead of being executed, and a {@link RequestFuture}
+ * for each of them is returned. The queue is sent as soon as it holds a full batch, or once the
+ * linger time has passed since the first request was queued. Each sub-request succeeds or fails on
+ * its own: only sub-requests that failed with a transient error (rate limiting, 429 or 5xx) are
+ * queued again, after an exponentially growing delay, until the maximum number of attempts is
+ * reached. Other failures complete their future with a {@link BatchResponseException} holding the
+ * same {@link GoogleJsonError} as the {@code GoogleJsonResponseException} that {@code execute()}
+ * would have thrown.
+ * <p/>
+ * The batcher can be shared by any number of threads. {@link #close()} sends what is left and
+ * waits for every future to complete. Instances are created with {@link Builder}; for example:
+ * <pre>
+ * RequestBatcher batcher = new RequestBatcher.Builder(youtube).build();
+ * RequestFuture&lt;Video&gt; future = batcher.queue(youtube.videos().update("snippet", video));
+ * ...
+ * batcher.close();
+ * Video updated = future.getResult();
+ * </pre>
+ */
+public final class RequestBatcher {
+
+    /**
+     * Maximum number of requests the batch endpoint accepts in one batch.
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(32);
+
+    private final AbstractGoogleClient client;
+
+    private final int batchSize;
+
+    private final long lingerMillis;
+
+    private final int maxAttempts;
+
+    private final long retryDelayMillis;
+
+    private final ScheduledExecutorService executor;
+
+    private final Random random = new Random();
+
+    /**
+     * Requests waiting to be sent, guarded by this.
+     */
+    private final LinkedList<Pending<?>> queue = new LinkedList<Pending<?>>();
+
+    /**
+     * Flush scheduled at the end of the linger time of the oldest queued request, guarded by this.
+     */
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Number of queued requests whose future is not complete yet, guarded by this.
+     */
+    private int outstanding;
+
+    private boolean closed;
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private RequestBatcher(Builder builder) {
+        this.client = builder.client;
+        this.batchSize = builder.batchSize;
+        this.lingerMillis = builder.lingerMillis;
+        this.maxAttempts = builder.maxAttempts;
+        this.retryDelayMillis = builder.retryDelayMillis;
+        this.executor = new ScheduledThreadPoolExecutor(builder.maxConcurrentBatches, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "request-batcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a request to be sent in the next batch.
+     *
+     * @param request request to send; it must not be executed or queued elsewhere
+     * @return future completed with the response of the request
+     * @throws IllegalStateException if the batcher is closed
+     */
+    public <T> RequestFuture<T> queue(AbstractGoogleJsonClientRequest<T> request) {
+        Pending<T> pending = new Pending<T>(request);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("RequestBatcher is closed");
+            }
+            outstanding++;
+        }
+        enqueue(pending);
+        return pending.future;
+    }
+
+    private synchronized void enqueue(Pending<?> pending) {
+        queue.add(pending);
+        if (queue.size() >= batchSize) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    sendFullBatches();
+                }
+            });
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executor.schedule(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Sends every queued request now, on the calling thread, without waiting for the linger time.
+     * Requests waiting to be retried are not sent until their retry delay has passed.
+     */
+    public void flush() {
+        List<Pending<?>> batch;
+        while (!(batch = take(false)).isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private void sendFullBatches() {
+        List<Pending<?>> batch;
+        while (!(batch = take(true)).isEmpty()) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Removes the next batch from the queue.
+     *
+     * @param onlyFull whether to return nothing unless a full batch is queued
+     */
+    private synchronized List<Pending<?>> take(boolean onlyFull) {
+        List<Pending<?>> batch = new ArrayList<Pending<?>>(batchSize);
+        if (onlyFull && queue.size() < batchSize) {
+            return batch;
+        }
+        while (batch.size() < batchSize && !queue.isEmpty()) {
+            batch.add(queue.removeFirst());
+        }
+        if (queue.isEmpty() && scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void send(List<Pending<?>> batch) {
+        BatchRequest batchRequest = client.batch(client.getRequestFactory().getInitializer());
+        List<Pending<?>> sent = new ArrayList<Pending<?>>(batch.size());
+        for (Pending<?> pending : batch) {
+            try {
+                pending.queueIn(batchRequest);
+                sent.add(pending);
+            } catch (IOException e) {
+                pending.fail(e);
+            } catch (RuntimeException e) {
+                pending.fail(e);
+            }
+        }
+        if (sent.isEmpty()) {
+            return;
+        }
+        batchCount.incrementAndGet();
+        requestCount.addAndGet(sent.size());
+        try {
+            batchRequest.execute();
+            for (Pending<?> pending : sent) {
+                if (!pending.answered) {
+                    pending.retryOrFail(new IOException("Batch response has no part for the request"));
+                }
+            }
+        } catch (IOException e) {
+            // The batch failed before (or while) the parts were read; the callbacks of the
+            // requests without an answer have not run.
+            boolean retryable = !(e instanceof HttpResponseException)
+                    || isRetryable(((HttpResponseException) e).getStatusCode(), null);
+            for (Pending<?> pending : sent) {
+                if (pending.answered) {
+                    continue;
+                }
+                if (retryable) {
+                    pending.retryOrFail(e);
+                } else {
+                    pending.fail(e);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (Pending<?> pending : sent) {
+                if (!pending.answered) {
+                    pending.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a request that failed with the given status and error can succeed later.
+     */
+    private static boolean isRetryable(int statusCode, GoogleJsonError error) {
+        if (statusCode == 429 || statusCode >= 500) {
+            return true;
+        }
+        if (statusCode == 403 && error != null && error.getErrors() != null) {
+            for (GoogleJsonError.ErrorInfo info : error.getErrors()) {
+                if ("rateLimitExceeded".equals(info.getReason()) || "userRateLimitExceeded".equals(info.getReason())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private synchronized void completed() {
+        outstanding--;
+        notifyAll();
+    }
+
+    /**
+     * Sends the queued requests, waits until every future is complete (including retries) and
+     * stops the batcher. Requests can no longer be queued afterwards.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            while (true) {
+                flush();
+                synchronized (this) {
+                    while (outstanding > 0 && queue.isEmpty()) {
+                        wait();
+                    }
+                    if (outstanding == 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the batcher");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of batch requests sent.
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Returns the number of sub-requests sent, retries included.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of sub-requests queued again after a transient failure.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Returns the number of requests that failed for good.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestBatcher[batches=" + getBatchCount() + ", requests=" + getRequestCount() + ", retries="
+                + getRetryCount() + ", failures=" + getFailureCount() + "]";
+    }
+
+    /**
+     * A queued request and its future.
+     */
+    private final class Pending<T> {
+
+        final AbstractGoogleJsonClientRequest<T> request;
+
+        final RequestFuture<T> future = new RequestFuture<T>();
+
+        int attempts;
+
+        /**
+         * Whether the callback of the current attempt has run.
+         */
+        boolean answered;
+
+        Pending(AbstractGoogleJsonClientRequest<T> request) {
+            this.request = request;
+        }
+
+        void queueIn(BatchRequest batchRequest) throws IOException {
+            attempts++;
+            answered = false;
+            request.queue(batchRequest, new JsonBatchCallback<T>() {
+                @Override
+                public void onSuccess(T response, HttpHeaders responseHeaders) {
+                    answered = true;
+                    future.set(response);
+                    completed();
+                }
+
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                    answered = true;
+                    BatchResponseException failure = new BatchResponseException(error, responseHeaders);
+                    if (isRetryable(error.getCode(), error)) {
+                        retryOrFail(failure);
+                    } else {
+                        fail(failure);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Queues the request again after a backoff delay with full jitter, or fails it when it has
+         * used up its attempts.
+         */
+        void retryOrFail(Exception failure) {
+            if (attempts >= maxAttempts) {
+                fail(failure);
+                return;
+            }
+            retryCount.incrementAndGet();
+            long ceiling = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis << Math.min(attempts - 1, 20));
+            long delay;
+            synchronized (random) {
+                delay = (long) (random.nextDouble() * ceiling);
+            }
+            executor.schedule(new Runnable() {
+                public void run() {
+                    enqueue(Pending.this);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        void fail(Throwable failure) {
+            failureCount.incrementAndGet();
+            future.setException(failure);
+            completed();
+        }
+    }
+
+    /**
+     * Builder for {@link RequestBatcher}.
+     */
+    public static final class Builder {
+
+        private final AbstractGoogleClient client;
+
+        private int batchSize = MAX_BATCH_SIZE;
+
+        private long lingerMillis = 50;
+
+        private int maxAttempts = 5;
+
+        private long retryDelayMillis = 1000;
+
+        private int maxConcurrentBatches = 2;
+
+        /**
+         * @param client client whose requests are batched; its request initializer authorizes the
+         *               batch requests
+         */
+        public Builder(AbstractGoogleClient client) {
+            this.client = client;
+        }
+
+        /**
+         * Sets the number of requests per batch, at most {@link #MAX_BATCH_SIZE} (default 50).
+         */
+        public Builder setBatchSize(int batchSize) {
+            if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+                throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a request may wait for the batch to fill up before it is sent anyway
+         * (default 50 milliseconds).
+         */
+        public Builder setLinger(long linger, TimeUnit unit) {
+            this.lingerMillis = unit.toMillis(linger);
+            return this;
+        }
+
+        /**
+         * Sets how many times a request is sent before a transient failure is given up on
+         * (default 5).
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the upper bound of the delay before the first retry; it doubles with every further
+         * attempt, up to 32 seconds (default 1 second).
+         */
+        public Builder setRetryDelay(long retryDelay, TimeUnit unit) {
+            this.retryDelayMillis = unit.toMillis(retryDelay);
+            return this;
+        }
+
+        /**
+         * Sets how many batches may be in flight at once (default 2).
+         */
+        public Builder setMaxConcurrentBatches(int maxConcurrentBatches) {
+            this.maxConcurrentBatches = maxConcurrentBatches;
+            return this;
+        }
+
+        public RequestBatcher build() {
+            return new RequestBatcher(this);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.util.GenericData;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes identical concurrent GET requests only once.
+ * <p/>
+ * Requests are identified by HTTP method, full URL (including query parameters such as
+ * {@code fields} and {@code pageToken}) and the request initializer of their client, which holds
+ * the credential and so stands for the authorized user. While a request is in flight, every
+ * identical request waits for it instead of making its own HTTP call, and then receives the same
+ * response or failure. Nothing is cached once the request completes; see
+ * {@link com.google.api.services.samples.youtube.cmdline.http.EtagCachingHttpTransport} for that.
+ * <p/>
+ * Waiters receive a deep copy of the parsed response, so callers can modify their response (for
+ * example to send it back in an update) without affecting each other. Requests other than GET are
+ * always executed.
+ */
+public final class RequestCoalescer {
+
+    private static final RequestCoalescer DEFAULT = new RequestCoalescer();
+
+    private final ConcurrentMap<Key, RequestFuture<Object>> inFlight =
+            new ConcurrentHashMap<Key, RequestFuture<Object>>();
+
+    private final AtomicLong executedCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Returns the coalescer shared by the samples.
+     */
+    public static RequestCoalescer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Executes the request, or waits for an identical request that is already in flight.
+     *
+     * @return parsed response, as returned by {@code request.execute()}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(AbstractGoogleClientRequest<T> request) throws IOException {
+        if (!"GET".equals(request.getRequestMethod())) {
+            return request.execute();
+        }
+
+        Key key = new Key(request.getRequestMethod(), request.buildHttpRequestUrl().build(),
+                request.getAbstractGoogleClient().getRequestFactory().getInitializer());
+        RequestFuture<Object> future = new RequestFuture<Object>();
+        RequestFuture<Object> leader = inFlight.putIfAbsent(key, future);
+        if (leader != null) {
+            coalescedCount.incrementAndGet();
+            return (T) copy(leader.getResult());
+        }
+
+        executedCount.incrementAndGet();
+        try {
+            T response = request.execute();
+            // Waiters copy from a private copy, so changes the caller makes to its response never reach them.
+            future.set(copy(response));
+            return response;
+        } catch (IOException e) {
+            future.setException(e);
+            throw e;
+        } catch (RuntimeException e) {
+            future.setException(e);
+            throw e;
+        } catch (Error e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static Object copy(Object response) {
+        return response instanceof GenericData ? ((GenericData) response).clone() : response;
+    }
+
+    /**
+     * Returns the number of requests that made an HTTP call.
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * Returns the number of requests that received the response of an identical request instead
+     * of making an HTTP call.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestCoalescer[executed=" + getExecutedCount() + ", coalesced=" + getCoalescedCount()
+                + ", inFlight=" + inFlight.size() + "]";
+    }
+
+    /**
+     * Identity of a request. The principal is compared by identity, since each authorized user has
+     * its own credential instance.
+     */
+    private static final class Key {
+
+        private final String method;
+
+        private final String url;
+
+        private final Object principal;
+
+        Key(String method, String url, Object principal) {
+            this.method = method;
+            this.url = url;
+            this.principal = principal;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return method.equals(other.method) && url.equals(other.url) && principal == other.principal;
+        }
+
+        @Override
+        public int hashCode() {
+            return (method.hashCode() * 31 + url.hashCode()) * 31 + System.identityHashCode(principal);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run blocking API requests.
+ * <p/>
+ * The youtube.executor system property selects the kind of executor:
+ * <ul>
+ * <li>{@code virtual}: one virtual thread per task. Requires running on JDK 21 or newer and a build
+ * with the jdk21 profile, which compiles the sources in src/main/java21.</li>
+ * <li>{@code pool}: a cached pool of daemon platform threads, which works on any JDK.</li>
+ * <li>{@code auto} (default): virtual threads when available, the pool otherwise.</li>
+ * </ul>
+ * With virtual threads a fan-out over thousands of items can simply start one blocking task per
+ * item; see {@link FanOut}.
+ */
+public final class RequestExecutors {
+
+    /**
+     * Name of the virtual thread factory class, which is only compiled by the jdk21 build profile.
+     */
+    private static final String VIRTUAL_THREADS_CLASS =
+            "com.google.api.services.samples.youtube.cmdline.client.VirtualThreads";
+
+    private RequestExecutors() {
+    }
+
+    /**
+     * Creates the executor selected by the youtube.executor system property.
+     *
+     * @param name prefix of the names of the threads
+     */
+    public static ExecutorService newExecutor(String name) {
+        String mode = System.getProperty("youtube.executor", "auto");
+        if ("pool".equals(mode)) {
+            return newPooledExecutor(name);
+        }
+        if ("virtual".equals(mode)) {
+            ExecutorService executor = newVirtualThreadExecutor(name);
+            if (executor == null) {
+                throw new IllegalStateException(
+                        "youtube.executor=virtual requires building with the jdk21 profile and running on JDK 21 or newer");
+            }
+            return executor;
+        }
+        if (!"auto".equals(mode)) {
+            throw new IllegalArgumentException("Unknown youtube.executor: " + mode);
+        }
+        ExecutorService executor = newVirtualThreadExecutor(name);
+        return executor != null ? executor : newPooledExecutor(name);
+    }
+
+    /**
+     * Creates a cached pool of daemon platform threads.
+     *
+     * @param name prefix of the names of the threads
+     */
+    public static ExecutorService newPooledExecutor(final String name) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates an executor starting one virtual thread per task, or returns {@code null} if virtual
+     * threads are not available in this build or on this JDK.
+     *
+     * @param name prefix of the names of the threads
+     */
+    public static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            return (ExecutorService) Class.forName(VIRTUAL_THREADS_CLASS)
+                    .getMethod("newExecutor", String.class)
+                    .invoke(null, name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (UnsupportedClassVersionError e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import java.io.IOException;
+
+/**
+ * Step of a {@link RequestFuture} chain: turns the result of one request into a value, or into
+ * the next request.
+ *
+ * @param <F> type of the input
+ * @param <T> type of the output
+ */
+public interface RequestFunction<F, T> {
+
+    /**
+     * Applies this step to the result of the previous one.
+     *
+     * @throws IOException if building or executing a request fails; it fails the chain
+     */
+    T apply(F input) throws IOException;
+}
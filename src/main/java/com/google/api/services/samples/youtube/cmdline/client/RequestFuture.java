@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of an API request that completes asynchronously, for example as part of a batch.
+ * <p/>
+ * The future is completed from the outside with {@link #set} or {@link #setException}; it does not
+ * run anything itself. {@link #getResult()} waits for the result and rethrows the request failure
+ * as the {@link IOException} (usually a
+ * {@link com.google.api.client.googleapis.json.GoogleJsonResponseException}) that
+ * {@code execute()} would have thrown.
+ * <p/>
+ * Futures can be chained without blocking: {@link #transform} maps the result,
+ * {@link #compose} starts the next request once this one has completed, and
+ * {@link #withTimeout} fails the future if it takes too long. Cancelling a future created by
+ * {@code transform} or {@code compose} cancels the future it was created from, and the request
+ * running for it, if any.
+ *
+ * @param <T> type of the response
+ */
+public class RequestFuture<T> extends FutureTask<T> {
+
+    /**
+     * Runs listeners on the thread that completes the future.
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "request-future-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Task handed to {@link FutureTask}, which never runs it since {@link #run()} does nothing.
+     */
+    private static final Runnable NO_TASK = new Runnable() {
+        public void run() {
+        }
+    };
+
+    /**
+     * Listeners to run on completion, guarded by listenersLock. Set to {@code null} once they have run.
+     */
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    private final Object listenersLock = new Object();
+
+    public RequestFuture() {
+        super(NO_TASK, null);
+    }
+
+    /**
+     * Does nothing; the future is completed with {@link #set} or {@link #setException}.
+     */
+    @Override
+    public void run() {
+    }
+
+    /**
+     * Completes the future with the given response, unless it is already done.
+     */
+    @Override
+    public void set(T response) {
+        super.set(response);
+    }
+
+    /**
+     * Completes the future with the given failure, unless it is already done.
+     */
+    @Override
+    public void setException(Throwable failure) {
+        super.setException(failure);
+    }
+
+    /**
+     * Runs the given listener on the given executor once the future is done, or right away if it
+     * already is.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Runnable task = new Runnable() {
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized (listenersLock) {
+            if (listeners != null) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Runs the given listener on the completing thread once the future is done. Listeners must
+     * be quick and must not block.
+     */
+    public void addListener(Runnable listener) {
+        addListener(listener, DIRECT_EXECUTOR);
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> toRun;
+        synchronized (listenersLock) {
+            toRun = listeners;
+            listeners = null;
+        }
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns a future completed with the result of the given function applied to the result of
+     * this one, or with the failure of either.
+     */
+    public <R> RequestFuture<R> transform(final RequestFunction<? super T, ? extends R> function) {
+        final RequestFuture<R> result = new RequestFuture<R>();
+        addListener(new Runnable() {
+            public void run() {
+                if (isCancelled()) {
+                    result.cancel(false);
+                    return;
+                }
+                try {
+                    result.set(function.apply(getResult()));
+                } catch (IOException e) {
+                    result.setException(e);
+                } catch (RuntimeException e) {
+                    result.setException(e);
+                }
+            }
+        });
+        cancelWith(result, this);
+        return result;
+    }
+
+    /**
+     * Returns a future completed like the future the given function returns for the result of
+     * this one. This is how dependent requests are chained, e.g. binding a broadcast once it has
+     * been inserted.
+     */
+    public <R> RequestFuture<R> compose(final RequestFunction<? super T, ? extends RequestFuture<R>> function) {
+        final RequestFuture<R> result = new RequestFuture<R>();
+        addListener(new Runnable() {
+            public void run() {
+                if (isCancelled()) {
+                    result.cancel(false);
+                    return;
+                }
+                RequestFuture<R> next;
+                try {
+                    next = function.apply(getResult());
+                } catch (IOException e) {
+                    result.setException(e);
+                    return;
+                } catch (RuntimeException e) {
+                    result.setException(e);
+                    return;
+                }
+                completeFrom(result, next);
+                cancelWith(result, next);
+            }
+        });
+        cancelWith(result, this);
+        return result;
+    }
+
+    /**
+     * Fails this future with an {@link InterruptedIOException} if it is not done within the given
+     * time. The request running for it, if any, is interrupted.
+     *
+     * @return this future
+     */
+    public RequestFuture<T> withTimeout(final long timeout, final TimeUnit unit) {
+        final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+            public void run() {
+                setException(new InterruptedIOException("Request timed out after " + timeout + " "
+                        + unit.toString().toLowerCase()));
+            }
+        }, timeout, unit);
+        addListener(new Runnable() {
+            public void run() {
+                timer.cancel(false);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Completes the target with the outcome of the source once the source is done.
+     */
+    static <R> void completeFrom(final RequestFuture<R> target, final RequestFuture<? extends R> source) {
+        source.addListener(new Runnable() {
+            public void run() {
+                if (source.isCancelled()) {
+                    target.cancel(false);
+                    return;
+                }
+                try {
+                    target.set(source.getResult());
+                } catch (IOException e) {
+                    target.setException(e);
+                } catch (RuntimeException e) {
+                    target.setException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels the source, interrupting its request, when the dependent future is cancelled.
+     */
+    static void cancelWith(final RequestFuture<?> dependent, final RequestFuture<?> source) {
+        dependent.addListener(new Runnable() {
+            public void run() {
+                if (dependent.isCancelled()) {
+                    source.cancel(true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the response and returns it.
+     *
+     * @throws IOException the failure of the request, as thrown by {@code execute()}
+     */
+    public T getResult() throws IOException {
+        try {
+            return get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Request failed: " + cause);
+        }
+    }
+}
@@ -14,9 +14,11 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.BatchResponseException;
+import com.google.api.services.samples.youtube.cmdline.client.RequestBatcher;
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.ResourceId;
 import com.google.api.services.youtube.model.Subscription;
@@ -26,11 +28,14 @@ import com.google.common.collect.Lists;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Demo of subscribing user to a channel using the YouTube Data API (V3) with OAuth2 for
- * authorization.
+ * authorization. Several channel ids can be given on the command line; the subscriptions are then
+ * combined into batch requests.
  *
  * @author Ibrahim Ulukaya
  */
@@ -42,9 +47,10 @@ public class AddSubscription {
     private static YouTube youtube;
 
     /**
-     * Subscribes user's YouTube account to a user selected channel using OAuth2 for authentication.
+     * Subscribes user's YouTube account to user selected channels using OAuth2 for authentication.
      *
-     * @param args command line args (not used).
+     * @param args command line args: ids of the channels to subscribe to (optional, prompted for
+     *             otherwise).
      */
     public static void main(String[] args) {
 
@@ -52,45 +58,36 @@ public class AddSubscription {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-
-            Credential credential = Auth.authorize(scopes, "addsubscription");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential).setApplicationName(
-                    "youtube-cmdline-addsubscription-sample").build();
-
-            // We get the user selected channel to subscribe.
-            String channelId = getChannelId();
-            System.out.println("You chose " + channelId + " to subscribe.");
-
-            // We create a resourceId with channel id.
-            ResourceId resourceId = new ResourceId();
-            resourceId.setChannelId(channelId);
-            resourceId.setKind("youtube#channel");
-
-            // We create a snippet with ResourceId.
-            SubscriptionSnippet snippet = new SubscriptionSnippet();
-            snippet.setResourceId(resourceId);
-
-            // We create a subscription request with snippet.
-            Subscription subscription = new Subscription();
-            subscription.setSnippet(snippet);
-
-      /*
-       * The subscription insert command includes: 1. Information we want returned after file is
-       * successfully uploaded. 2. Subscription metadata we want to insert.
-       */
-            YouTube.Subscriptions.Insert subscriptionInsert =
-                    youtube.subscriptions().insert("snippet,contentDetails", subscription);
-
-            // Execute subscription.
-            Subscription returnedSubscription = subscriptionInsert.execute();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "addsubscription", "youtube-cmdline-addsubscription-sample");
+
+            // We get the user selected channels to subscribe.
+            List<String> channelIds = args.length > 0 ? Arrays.asList(args) : Lists.newArrayList(getChannelId());
+            System.out.println("You chose " + channelIds + " to subscribe.");
+
+            // Subscription inserts are queued and sent in batches of up to 50 per HTTP request.
+            RequestBatcher batcher = new RequestBatcher.Builder(youtube).build();
+            List<RequestFuture<Subscription>> returnedSubscriptions = new ArrayList<RequestFuture<Subscription>>();
+            try {
+                for (String channelId : channelIds) {
+                    returnedSubscriptions.add(batcher.queue(newSubscriptionInsert(channelId)));
+                }
+            } finally {
+                batcher.close();
+            }
 
             // Print out returned results.
-            System.out.println("\n================== Returned Subscription ==================\n");
-            System.out.println("  - Id: " + returnedSubscription.getId());
-            System.out.println("  - Title: " + returnedSubscription.getSnippet().getTitle());
+            for (int i = 0; i < channelIds.size(); i++) {
+                try {
+                    Subscription returnedSubscription = returnedSubscriptions.get(i).getResult();
+                    System.out.println("\n================== Returned Subscription ==================\n");
+                    System.out.println("  - Id: " + returnedSubscription.getId());
+                    System.out.println("  - Title: " + returnedSubscription.getSnippet().getTitle());
+                } catch (BatchResponseException e) {
+                    System.err.println("Could not subscribe to " + channelIds.get(i) + ": "
+                            + e.getDetails().getCode() + " : " + e.getDetails().getMessage());
+                }
+            }
 
         } catch (GoogleJsonResponseException e) {
             System.err.println("GoogleJsonResponseException code: " + e.getDetails().getCode() + " : "
@@ -106,6 +103,31 @@ public class AddSubscription {
         }
     }
 
+    /*
+     * Returns the subscription insert command for the given channel id.
+     */
+    private static YouTube.Subscriptions.Insert newSubscriptionInsert(String channelId) throws IOException {
+
+        // We create a resourceId with channel id.
+        ResourceId resourceId = new ResourceId();
+        resourceId.setChannelId(channelId);
+        resourceId.setKind("youtube#channel");
+
+        // We create a snippet with ResourceId.
+        SubscriptionSnippet snippet = new SubscriptionSnippet();
+        snippet.setResourceId(resourceId);
+
+        // We create a subscription request with snippet.
+        Subscription subscription = new Subscription();
+        subscription.setSnippet(snippet);
+
+    /*
+     * The subscription insert command includes: 1. Information we want returned after file is
+     * successfully uploaded. 2. Subscription metadata we want to insert.
+     */
+        return youtube.subscriptions().insert("snippet,contentDetails", subscription);
+    }
+
     /*
      * Returns a channel id (String) from user via the terminal.
      */
@@ -14,7 +14,6 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.services.samples.youtube.cmdline.Auth;
 import com.google.api.services.youtube.YouTube;
@@ -55,12 +54,8 @@ public class ChannelBulletin {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "channelbulletin");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential).setApplicationName(
-                    "youtube-cmdline-channelbulletin-sample").build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "channelbulletin", "youtube-cmdline-channelbulletin-sample");
 
       /*
        * Now that the user is authenticated, the app makes a channel list request to get the
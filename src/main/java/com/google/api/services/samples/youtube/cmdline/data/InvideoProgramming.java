@@ -14,10 +14,10 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.http.InputStreamContent;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.RequestCoalescer;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.*;
 import com.google.common.collect.Lists;
@@ -60,20 +60,15 @@ public class InvideoProgramming {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "invideoprogramming");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential)
-                    .setApplicationName("youtube-cmdline-invideoprogramming-sample")
-                    .build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "invideoprogramming", "youtube-cmdline-invideoprogramming-sample");
 
             // Fetch the user's channel. We also fetch the uploads playlist so we can use this later
-            // to find the most recently uploaded video
-            ChannelListResponse channelListResponse = youtube.channels().list("id,contentDetails")
-                    .setMine(true)
-                    .setFields("items(contentDetails/relatedPlaylists/uploads,id)")
-                    .execute();
+            // to find the most recently uploaded video. Concurrent identical fetches share one HTTP call.
+            ChannelListResponse channelListResponse = RequestCoalescer.getDefault().execute(
+                    youtube.channels().list("id,contentDetails")
+                            .setMine(true)
+                            .setFields("items(contentDetails/relatedPlaylists/uploads,id)"));
 
             // This assumes the user has a channel already. If the user does not have a channel, this should
             // throw a GoogleJsonResponseException explaining the issue
@@ -14,19 +14,24 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.catalog.PersistentVideoCatalog;
+import com.google.api.services.samples.youtube.cmdline.catalog.UploadCatalog;
+import com.google.api.services.samples.youtube.cmdline.client.PagedList;
+import com.google.api.services.samples.youtube.cmdline.client.RequestCoalescer;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.Channel;
 import com.google.api.services.youtube.model.ChannelListResponse;
 import com.google.api.services.youtube.model.PlaylistItem;
-import com.google.api.services.youtube.model.PlaylistItemListResponse;
 import com.google.common.collect.Lists;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Prints a list of videos uploaded to the user's YouTube account using OAuth2 for authentication.
@@ -34,6 +39,15 @@ import java.util.List;
  * Details: The app uses Youtube.Channnels.List to get the playlist id associated with all the
  * videos ever uploaded to the user's account. It then gets all the video info using
  * YouTube.PlaylistItems.List. Finally, it prints all the information to the screen.
+ * <p/>
+ * Each page is written out as soon as it arrives, while the next page is being fetched, so the
+ * output starts right away and memory use does not grow with the number of uploads. With the
+ * {@code jsonl} argument every video is written as one line of JSON instead of text. The number of
+ * videos per second is reported on standard error.
+ * <p/>
+ * With the {@code sync} argument nothing is printed; instead the videos uploaded since the last
+ * sync are appended to a local catalog (see {@link UploadCatalog}), which usually takes a single
+ * request.
  *
  * @author Jeremy Walker
  */
@@ -44,25 +58,45 @@ public class MyUploads {
      */
     private static YouTube youtube;
 
+    /**
+     * Directory under the user's home directory holding the upload catalogs of the sync mode.
+     */
+    private static final String UPLOAD_CATALOG_DIRECTORY = ".youtube-upload-catalog";
+
+    /**
+     * Largest page size allowed by PlaylistItems.List, which means the fewest round trips.
+     */
+    private static final long MAX_RESULTS_PER_PAGE = 50;
+
+    /**
+     * Interval between two progress reports on standard error.
+     */
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
     /**
      * Authorizes user, runs Youtube.Channnels.List get the playlist id associated with uploaded
      * videos, runs YouTube.PlaylistItems.List to get information on each video, and prints out the
      * results.
      *
-     * @param args command line args (not used).
+     * @param args command line args: the output format, {@code text} (default) or {@code jsonl},
+     *             or {@code sync} to update the local upload catalog instead of printing.
      */
     public static void main(String[] args) {
 
+        String mode = args.length > 0 ? args[0] : "text";
+        boolean jsonLines = "jsonl".equals(mode);
+        boolean sync = "sync".equals(mode);
+        if (!jsonLines && !sync && !"text".equals(mode)) {
+            System.err.println("Usage: MyUploads [text|jsonl|sync]");
+            return;
+        }
+
         // Scope required to upload to YouTube.
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "myuploads");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential).setApplicationName(
-                    "youtube-cmdline-myuploads-sample").build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "myuploads", "youtube-cmdline-myuploads-sample");
 
       /*
        * Now that the user is authenticated, the app makes a channel list request to get the
@@ -76,7 +110,11 @@ public class MyUploads {
        * Limit the results to only the data we need
        */
             channelRequest.setFields("items/contentDetails,nextPageToken,pageInfo");
-            ChannelListResponse channelResult = channelRequest.execute();
+
+      /*
+       * Every thread asking for the user's channel at the same time shares a single HTTP call.
+       */
+            ChannelListResponse channelResult = RequestCoalescer.getDefault().execute(channelRequest);
 
       /*
        * Gets the list of channels associated with the user. This sample only pulls the uploaded
@@ -89,14 +127,12 @@ public class MyUploads {
                 String uploadPlaylistId =
                         channelsList.get(0).getContentDetails().getRelatedPlaylists().getUploads();
 
-                // List to store all PlaylistItem items associated with the uploadPlaylistId.
-                List<PlaylistItem> playlistItemList = new ArrayList<PlaylistItem>();
-
         /*
          * Now that we have the playlist id for your uploads, we will request the playlistItems
          * associated with that playlist id, so we can get information on each video uploaded. This
-         * is the template for the list call. We call it multiple times in the do while loop below
-         * (only changing the nextToken to get all the videos).
+         * is the template for the list call. PagedList calls it once per page (only changing the
+         * page token), fetching the next page while the current one is printed, so only two pages
+         * are held in memory at a time.
          * https://developers.google.com/youtube/v3/docs/playlistitems/list
          */
                 YouTube.PlaylistItems.List playlistItemRequest =
@@ -104,23 +140,31 @@ public class MyUploads {
                 playlistItemRequest.setPlaylistId(uploadPlaylistId);
 
                 // This limits the results to only the data we need and makes things more efficient.
+                playlistItemRequest.setMaxResults(MAX_RESULTS_PER_PAGE);
                 playlistItemRequest.setFields(
                         "items(contentDetails/videoId,snippet/title,snippet/publishedAt),nextPageToken,pageInfo");
 
-                String nextToken = "";
-
-                // Loops over all search page results returned for the uploadPlaylistId.
-                do {
-                    playlistItemRequest.setPageToken(nextToken);
-                    PlaylistItemListResponse playlistItemResult = playlistItemRequest.execute();
-
-                    playlistItemList.addAll(playlistItemResult.getItems());
-
-                    nextToken = playlistItemResult.getNextPageToken();
-                } while (nextToken != null);
-
-                // Prints results.
-                prettyPrint(playlistItemList.size(), playlistItemList.iterator());
+                if (sync) {
+                    // Fetches only the videos uploaded since the last sync.
+                    UploadCatalog catalog = new UploadCatalog(
+                            new File(System.getProperty("user.home"), UPLOAD_CATALOG_DIRECTORY), uploadPlaylistId,
+                            Auth.JSON_FACTORY);
+                    long start = System.nanoTime();
+                    PersistentVideoCatalog videos = catalog.openVideos();
+                    System.out.printf("Opened %d cataloged videos in %.1f ms%n", videos.size(),
+                            (System.nanoTime() - start) / 1e6);
+                    try {
+                        UploadCatalog.SyncResult result = catalog.sync(playlistItemRequest, videos);
+                        System.out.println("Synced " + catalog.getCatalogFile() + ": " + result);
+                    } finally {
+                        videos.close();
+                    }
+                    return;
+                }
+
+                // Prints results as the pages arrive.
+                prettyPrint(new PagedList<PlaylistItem>(playlistItemRequest, PlaylistItem.class).iterator(),
+                        jsonLines);
             }
 
         } catch (GoogleJsonResponseException e) {
@@ -134,23 +178,58 @@ public class MyUploads {
     }
 
     /*
-     * Method that prints all the PlaylistItems in an Iterator.
+     * Method that prints all the PlaylistItems of the uploaded playlist as they arrive. Output is
+     * buffered and flushed whenever a page has been written, before waiting for the next page.
      *
-     * @param size size of list
+     * @param playlistEntries iterator of Playlist Items from uploaded Playlist
      *
-     * @param iterator of Playlist Items from uploaded Playlist
+     * @param jsonLines whether to print each item as a line of JSON instead of text
      */
-    private static void prettyPrint(int size, Iterator<PlaylistItem> playlistEntries) {
-        System.out.println("=============================================================");
-        System.out.println("\t\tTotal Videos Uploaded: " + size);
-        System.out.println("=============================================================\n");
+    private static void prettyPrint(PagedList<PlaylistItem>.ItemIterator playlistEntries, boolean jsonLines)
+            throws IOException {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, "UTF-8");
+        if (!jsonLines) {
+            out.println("=============================================================");
+            out.println("\t\tVideos Uploaded");
+            out.println("=============================================================\n");
+        }
 
-        while (playlistEntries.hasNext()) {
+        long start = System.nanoTime();
+        long lastReport = start;
+        long size = 0;
+        while (true) {
+            if (!playlistEntries.isNextBuffered()) {
+                out.flush();
+                long now = System.nanoTime();
+                if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+                    reportProgress(size, now - start);
+                    lastReport = now;
+                }
+            }
+            if (!playlistEntries.hasNext()) {
+                break;
+            }
             PlaylistItem playlistItem = playlistEntries.next();
-            System.out.println(" video name  = " + playlistItem.getSnippet().getTitle());
-            System.out.println(" video id    = " + playlistItem.getContentDetails().getVideoId());
-            System.out.println(" upload date = " + playlistItem.getSnippet().getPublishedAt());
-            System.out.println("\n-------------------------------------------------------------\n");
+            if (jsonLines) {
+                out.println(Auth.JSON_FACTORY.toString(playlistItem));
+            } else {
+                out.println(" video name  = " + playlistItem.getSnippet().getTitle());
+                out.println(" video id    = " + playlistItem.getContentDetails().getVideoId());
+                out.println(" upload date = " + playlistItem.getSnippet().getPublishedAt());
+                out.println("\n-------------------------------------------------------------\n");
+            }
+            size++;
         }
+
+        if (!jsonLines) {
+            out.println("\t\tTotal Videos Uploaded: " + size);
+        }
+        out.flush();
+        reportProgress(size, System.nanoTime() - start);
+    }
+
+    private static void reportProgress(long size, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.err.printf("%d videos in %.1f s (%.0f videos/sec)%n", size, seconds, seconds > 0 ? size / seconds : 0);
     }
 }
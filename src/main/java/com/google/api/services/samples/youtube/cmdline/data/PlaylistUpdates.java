@@ -14,20 +14,25 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.BatchResponseException;
+import com.google.api.services.samples.youtube.cmdline.client.RequestBatcher;
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.*;
 import com.google.common.collect.Lists;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 
 /**
  * Creates a new, private playlist in the authorized user's channel and adds a playlistitem
- * containing a video to that new playlist.
+ * containing a video to that new playlist. When several video ids are given on the command line,
+ * all of them are added, combined into batch requests.
  *
  * @author Jeremy Walker
  */
@@ -46,7 +51,7 @@ public class PlaylistUpdates {
     /**
      * Authorizes user, creates a playlist, adds a playlistitem with a video to that new playlist.
      *
-     * @param args command line args (not used).
+     * @param args command line args: ids of the videos to add (optional).
      */
     public static void main(String[] args) {
 
@@ -54,19 +59,34 @@ public class PlaylistUpdates {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "playlistupdates");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential)
-                    .setApplicationName("youtube-cmdline-playlistupdates-sample")
-                    .build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "playlistupdates", "youtube-cmdline-playlistupdates-sample");
 
             // Creates a new playlist in the authorized user's channel.
             String playlistId = insertPlaylist();
 
-            // If a valid playlist was created, adds a new playlistitem with a video to that playlist.
-            insertPlaylistItem(playlistId, VIDEO_ID);
+            List<String> videoIds = args.length > 0 ? Arrays.asList(args) : Lists.newArrayList(VIDEO_ID);
+
+            // If a valid playlist was created, adds a new playlistitem for each video to that playlist.
+            // The inserts are queued and sent in batches of up to 50 per HTTP request.
+            RequestBatcher batcher = new RequestBatcher.Builder(youtube).build();
+            List<RequestFuture<PlaylistItem>> insertedItems = new ArrayList<RequestFuture<PlaylistItem>>();
+            try {
+                for (String videoId : videoIds) {
+                    insertedItems.add(insertPlaylistItem(batcher, playlistId, videoId));
+                }
+            } finally {
+                batcher.close();
+            }
+
+            for (int i = 0; i < videoIds.size(); i++) {
+                try {
+                    printPlaylistItem(insertedItems.get(i).getResult());
+                } catch (BatchResponseException e) {
+                    System.err.println("Could not add video " + videoIds.get(i) + ": " + e.getDetails().getCode()
+                            + " : " + e.getDetails().getMessage());
+                }
+            }
 
         } catch (GoogleJsonResponseException e) {
             System.err.println("There was a service error: " + e.getDetails().getCode() + " : " + e.getDetails().getMessage());
@@ -127,13 +147,16 @@ public class PlaylistUpdates {
     }
 
     /**
-     * Creates YouTube PlaylistItem with specified video id and adds it to the specified playlist id
-     * for the authorized account.
+     * Creates YouTube PlaylistItem with specified video id and queues its insertion into the
+     * specified playlist id for the authorized account.
      *
+     * @param batcher    batcher that sends the insert request
      * @param playlistId assign to newly created playlistitem
      * @param videoId    YouTube video id to add to playlistitem
+     * @return future of the inserted playlistitem
      */
-    private static String insertPlaylistItem(String playlistId, String videoId) throws IOException {
+    private static RequestFuture<PlaylistItem> insertPlaylistItem(RequestBatcher batcher, String playlistId,
+                                                                  String videoId) throws IOException {
 
     /*
      * The Resource type (video,playlist,channel) needs to be set along with the resource id. In
@@ -168,15 +191,17 @@ public class PlaylistUpdates {
      */
         YouTube.PlaylistItems.Insert playlistItemsInsertCommand =
                 youtube.playlistItems().insert("snippet,contentDetails", playlistItem);
-        PlaylistItem returnedPlaylistItem = playlistItemsInsertCommand.execute();
+        return batcher.queue(playlistItemsInsertCommand);
 
-        // Pretty print results.
+    }
 
+    /**
+     * Pretty prints an inserted playlistitem.
+     */
+    private static void printPlaylistItem(PlaylistItem returnedPlaylistItem) {
         System.out.println("New PlaylistItem name: " + returnedPlaylistItem.getSnippet().getTitle());
         System.out.println(" - Video id: " + returnedPlaylistItem.getSnippet().getResourceId().getVideoId());
         System.out.println(" - Posted: " + returnedPlaylistItem.getSnippet().getPublishedAt());
         System.out.println(" - Channel: " + returnedPlaylistItem.getSnippet().getChannelId());
-        return returnedPlaylistItem.getId();
-
     }
 }
\ No newline at end of file
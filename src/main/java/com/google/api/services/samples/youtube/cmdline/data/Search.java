@@ -21,20 +21,31 @@ import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.DateTime;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.search.BatchSearch;
+import com.google.api.services.samples.youtube.cmdline.search.EnrichedSearch;
+import com.google.api.services.samples.youtube.cmdline.search.PartitionedSearch;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.ResourceId;
 import com.google.api.services.youtube.model.SearchListResponse;
 import com.google.api.services.youtube.model.SearchResult;
 import com.google.api.services.youtube.model.Thumbnail;
+import com.google.api.services.youtube.model.Video;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Prints a list of videos based on a search term.
@@ -50,6 +61,11 @@ public class Search {
 
     private static final long NUMBER_OF_VIDEOS_RETURNED = 25;
 
+    /**
+     * Interval between two progress reports of the {@code all} and {@code batch} modes on standard error.
+     */
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
     /**
      * Global instance of Youtube object to make all API requests.
      */
@@ -59,9 +75,22 @@ public class Search {
      * Initializes YouTube object to search for videos on YouTube (Youtube.Search.List). The program
      * then prints the names and thumbnails of each of the videos (only first 50 videos).
      *
-     * @param args command line args.
+     * @param args command line args: nothing, or {@code all [publishedAfter [publishedBefore]]} to
+     *             print the ID and title of every matching video (RFC 3339 times, e.g.
+     *             {@code 2013-01-01T00:00:00Z}) instead of the first page, or {@code batch [file]}
+     *             to search for every line of the file (default: standard input) and print the
+     *             responses as JSON Lines, or {@code enrich} to print the view count, like count
+     *             and duration of every result along with its title.
      */
     public static void main(String[] args) {
+        boolean all = args.length > 0 && "all".equals(args[0]);
+        boolean batch = args.length > 0 && "batch".equals(args[0]);
+        boolean enrich = args.length > 0 && "enrich".equals(args[0]);
+        if ((args.length > 0 && !all && !batch && !enrich) || args.length > (all ? 3 : batch ? 2 : 1)) {
+            System.err.println("Usage: Search [all [publishedAfter [publishedBefore]] | batch [file] | enrich]");
+            return;
+        }
+
         // Read the developer key from youtube.properties
         Properties properties = new Properties();
         try {
@@ -85,9 +114,6 @@ public class Search {
                 }
             }).setApplicationName("youtube-cmdline-search-sample").build();
 
-            // Get query term from user.
-            String queryTerm = getInputQuery();
-
             YouTube.Search.List search = youtube.search().list("id,snippet");
 
       /*
@@ -97,12 +123,29 @@ public class Search {
        */
             String apiKey = properties.getProperty("youtube.apikey");
             search.setKey(apiKey);
-            search.setQ(queryTerm);
       /*
        * We are only searching for videos (not playlists or channels). If we were searching for
        * more, we would add them as a string like this: "video,playlist,channel".
        */
             search.setType("video");
+
+            if (batch) {
+                searchBatch(search, args);
+                return;
+            }
+
+            // Get query term from user.
+            String queryTerm = getInputQuery();
+            search.setQ(queryTerm);
+
+            if (all) {
+                searchAll(search, args);
+                return;
+            }
+            if (enrich) {
+                searchEnriched(search);
+                return;
+            }
       /*
        * This method reduces the info returned to only the fields we need and makes calls more
        * efficient.
@@ -126,6 +169,140 @@ public class Search {
         }
     }
 
+    /*
+     * Finds every video matching the search, not only the few hundred a single query can page
+     * through, by splitting the search into publish time windows that are read concurrently. Each
+     * video is printed once as its ID and title, with progress and the quota spent reported on
+     * standard error.
+     */
+    private static void searchAll(YouTube.Search.List search, String[] args) throws IOException {
+        search.setFields("items(id/videoId,snippet/title)");
+        PartitionedSearch.Builder builder = new PartitionedSearch.Builder(search)
+                .setQuotaCostPerRequest(Auth.QUOTA_SCHEDULER.getCost("search.list"));
+        if (args.length > 1) {
+            builder.setPublishedAfter(new DateTime(args[1]));
+        }
+        if (args.length > 2) {
+            builder.setPublishedBefore(new DateTime(args[2]));
+        }
+        final PartitionedSearch partitionedSearch = builder.build();
+
+        final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, "UTF-8");
+        final long start = System.nanoTime();
+        try {
+            partitionedSearch.execute(new PartitionedSearch.Listener() {
+                private long lastReport = start;
+
+                public void onResult(SearchResult result) {
+                    out.println(result.getId().getVideoId() + "\t" + result.getSnippet().getTitle());
+                    long now = System.nanoTime();
+                    if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+                        out.flush();
+                        System.err.println(partitionedSearch);
+                        lastReport = now;
+                    }
+                }
+            });
+        } finally {
+            out.flush();
+            System.err.printf("%s in %.1f s%n", partitionedSearch, (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /*
+     * Prints every result of the search with the statistics and duration of its video, looked up
+     * with one videos.list call per page of 50 results while the next page is being fetched.
+     */
+    private static void searchEnriched(YouTube.Search.List search) throws IOException {
+        search.setFields("items(id/videoId,snippet/title),nextPageToken");
+        search.setMaxResults((long) EnrichedSearch.MAX_BATCH_SIZE);
+        EnrichedSearch enrichedSearch = new EnrichedSearch.Builder(search).build();
+
+        final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, "UTF-8");
+        long start = System.nanoTime();
+        try {
+            out.println("videoId\tviews\tlikes\tduration\ttitle");
+            enrichedSearch.execute(new EnrichedSearch.Listener() {
+                public void onResult(SearchResult result, Video video) {
+                    out.print(result.getId().getVideoId());
+                    if (video != null && video.getStatistics() != null) {
+                        out.print("\t" + video.getStatistics().getViewCount() + "\t"
+                                + video.getStatistics().getLikeCount());
+                    } else {
+                        out.print("\t\t");
+                    }
+                    out.print("\t" + (video != null && video.getContentDetails() != null
+                            ? video.getContentDetails().getDuration() : ""));
+                    out.println("\t" + result.getSnippet().getTitle());
+                }
+            });
+        } finally {
+            out.flush();
+            System.err.printf("%s in %.1f s%n", enrichedSearch, (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /*
+     * Runs a search for every line of the input, a query optionally followed by a tab and a topic
+     * ID, several at a time. Each response is printed as a line of JSON holding the query, the
+     * topic ID and the results; repeated queries are answered from a cache. Queries per second and
+     * the cache hit ratio are reported on standard error.
+     */
+    private static void searchBatch(YouTube.Search.List search, String[] args) throws IOException {
+        search.setFields("items(id/videoId,snippet/title)");
+        search.setMaxResults(NUMBER_OF_VIDEOS_RETURNED);
+        final BatchSearch batchSearch = new BatchSearch.Builder(search)
+                .setParallelism(Integer.getInteger("youtube.search.parallelism", 8))
+                .build();
+
+        InputStream in = args.length > 1 ? new FileInputStream(args[1]) : System.in;
+        BufferedReader queries = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, "UTF-8");
+        final long start = System.nanoTime();
+        try {
+            batchSearch.execute(queries, new BatchSearch.Listener() {
+                private long lastReport = start;
+
+                public void onResponse(BatchSearch.Query query, SearchListResponse response) throws IOException {
+                    Map<String, Object> line = newLine(query);
+                    line.put("items", response.getItems());
+                    print(line);
+                }
+
+                public void onFailure(BatchSearch.Query query, IOException failure) throws IOException {
+                    Map<String, Object> line = newLine(query);
+                    line.put("error", failure.getMessage());
+                    print(line);
+                }
+
+                private void print(Map<String, Object> line) throws IOException {
+                    out.println(Auth.JSON_FACTORY.toString(line));
+                    long now = System.nanoTime();
+                    if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+                        out.flush();
+                        System.err.println(batchSearch);
+                        lastReport = now;
+                    }
+                }
+            });
+        } finally {
+            if (in != System.in) {
+                in.close();
+            }
+            out.flush();
+            System.err.printf("%s in %.1f s%n", batchSearch, (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private static Map<String, Object> newLine(BatchSearch.Query query) {
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        line.put("query", query.getQuery());
+        if (query.getTopicId() != null) {
+            line.put("topicId", query.getTopicId());
+        }
+        return line;
+    }
+
     /*
      * Returns a query term (String) from user via the terminal.
      */
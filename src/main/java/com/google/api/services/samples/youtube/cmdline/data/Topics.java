@@ -15,33 +15,37 @@
 package com.google.api.services.samples.youtube.cmdline.data;
 
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.search.BatchSearch;
+import com.google.api.services.samples.youtube.cmdline.topics.Topic;
+import com.google.api.services.samples.youtube.cmdline.topics.TopicDictionary;
+import com.google.api.services.samples.youtube.cmdline.topics.TopicResolver;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.ResourceId;
 import com.google.api.services.youtube.model.SearchListResponse;
 import com.google.api.services.youtube.model.SearchResult;
 import com.google.api.services.youtube.model.Thumbnail;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.node.ArrayNode;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -51,6 +55,13 @@ import java.util.regex.Pattern;
  * calls the Freebase API to get a topics id based on user input, then passes that id along with
  * another user query term to the YouTube APIs.  The result is a list of videos based on a
  * semantic search.
+ * <p/>
+ * When a topic dump exists at the path given by the youtube.topics.dump system property (default
+ * ~/.youtube-topics/topics.tsv), topics are looked up in a local {@link TopicDictionary} instead,
+ * without any network round trip.
+ * <p/>
+ * With the {@code batch} argument, topic and search terms are read in pairs from a file instead
+ * of the terminal, and the searches run concurrently (see {@link #searchBatch}).
  *
  * @author Jeremy Walker
  */
@@ -71,6 +82,32 @@ public class Topics {
      */
     private static final long NUMBER_OF_TOPICS_RETURNED = 5;
 
+    /**
+     * Default location of the topic dump under the user's home directory.
+     */
+    private static final String TOPIC_DUMP_FILE = ".youtube-topics/topics.tsv";
+
+    /**
+     * Offline topic dictionary, or {@code null} when there is no topic dump. Loaded on first lookup.
+     */
+    private static final TopicDictionary TOPIC_DICTIONARY = newTopicDictionary();
+
+    /**
+     * Freebase search endpoint, used when there is no offline topic dictionary.
+     */
+    private static final String FREEBASE_SEARCH_URL = "https://www.googleapis.com/freebase/v1/search";
+
+    /**
+     * Every Freebase call goes through the shared transport, so connections are pooled and reused
+     * instead of opening a new HTTP client per call.
+     */
+    private static final HttpRequestFactory FREEBASE_REQUEST_FACTORY = Auth.HTTP_TRANSPORT.createRequestFactory();
+
+    /**
+     * Jackson mapper parsing Freebase responses; thread-safe once configured.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     /**
      * Global instance of Youtube object to make all API requests.
      */
@@ -83,9 +120,17 @@ public class Topics {
      * (only first 5 videos).  Please note, user input is taken for both search on Freebase and on
      * YouTube.
      *
-     * @param args command line args not used.
+     * @param args command line args: nothing, or {@code batch [file]} to run a search for every
+     *             line of the file (default: standard input) holding a topic term, a tab and a
+     *             search term, and print the responses as JSON Lines.
      */
     public static void main(String[] args) {
+        boolean batch = args.length > 0 && "batch".equals(args[0]);
+        if ((args.length > 0 && !batch) || args.length > 2) {
+            System.err.println("Usage: Topics [batch [file]]");
+            return;
+        }
+
         // Read the developer key from youtube.properties
         Properties properties = new Properties();
         try {
@@ -100,6 +145,11 @@ public class Topics {
 
 
         try {
+            if (batch) {
+                searchBatch(properties.getProperty("youtube.apikey"), args);
+                return;
+            }
+
             // Gets a topic id via the Freebase API based on user input via the terminal.
             String topicsId = getTopicId();
             if (topicsId.length() < 1) {
@@ -187,87 +237,171 @@ public class Topics {
     }
 
     /**
-     * The Java Freebase client library does not include search functionality, so we created a call
-     * directly via URL.  We use jackson functionality to put the JSON response into a POJO (Plain
-     * Old Java Object).  The additional classes to create the object from JSON were created based on
-     * the JSON response to make it easier to get the values we need.  For more info on jackson
-     * classes, please search on the term.
+     * Asks the user for a topic term, looks up matching topics in the offline dictionary or with
+     * the Freebase API, and returns the id of the topic the user chooses.  Returns an empty string
+     * if we can't find a matching topicsId or there aren't any results available.
      */
     private static String getTopicId() throws IOException {
 
-    /*
-     * Returned as an empty string if we can't find a matching topicsId or there aren't any
-     * results available.
-     */
-        String topicsId = "";
-
     /*
      * Get query term from user via the terminal.  The "topics" parameter is just used as output to clarify that
      * we want a "topics" term (vs. a general "search" term).
      */
         String topicQuery = getInputQuery("topics");
 
-    /*
-     * Again, there isn't search functionality in the Freebase Java Library, so we have to call
+        // Resolves the topic locally when a topic dump is available.
+        if (TOPIC_DICTIONARY != null) {
+            return getUserChoice(TOPIC_DICTIONARY.search(topicQuery, (int) NUMBER_OF_TOPICS_RETURNED));
+        }
+        return getUserChoice(searchFreebase(topicQuery, NUMBER_OF_TOPICS_RETURNED));
+    }
+
+    /**
+     * The Java Freebase client library does not include search functionality, so we created a call
+     * directly via URL.  We use jackson functionality to put the JSON response into a tree of
+     * nodes, and read the values we need from it.
+     * <p/>
+     * There isn't search functionality in the Freebase Java Library, so we have to call
      * directly against the URL.  Below we construct the proper URL, then use jackson classes to
      * convert the JSON into an object for reading.  You can find out more about the search calls
      * here: http://wiki.freebase.com/wiki/ApiSearch.
+     *
+     * @param topicQuery topic term to search for.
+     * @param limit      maximum number of topics returned.
      */
-        HttpClient httpclient = new DefaultHttpClient();
-        List<NameValuePair> params = new ArrayList<NameValuePair>();
-        params.add(new BasicNameValuePair("query", topicQuery));
-        params.add(new BasicNameValuePair("limit", Long.toString(NUMBER_OF_TOPICS_RETURNED)));
-
-        String serviceURL = "https://www.googleapis.com/freebase/v1/search";
-        String url = serviceURL + "?" + URLEncodedUtils.format(params, "UTF-8");
-
-        HttpResponse httpResponse = httpclient.execute(new HttpGet(url));
-        HttpEntity entity = httpResponse.getEntity();
-
-        if (entity != null) {
-            InputStream instream = entity.getContent();
-            try {
-          /*
-           * Converts JSON to a Tree.  I could have specified extra classes and done an exact map
-           * from JSON to POJO, but I was trying to keep the sample within one Java file.  If the
-           * .get() function calls here and in getUserChoice() aren't your cup of tea, feel free
-           * to create those classes and use them with the mapper.readValue() function.
-           */
-                ObjectMapper mapper = new ObjectMapper();
-                JsonNode rootNode = mapper.readValue(instream, JsonNode.class);
-
-                // Check that the response is valid.
-                if (rootNode.get("status").asText().equals("200 OK")) {
-                    // I know the "result" field contains the list of results I need.
-                    ArrayNode arrayNodeResults = (ArrayNode) rootNode.get("result");
-                    // Only place we set the topicsId for a valid selection in this function.
-                    topicsId = getUserChoice(arrayNodeResults);
+    private static List<Topic> searchFreebase(String topicQuery, long limit) throws IOException {
+        List<Topic> topics = new ArrayList<Topic>();
+
+        GenericUrl url = new GenericUrl(FREEBASE_SEARCH_URL);
+        url.put("query", topicQuery);
+        url.put("limit", limit);
+        HttpResponse httpResponse = FREEBASE_REQUEST_FACTORY.buildGetRequest(url).execute();
+        try {
+      /*
+       * Converts JSON to a Tree.  I could have specified extra classes and done an exact map
+       * from JSON to POJO, but I was trying to keep the sample within one Java file.  If the
+       * .get() function calls here aren't your cup of tea, feel free to create those classes
+       * and use them with the mapper.readValue() function.
+       */
+            JsonNode rootNode = MAPPER.readValue(httpResponse.getContent(), JsonNode.class);
+
+            // Check that the response is valid.
+            if (rootNode.get("status").asText().equals("200 OK")) {
+                // I know the "result" field contains the list of results I need.
+                for (JsonNode node : rootNode.get("result")) {
+                    JsonNode notable = node.get("notable");
+                    topics.add(new Topic(node.get("mid").asText(), node.get("name").asText(),
+                            notable != null ? notable.get("name").asText() : null));
                 }
-            } finally {
-                instream.close();
             }
+        } finally {
+            httpResponse.disconnect();
         }
-        return topicsId;
+        return topics;
     }
 
     /**
-     * Outputs topic search results to the user, records user selection, and returns topic id.
+     * Runs a topic-constrained search for every line of the input, a topic term, a tab and a
+     * search term, several at a time.  Each topic term is resolved to its best matching topic once
+     * (with the offline dictionary when there is one, otherwise with Freebase) and searches whose
+     * topic cannot be resolved run without a topic.  Each response is printed as a line of JSON
+     * holding both terms, the topic id and the results; queries per second and the cache
+     * statistics are reported on standard error.
      *
-     * @param freebaseResults ArrayNode object representing results of search.
+     * @param apiKey developer key sent with every search.
+     * @param args   command line args, the second of which is the input file (default: standard input).
      */
-    private static String getUserChoice(ArrayNode freebaseResults) throws IOException {
+    private static void searchBatch(String apiKey, String[] args) throws IOException {
+        youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, new HttpRequestInitializer() {
+            public void initialize(HttpRequest request) throws IOException {
+            }
+        })
+                .setApplicationName("youtube-cmdline-search-sample")
+                .build();
+
+        YouTube.Search.List search = youtube.search().list("id,snippet");
+        search.setKey(apiKey);
+        search.setType("video");
+        search.setFields("items(id/videoId,snippet/title)");
+        search.setMaxResults(NUMBER_OF_VIDEOS_RETURNED);
+
+        TopicResolver topicResolver = TOPIC_DICTIONARY != null
+                ? TopicResolver.forDictionary(TOPIC_DICTIONARY)
+                : new TopicResolver(new TopicResolver.Source() {
+                    public List<Topic> find(String topicQuery, int limit) throws IOException {
+                        return searchFreebase(topicQuery, limit);
+                    }
+                });
+        BatchSearch batchSearch = new BatchSearch.Builder(search)
+                .setParallelism(Integer.getInteger("youtube.search.parallelism", 8))
+                .setTopicResolver(topicResolver)
+                .build();
+
+        InputStream in = args.length > 1 ? new FileInputStream(args[1]) : System.in;
+        BufferedReader queries = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, "UTF-8");
+        long start = System.nanoTime();
+        try {
+            batchSearch.execute(queries, new BatchSearch.Listener() {
+                public void onResponse(BatchSearch.Query query, SearchListResponse response) throws IOException {
+                    Map<String, Object> line = newLine(query);
+                    line.put("items", response.getItems());
+                    out.println(Auth.JSON_FACTORY.toString(line));
+                }
 
-        String freebaseId = "";
+                public void onFailure(BatchSearch.Query query, IOException failure) throws IOException {
+                    Map<String, Object> line = newLine(query);
+                    line.put("error", failure.getMessage());
+                    out.println(Auth.JSON_FACTORY.toString(line));
+                }
+            });
+        } finally {
+            if (in != System.in) {
+                in.close();
+            }
+            out.flush();
+            System.err.printf("%s %s %s in %.1f s%n", batchSearch, batchSearch.getCache(), topicResolver,
+                    (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private static Map<String, Object> newLine(BatchSearch.Query query) {
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        if (query.getTopicQuery() != null) {
+            line.put("topicQuery", query.getTopicQuery());
+        }
+        if (query.getTopicId() != null) {
+            line.put("topicId", query.getTopicId());
+        }
+        line.put("query", query.getQuery());
+        return line;
+    }
+
+    /**
+     * Creates the offline topic dictionary if a topic dump exists.
+     */
+    private static TopicDictionary newTopicDictionary() {
+        File dump = new File(System.getProperty("youtube.topics.dump",
+                new File(System.getProperty("user.home"), TOPIC_DUMP_FILE).getPath()));
+        return dump.isFile() ? new TopicDictionary.Builder(dump).build() : null;
+    }
+
+    /**
+     * Outputs topic search results to the user, records user selection, and returns topic id.
+     *
+     * @param topics candidate topics.
+     */
+    private static String getUserChoice(List<Topic> topics) throws IOException {
 
-        if (freebaseResults.size() < 1) {
-            return freebaseId;
+        if (topics.isEmpty()) {
+            return "";
         }
 
-        for (int i = 0; i < freebaseResults.size(); i++) {
-            JsonNode node = freebaseResults.get(i);
-            System.out.print(" " + i + " = " + node.get("name").asText());
-            if (node.get("notable") != null) {
-                System.out.print(" (" + node.get("notable").get("name").asText() + ")");
+        for (int i = 0; i < topics.size(); i++) {
+            Topic topic = topics.get(i);
+            System.out.print(" " + i + " = " + topic.getName());
+            if (topic.getNotable() != null) {
+                System.out.print(" (" + topic.getNotable() + ")");
             }
             System.out.println("");
         }
@@ -278,12 +412,9 @@ public class Topics {
         do {
             System.out.print("Choose the number of the Freebase Node: ");
             inputChoice = bReader.readLine();
-        } while (!isValidIntegerSelection(inputChoice, freebaseResults.size()));
+        } while (!isValidIntegerSelection(inputChoice, topics.size()));
 
-        // Returns Topic id needed for YouTube Search.
-        JsonNode node = freebaseResults.get(Integer.parseInt(inputChoice));
-        freebaseId = node.get("mid").asText();
-        return freebaseId;
+        return topics.get(Integer.parseInt(inputChoice)).getMid();
     }
 
     /**
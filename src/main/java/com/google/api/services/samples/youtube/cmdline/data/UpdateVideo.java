@@ -14,9 +14,12 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.BatchResponseException;
+import com.google.api.services.samples.youtube.cmdline.client.RequestBatcher;
+import com.google.api.services.samples.youtube.cmdline.client.RequestCoalescer;
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.Video;
 import com.google.api.services.youtube.model.VideoListResponse;
@@ -27,11 +30,13 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Demo of updating a video by adding a tag, using the YouTube Data API (V3) with OAuth2 for
- * authorization.
+ * authorization. Several video ids can be given on the command line; the updates are then combined
+ * into batch requests.
  *
  * @author Ibrahim Ulukaya
  */
@@ -43,10 +48,9 @@ public class UpdateVideo {
     private static YouTube youtube;
 
     /**
-     * Uploads user selected video in the project folder to the user's YouTube account using OAuth2
-     * for authentication.
+     * Adds a user selected tag to user selected videos using OAuth2 for authentication.
      *
-     * @param args command line args (not used).
+     * @param args command line args: ids of the videos to update (optional, prompted for otherwise).
      */
     public static void main(String[] args) {
 
@@ -54,57 +58,75 @@ public class UpdateVideo {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "updatevideo");
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "updatevideo", "youtube-cmdline-updatevideo-sample");
 
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential)
-                    .setApplicationName("youtube-cmdline-updatevideo-sample").build();
-
-            // Get the video ID to update via user input from the terminal.
-            String videoId = getVideoIdFromUser();
-            System.out.println("You chose " + videoId + " to update.");
+            // Get the video IDs to update from the command line, or via user input from the terminal.
+            List<String> videoIds = args.length > 0 ? Arrays.asList(args) : Lists.newArrayList(getVideoIdFromUser());
+            System.out.println("You chose " + videoIds + " to update.");
 
             // Get a keyword to add to the video we are updating via user input from the terminal.
             String tag = getTagFromUser();
             System.out.println("You chose " + tag + " as a tag.");
 
-            // Create the video list request
-            YouTube.Videos.List listVideosRequest = youtube.videos().list("snippet").setId(videoId);
-
-            // Request is executed and video list response is returned
-            VideoListResponse listResponse = listVideosRequest.execute();
-
-            List<Video> videoList = listResponse.getItems();
-            if (videoList.isEmpty()) {
-                System.out.println("Can't find a video with video id: " + videoId);
-                return;
-            }
-
-            // Since a unique video id is given, it will only return 1 video.
-            Video video = videoList.get(0);
-            VideoSnippet snippet = video.getSnippet();
-
-            List<String> tags = snippet.getTags();
-
-            // getTags() returns null if the video didn't have any tags, so we will check for this and
-            // create a new list if needed
-            if (tags == null) {
-                tags = new ArrayList<String>(1);
-                snippet.setTags(tags);
+            // Video updates are queued and sent in batches of up to 50 per HTTP request.
+            RequestBatcher batcher = new RequestBatcher.Builder(youtube).build();
+            List<RequestFuture<Video>> updatedVideos = new ArrayList<RequestFuture<Video>>();
+            try {
+                // videos.list accepts up to 50 comma-separated ids per request.
+                for (int i = 0; i < videoIds.size(); i += RequestBatcher.MAX_BATCH_SIZE) {
+                    List<String> ids = videoIds.subList(i, Math.min(videoIds.size(), i + RequestBatcher.MAX_BATCH_SIZE));
+
+                    // Create the video list request
+                    YouTube.Videos.List listVideosRequest = youtube.videos().list("snippet").setId(join(ids));
+
+                    // Request is executed and video list response is returned. Concurrent identical
+                    // requests share one HTTP call and each get their own copy to modify.
+                    VideoListResponse listResponse = RequestCoalescer.getDefault().execute(listVideosRequest);
+
+                    List<Video> videoList = listResponse.getItems();
+                    if (videoList.size() < ids.size()) {
+                        List<String> missingIds = new ArrayList<String>(ids);
+                        for (Video video : videoList) {
+                            missingIds.remove(video.getId());
+                        }
+                        System.out.println("Can't find videos with video ids: " + missingIds);
+                    }
+
+                    for (Video video : videoList) {
+                        VideoSnippet snippet = video.getSnippet();
+
+                        List<String> tags = snippet.getTags();
+
+                        // getTags() returns null if the video didn't have any tags, so we will check for this and
+                        // create a new list if needed
+                        if (tags == null) {
+                            tags = new ArrayList<String>(1);
+                            snippet.setTags(tags);
+                        }
+                        tags.add(tag);
+
+                        // Create the video update request and queue it
+                        YouTube.Videos.Update updateVideosRequest = youtube.videos().update("snippet", video);
+                        updatedVideos.add(batcher.queue(updateVideosRequest));
+                    }
+                }
+            } finally {
+                batcher.close();
             }
-            tags.add(tag);
-
-            // Create the video update request
-            YouTube.Videos.Update updateVideosRequest = youtube.videos().update("snippet", video);
-
-            // Request is executed and updated video is returned
-            Video videoResponse = updateVideosRequest.execute();
 
             // Print out returned results.
-            System.out.println("\n================== Returned Video ==================\n");
-            System.out.println("  - Title: " + videoResponse.getSnippet().getTitle());
-            System.out.println("  - Tags: " + videoResponse.getSnippet().getTags());
+            for (RequestFuture<Video> updatedVideo : updatedVideos) {
+                try {
+                    Video videoResponse = updatedVideo.getResult();
+                    System.out.println("\n================== Returned Video ==================\n");
+                    System.out.println("  - Title: " + videoResponse.getSnippet().getTitle());
+                    System.out.println("  - Tags: " + videoResponse.getSnippet().getTags());
+                } catch (BatchResponseException e) {
+                    System.err.println("Could not update a video: " + e.getDetails().getCode() + " : "
+                            + e.getDetails().getMessage());
+                }
+            }
 
         } catch (GoogleJsonResponseException e) {
             System.err.println("GoogleJsonResponseException code: " + e.getDetails().getCode() + " : "
@@ -119,6 +141,20 @@ public class UpdateVideo {
         }
     }
 
+    /*
+     * Returns the given ids separated by commas.
+     */
+    private static String join(List<String> ids) {
+        StringBuilder joined = new StringBuilder();
+        for (String id : ids) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(id);
+        }
+        return joined.toString();
+    }
+
     /*
      * Prompts for a tag from standard input and returns it.
      */
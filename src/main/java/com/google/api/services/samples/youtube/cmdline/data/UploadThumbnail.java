@@ -14,12 +14,11 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.googleapis.media.MediaHttpUploader;
 import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
-import com.google.api.client.http.InputStreamContent;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.upload.FileChannelContent;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.YouTube.Thumbnails.Set;
 import com.google.api.services.youtube.model.ThumbnailSetResponse;
@@ -59,12 +58,8 @@ public class UploadThumbnail {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "uploadthumbnail");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential).setApplicationName(
-                    "youtube-cmdline-uploadthumbnail-sample").build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "uploadthumbnail", "youtube-cmdline-uploadthumbnail-sample");
 
             // Get the video ID to update from the user via terminal input.
             String videoId = getVideoIdFromUser();
@@ -74,9 +69,8 @@ public class UploadThumbnail {
             File imageFile = getImageFromUser();
             System.out.println("You chose " + imageFile + " to upload.");
 
-            InputStreamContent mediaContent = new InputStreamContent(
-                    IMAGE_FILE_FORMAT, new BufferedInputStream(new FileInputStream(imageFile)));
-            mediaContent.setLength(imageFile.length());
+            // The image is read from the memory-mapped file, with its exact length.
+            FileChannelContent mediaContent = new FileChannelContent(IMAGE_FILE_FORMAT, imageFile);
 
             // Create a request to set the selected mediaContent as the thumbnail of the selected video.
             Set thumbnailSet = youtube.thumbnails().set(videoId, mediaContent);
@@ -14,19 +14,25 @@
 
 package com.google.api.services.samples.youtube.cmdline.data;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.googleapis.media.MediaHttpUploader;
 import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.InputStreamContent;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.upload.FileChannelContent;
+import com.google.api.services.samples.youtube.cmdline.upload.ResumableUpload;
+import com.google.api.services.samples.youtube.cmdline.upload.UploadJournal;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.Video;
 import com.google.api.services.youtube.model.VideoSnippet;
 import com.google.api.services.youtube.model.VideoStatus;
 import com.google.common.collect.Lists;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
@@ -37,6 +43,11 @@ import java.util.List;
  * <p/>
  * TODO: PLEASE NOTE, YOU MUST ADD YOUR VIDEO FILES TO THE PROJECT FOLDER TO UPLOAD THEM WITH THIS
  * APPLICATION!
+ * <p/>
+ * Usage: {@code UploadVideo [videoFile]}. Without an argument the sample video in the project
+ * folder is uploaded. A video file given on the command line is uploaded with
+ * {@link ResumableUpload}, which journals the upload session: if the upload is interrupted, running
+ * the same command again continues from the last byte the server received.
  *
  * @author Jeremy Walker
  */
@@ -52,11 +63,16 @@ public class UploadVideo {
 
     private static final String SAMPLE_VIDEO_FILENAME = "sample-video.mp4";
 
+    /**
+     * Directory under the user's home directory holding the journal of interrupted uploads.
+     */
+    private static final String UPLOAD_JOURNAL_DIRECTORY = ".youtube-upload-journal";
+
     /**
      * Uploads user selected video in the project folder to the user's YouTube account using OAuth2
      * for authentication.
      *
-     * @param args command line args (not used).
+     * @param args command line args: optional path of the video file to upload.
      */
     public static void main(String[] args) {
 
@@ -64,14 +80,11 @@ public class UploadVideo {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube.upload");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "uploadvideo");
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "uploadvideo", "youtube-cmdline-uploadvideo-sample");
 
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential).setApplicationName(
-                    "youtube-cmdline-uploadvideo-sample").build();
-
-            System.out.println("Uploading: " + SAMPLE_VIDEO_FILENAME);
+            File videoFile = args.length > 0 ? new File(args[0]) : null;
+            System.out.println("Uploading: " + (videoFile == null ? SAMPLE_VIDEO_FILENAME : videoFile.getPath()));
 
             // Add extra information to the video before uploading.
             Video videoObjectDefiningMetadata = new Video();
@@ -110,8 +123,8 @@ public class UploadVideo {
             // Set completed snippet to the video object.
             videoObjectDefiningMetadata.setSnippet(snippet);
 
-            InputStreamContent mediaContent = new InputStreamContent(VIDEO_FILE_FORMAT,
-                    UploadVideo.class.getResourceAsStream("/sample-video.mp4"));
+            AbstractInputStreamContent mediaContent = videoFile == null
+                    ? sampleVideoContent() : new FileChannelContent(VIDEO_FILE_FORMAT, videoFile);
 
           /*
            * The upload command includes: 1. Information we want returned after file is successfully
@@ -120,42 +133,7 @@ public class UploadVideo {
             YouTube.Videos.Insert videoInsert = youtube.videos()
                     .insert("snippet,statistics,status", videoObjectDefiningMetadata, mediaContent);
 
-            // Set the upload type and add event listener.
-            MediaHttpUploader uploader = videoInsert.getMediaHttpUploader();
-
-          /*
-           * Sets whether direct media upload is enabled or disabled. True = whole media content is
-           * uploaded in a single request. False (default) = resumable media upload protocol to upload
-           * in data chunks.
-           */
-            uploader.setDirectUploadEnabled(false);
-
-            MediaHttpUploaderProgressListener progressListener = new MediaHttpUploaderProgressListener() {
-                public void progressChanged(MediaHttpUploader uploader) throws IOException {
-                    switch (uploader.getUploadState()) {
-                        case INITIATION_STARTED:
-                            System.out.println("Initiation Started");
-                            break;
-                        case INITIATION_COMPLETE:
-                            System.out.println("Initiation Completed");
-                            break;
-                        case MEDIA_IN_PROGRESS:
-                            System.out.println("Upload in progress");
-                            System.out.println("Upload percentage: " + uploader.getProgress());
-                            break;
-                        case MEDIA_COMPLETE:
-                            System.out.println("Upload Completed!");
-                            break;
-                        case NOT_STARTED:
-                            System.out.println("Upload Not Started!");
-                            break;
-                    }
-                }
-            };
-            uploader.setProgressListener(progressListener);
-
-            // Execute upload.
-            Video returnedVideo = videoInsert.execute();
+            Video returnedVideo = videoFile == null ? upload(videoInsert) : uploadResumable(videoInsert, videoFile);
 
             // Print out returned results.
             System.out.println("\n================== Returned Video ==================\n");
@@ -177,4 +155,90 @@ public class UploadVideo {
             t.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the sample video, read from the memory-mapped file when the project folder is on the
+     * classpath as a directory, or else as a stream of unknown length.
+     */
+    private static AbstractInputStreamContent sampleVideoContent() throws IOException {
+        URL resource = UploadVideo.class.getResource("/" + SAMPLE_VIDEO_FILENAME);
+        if (resource != null && "file".equals(resource.getProtocol())) {
+            try {
+                return new FileChannelContent(VIDEO_FILE_FORMAT, new File(resource.toURI()));
+            } catch (URISyntaxException e) {
+                // Not a plain file after all; read it as a stream.
+            }
+        }
+        return new InputStreamContent(VIDEO_FILE_FORMAT,
+                UploadVideo.class.getResourceAsStream("/" + SAMPLE_VIDEO_FILENAME));
+    }
+
+    /**
+     * Uploads the sample video with {@link MediaHttpUploader}, which keeps the upload session in
+     * memory only.
+     */
+    private static Video upload(YouTube.Videos.Insert videoInsert) throws IOException {
+        // Set the upload type and add event listener.
+        MediaHttpUploader uploader = videoInsert.getMediaHttpUploader();
+
+      /*
+       * Sets whether direct media upload is enabled or disabled. True = whole media content is
+       * uploaded in a single request. False (default) = resumable media upload protocol to upload
+       * in data chunks.
+       */
+        uploader.setDirectUploadEnabled(false);
+
+        MediaHttpUploaderProgressListener progressListener = new MediaHttpUploaderProgressListener() {
+            public void progressChanged(MediaHttpUploader uploader) throws IOException {
+                switch (uploader.getUploadState()) {
+                    case INITIATION_STARTED:
+                        System.out.println("Initiation Started");
+                        break;
+                    case INITIATION_COMPLETE:
+                        System.out.println("Initiation Completed");
+                        break;
+                    case MEDIA_IN_PROGRESS:
+                        System.out.println("Upload in progress");
+                        System.out.println("Upload percentage: " + uploader.getProgress());
+                        break;
+                    case MEDIA_COMPLETE:
+                        System.out.println("Upload Completed!");
+                        break;
+                    case NOT_STARTED:
+                        System.out.println("Upload Not Started!");
+                        break;
+                }
+            }
+        };
+        uploader.setProgressListener(progressListener);
+
+        // Execute upload.
+        return videoInsert.execute();
+    }
+
+    /**
+     * Uploads a video file, resuming an interrupted upload of the same file from the journal.
+     */
+    private static Video uploadResumable(YouTube.Videos.Insert videoInsert, File videoFile) throws IOException {
+        UploadJournal journal = new UploadJournal(new File(System.getProperty("user.home"), UPLOAD_JOURNAL_DIRECTORY));
+        ResumableUpload<Video> upload = new ResumableUpload.Builder<Video>(videoInsert, videoFile)
+                .setJournal(journal)
+                .setProgressListener(new ResumableUpload.ProgressListener() {
+                    public void progressChanged(ResumableUpload<?> upload) {
+                        if (upload.getBytesUploaded() == 0 && upload.getChunkCount() == 0) {
+                            System.out.println("Initiation Completed");
+                        } else if (upload.getBytesUploaded() == upload.getLength()) {
+                            System.out.println("Upload Completed!");
+                        } else {
+                            System.out.println("Upload percentage: " + upload.getProgress());
+                        }
+                    }
+                })
+                .build();
+        Video video = upload.execute();
+        if (upload.getResumedBytes() > 0) {
+            System.out.println("Resumed an interrupted upload at byte " + upload.getResumedBytes());
+        }
+        return video;
+    }
+}
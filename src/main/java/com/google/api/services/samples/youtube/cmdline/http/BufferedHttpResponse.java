@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Response held entirely in memory, either read from another response or built from cached data.
+ * Unlike a network response its body can be read more than once through {@link #getBody()}.
+ */
+public class BufferedHttpResponse extends LowLevelHttpResponse {
+
+    private final int statusCode;
+
+    private final String reasonPhrase;
+
+    private final String statusLine;
+
+    private final String contentType;
+
+    private final String contentEncoding;
+
+    private final byte[] body;
+
+    private final List<String> headerNames;
+
+    private final List<String> headerValues;
+
+    /**
+     * @param statusCode      HTTP status code
+     * @param reasonPhrase    reason phrase, may be {@code null}
+     * @param statusLine      status line, may be {@code null}
+     * @param contentType     content type, may be {@code null}
+     * @param contentEncoding content encoding of the body, may be {@code null}
+     * @param body            response body, exactly as sent by the server
+     * @param headerNames     header names, parallel to headerValues
+     * @param headerValues    header values
+     */
+    public BufferedHttpResponse(int statusCode, String reasonPhrase, String statusLine, String contentType,
+                                String contentEncoding, byte[] body, List<String> headerNames,
+                                List<String> headerValues) {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.statusLine = statusLine;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.body = body;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+    }
+
+    /**
+     * Reads the whole response, including its body, and disconnects it.
+     */
+    public static BufferedHttpResponse read(LowLevelHttpResponse response) throws IOException {
+        try {
+            List<String> names = new ArrayList<String>();
+            List<String> values = new ArrayList<String>();
+            for (int i = 0; i < response.getHeaderCount(); i++) {
+                names.add(response.getHeaderName(i));
+                values.add(response.getHeaderValue(i));
+            }
+            byte[] body = new byte[0];
+            InputStream content = response.getContent();
+            if (content != null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                IOUtils.copy(content, out);
+                body = out.toByteArray();
+            }
+            return new BufferedHttpResponse(response.getStatusCode(), response.getReasonPhrase(),
+                    response.getStatusLine(), response.getContentType(), response.getContentEncoding(), body,
+                    names, values);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Returns the first value of the given header (case-insensitive), or {@code null}.
+     */
+    public String getFirstHeaderValue(String name) {
+        return firstHeaderValue(this, name);
+    }
+
+    /**
+     * Returns the first value of the given header (case-insensitive) of any response, or {@code null}.
+     */
+    public static String firstHeaderValue(LowLevelHttpResponse response, String name) {
+        try {
+            for (int i = 0; i < response.getHeaderCount(); i++) {
+                if (name.equalsIgnoreCase(response.getHeaderName(i))) {
+                    return response.getHeaderValue(i);
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the body exactly as sent by the server (still compressed if it was).
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the body as UTF-8 text, decompressed if it was gzip-encoded. Meant for small bodies
+     * such as error responses.
+     */
+    public String getBodyAsString() throws IOException {
+        InputStream content = getContent();
+        if (contentEncoding != null && contentEncoding.contains("gzip")) {
+            content = new GZIPInputStream(content);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IOUtils.copy(content, out);
+        return out.toString("UTF-8");
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public long getContentLength() {
+        return body.length;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getStatusLine() {
+        return statusLine;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    @Override
+    public int getHeaderCount() {
+        return headerNames.size();
+    }
+
+    @Override
+    public String getHeaderName(int index) {
+        return headerNames.get(index);
+    }
+
+    @Override
+    public String getHeaderValue(int index) {
+        return headerValues.get(index);
+    }
+}
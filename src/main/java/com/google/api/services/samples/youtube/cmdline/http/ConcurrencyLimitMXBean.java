@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+/**
+ * Management interface of {@link ConcurrencyLimitingHttpTransport}, exported through JMX so the
+ * current limit can be watched with tools such as JConsole.
+ */
+public interface ConcurrencyLimitMXBean {
+
+    /**
+     * Returns the current number of requests allowed in flight.
+     */
+    int getLimit();
+
+    /**
+     * Returns the number of requests in flight.
+     */
+    int getInFlight();
+
+    /**
+     * Returns the number of requests waiting for a slot.
+     */
+    int getWaiting();
+
+    /**
+     * Returns the latency the limit is measured against, in milliseconds.
+     */
+    double getBaselineLatencyMillis();
+
+    /**
+     * Returns the mean latency of recent requests, in milliseconds.
+     */
+    double getRecentLatencyMillis();
+
+    /**
+     * Returns how many times the limit was cut because of a rate limit error or a server error.
+     */
+    long getBackoffCount();
+
+    /**
+     * Returns how many rate limit or quota errors were seen.
+     */
+    long getRateLimitedCount();
+}
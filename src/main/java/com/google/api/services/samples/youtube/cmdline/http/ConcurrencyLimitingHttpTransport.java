@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport that limits the number of requests in flight and adapts the limit to how the API
+ * responds (additive increase, multiplicative decrease).
+ * <p/>
+ * Requests over the limit wait for a slot. While the latency of successful GET requests stays
+ * within a tolerance of the lowest latency seen, and the current limit is actually being used, the
+ * limit grows by about one per round of requests. When latency rises beyond the tolerance the
+ * limit shrinks slowly; when the API answers with 429, a 5xx status or a 403 whose reason is
+ * {@code rateLimitExceeded}, {@code userRateLimitExceeded} or {@code quotaExceeded}, the limit is
+ * cut in half, at most once per round of requests. The limit never leaves the configured range.
+ * <p/>
+ * The current limit and related values are available through {@link ConcurrencyLimitMXBean},
+ * which can be exported with {@link #registerMBean}. Instances are created with {@link Builder}.
+ */
+public final class ConcurrencyLimitingHttpTransport extends ForwardingHttpTransport
+        implements ConcurrencyLimitMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(ConcurrencyLimitingHttpTransport.class.getName());
+
+    private static final String[] RATE_LIMIT_REASONS = {
+            "\"rateLimitExceeded\"", "\"userRateLimitExceeded\"", "\"quotaExceeded\""};
+
+    /**
+     * Number of samples after which the baseline latency is allowed to drift upwards, so that it
+     * follows a lasting change in the latency of the service.
+     */
+    private static final int BASELINE_DRIFT_SAMPLES = 100;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double latencyTolerance;
+
+    /**
+     * Limiter state, guarded by this.
+     */
+    private double limit;
+
+    private int inFlight;
+
+    private int waiting;
+
+    private long lastBackoffNanos = Long.MIN_VALUE;
+
+    private double baselineNanos = Double.NaN;
+
+    private double recentNanos = Double.NaN;
+
+    private long samples;
+
+    private final AtomicLong backoffCount = new AtomicLong();
+
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+
+    private ConcurrencyLimitingHttpTransport(HttpTransport delegate, Builder builder) {
+        super(delegate);
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, builder.initialLimit));
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new LimitedRequest(method, url);
+    }
+
+    /**
+     * Exports the limiter through the platform MBean server as
+     * {@code com.google.api.services.samples.youtube:type=ConcurrencyLimit,name=<name>}.
+     *
+     * @return whether the MBean was registered; failures are logged
+     */
+    public boolean registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("com.google.api.services.samples.youtube:type=ConcurrencyLimit,name=" + name));
+            return true;
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot register concurrency limit MBean " + name, e);
+            return false;
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    public synchronized double getBaselineLatencyMillis() {
+        return Double.isNaN(baselineNanos) ? 0 : baselineNanos / 1e6;
+    }
+
+    public synchronized double getRecentLatencyMillis() {
+        return Double.isNaN(recentNanos) ? 0 : recentNanos / 1e6;
+    }
+
+    public long getBackoffCount() {
+        return backoffCount.get();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConcurrencyLimitingHttpTransport[limit=%d, inFlight=%d, waiting=%d, "
+                + "baselineLatencyMs=%.1f, recentLatencyMs=%.1f, backoffs=%d, rateLimited=%d]", getLimit(),
+                getInFlight(), getWaiting(), getBaselineLatencyMillis(), getRecentLatencyMillis(),
+                getBackoffCount(), getRateLimitedCount());
+    }
+
+    /**
+     * Waits for a free slot and takes it.
+     *
+     * @return start time of the request
+     */
+    private synchronized long acquire() throws IOException {
+        waiting++;
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        } finally {
+            waiting--;
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Frees the slot of a completed request and adapts the limit.
+     *
+     * @param startNanos    start time returned by {@link #acquire()}
+     * @param overloaded    whether the API signalled overload (rate limit or server error)
+     * @param latencySample whether the latency of the request is comparable with other samples
+     */
+    private synchronized void release(long startNanos, boolean overloaded, boolean latencySample) {
+        long now = System.nanoTime();
+        boolean limitUsed = inFlight >= limit / 2;
+        inFlight--;
+        if (overloaded) {
+            // Only the first failure of a round cuts the limit; requests sent before the cut
+            // report the same overload.
+            if (startNanos > lastBackoffNanos) {
+                limit = Math.max(minLimit, limit / 2);
+                lastBackoffNanos = now;
+                backoffCount.incrementAndGet();
+                LOGGER.fine("API overloaded, concurrency limit cut to " + (int) limit);
+            }
+        } else if (latencySample) {
+            double latency = now - startNanos;
+            recentNanos = Double.isNaN(recentNanos) ? latency : 0.9 * recentNanos + 0.1 * latency;
+            if (Double.isNaN(baselineNanos) || latency < baselineNanos) {
+                baselineNanos = latency;
+            } else if (++samples % BASELINE_DRIFT_SAMPLES == 0) {
+                baselineNanos = Math.min(recentNanos, baselineNanos * 1.05);
+            }
+            if (recentNanos <= baselineNanos * latencyTolerance) {
+                if (limitUsed) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            } else {
+                limit = Math.max(minLimit, limit * 0.98);
+            }
+        }
+        notifyAll();
+    }
+
+    private final class LimitedRequest extends ForwardingLowLevelHttpRequest {
+
+        LimitedRequest(String method, String url) throws IOException {
+            super(ConcurrencyLimitingHttpTransport.this, method, url);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            long start = acquire();
+            boolean released = false;
+            try {
+                LowLevelHttpResponse response = super.execute();
+                int statusCode = response.getStatusCode();
+                boolean overloaded = statusCode == 429 || statusCode >= 500;
+                if (statusCode == 403) {
+                    // Only the error reason tells a rate limit apart from, say, a permission error.
+                    BufferedHttpResponse buffered = BufferedHttpResponse.read(response);
+                    response = buffered;
+                    if (isRateLimited(buffered)) {
+                        rateLimitedCount.incrementAndGet();
+                        overloaded = true;
+                    }
+                }
+                released = true;
+                release(start, overloaded, "GET".equals(getMethod()) && statusCode < 300);
+                return response;
+            } finally {
+                if (!released) {
+                    release(start, false, false);
+                }
+            }
+        }
+
+        private boolean isRateLimited(BufferedHttpResponse response) {
+            try {
+                String body = response.getBodyAsString();
+                for (String reason : RATE_LIMIT_REASONS) {
+                    if (body.contains(reason)) {
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot read 403 response body", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builder for {@link ConcurrencyLimitingHttpTransport}.
+     */
+    public static final class Builder {
+
+        private final HttpTransport delegate;
+
+        private int initialLimit = 8;
+
+        private int minLimit = 1;
+
+        private int maxLimit = 64;
+
+        private double latencyTolerance = 2.0;
+
+        /**
+         * @param delegate transport that executes the requests
+         */
+        public Builder(HttpTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Sets the limit to start with (default 8).
+         */
+        public Builder setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Sets the lowest limit (default 1).
+         */
+        public Builder setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * Sets the highest limit (default 64).
+         */
+        public Builder setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Sets how many times the baseline latency recent requests may take before the limit stops
+         * growing and starts to shrink (default 2.0).
+         */
+        public Builder setLatencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        public ConcurrencyLimitingHttpTransport build() {
+            return new ConcurrencyLimitingHttpTransport(delegate, this);
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.services.samples.youtube.cmdline.TemporaryFiles;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport that revalidates GET responses with their ETag instead of downloading them again.
+ * <p/>
+ * Every successful GET response carrying an {@code ETag} header is kept, keyed by its URL, in a
+ * bounded in-memory LRU tier. The next GET of the same URL is sent with {@code If-None-Match}; when
+ * the server answers {@code 304 Not Modified} the stored body is returned to the caller as a
+ * {@code 200} response, so an unchanged list costs a few header bytes on the wire. Bodies are
+ * stored exactly as received (usually gzip-compressed), which keeps the cache small.
+ * <p/>
+ * Responses to URLs that are requested again while cached are also written to an optional
+ * directory on disk, so one-off responses (such as most search pages) never reach it. The disk
+ * tier is bounded too: once it outgrows its limit, the files used least recently (by modification
+ * time, which is renewed on every use) are deleted.
+ * <p/>
+ * Keying on the URL alone is safe across users: a response is only reused after the server has
+ * confirmed, for the requesting user, that it still matches the ETag. The disk tier survives
+ * restarts, so a sample run again later starts with warm entries, and may be shared by several
+ * processes.
+ * <p/>
+ * Cache failures (for example an unwritable directory) are logged and never fail a request.
+ */
+public class EtagCachingHttpTransport extends ForwardingHttpTransport {
+
+    private static final Logger LOGGER = Logger.getLogger(EtagCachingHttpTransport.class.getName());
+
+    private static final int DISK_FORMAT_VERSION = 1;
+
+    /**
+     * Default maximum total size of the disk tier.
+     */
+    public static final long DEFAULT_MAX_DISK_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Length of a cache file name, a hex SHA-1 digest of the URL.
+     */
+    private static final int FILE_NAME_LENGTH = 40;
+
+    private final File directory;
+
+    private final long maxMemoryBytes;
+
+    private final long maxEntryBytes;
+
+    private final long maxDiskBytes;
+
+    /**
+     * Estimated total size of the disk tier, or -1 until the directory has been measured; guarded
+     * by diskLock. Files written by other processes are only seen when the directory is trimmed.
+     */
+    private long diskBytes = -1;
+
+    private final Object diskLock = new Object();
+
+    /**
+     * Memory tier, in access order so that the first entry is the least recently used one.
+     */
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long memoryBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong notModifiedCount = new AtomicLong();
+
+    private final AtomicLong storeCount = new AtomicLong();
+
+    private final AtomicLong diskWriteCount = new AtomicLong();
+
+    private final AtomicLong diskEvictionCount = new AtomicLong();
+
+    /**
+     * Creates a cache whose disk tier holds at most {@link #DEFAULT_MAX_DISK_BYTES}.
+     *
+     * @param delegate       transport that executes the requests
+     * @param directory      directory of the disk tier, or {@code null} to cache in memory only
+     * @param maxMemoryBytes maximum total size of the bodies kept in memory; larger bodies than a
+     *                       quarter of it are not cached at all
+     */
+    public EtagCachingHttpTransport(HttpTransport delegate, File directory, long maxMemoryBytes) {
+        this(delegate, directory, maxMemoryBytes, DEFAULT_MAX_DISK_BYTES);
+    }
+
+    /**
+     * @param delegate       transport that executes the requests
+     * @param directory      directory of the disk tier, or {@code null} to cache in memory only
+     * @param maxMemoryBytes maximum total size of the bodies kept in memory; larger bodies than a
+     *                       quarter of it are not cached at all
+     * @param maxDiskBytes   maximum total size of the files in the disk tier
+     */
+    public EtagCachingHttpTransport(HttpTransport delegate, File directory, long maxMemoryBytes,
+                                    long maxDiskBytes) {
+        super(delegate);
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxEntryBytes = maxMemoryBytes / 4;
+        this.maxDiskBytes = maxDiskBytes;
+        if (directory != null && !directory.isDirectory()) {
+            if (directory.mkdirs()) {
+                // Cached responses can contain private data; keep them readable by the owner only.
+                directory.setReadable(false, false);
+                directory.setReadable(true, true);
+                directory.setWritable(false, false);
+                directory.setWritable(true, true);
+                directory.setExecutable(false, false);
+                directory.setExecutable(true, true);
+            } else {
+                LOGGER.warning("Cannot create response cache directory " + directory + ", caching in memory only");
+            }
+        }
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new CachingRequest(method, url);
+    }
+
+    /**
+     * Returns the number of GET requests for which a cached response existed and was revalidated.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of GET requests for which nothing was cached.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of {@code 304 Not Modified} answers, i.e. responses served from the cache.
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * Returns the number of responses written to the cache.
+     */
+    public long getStoreCount() {
+        return storeCount.get();
+    }
+
+    /**
+     * Returns the number of responses written to the disk tier.
+     */
+    public long getDiskWriteCount() {
+        return diskWriteCount.get();
+    }
+
+    /**
+     * Returns the number of files deleted to keep the disk tier within its limit.
+     */
+    public long getDiskEvictionCount() {
+        return diskEvictionCount.get();
+    }
+
+    /**
+     * Returns the total size of the bodies held in memory.
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "EtagCachingHttpTransport[hits=" + getHitCount() + ", misses=" + getMissCount() + ", notModified="
+                + getNotModifiedCount() + ", stores=" + getStoreCount() + ", memoryBytes=" + getMemoryBytes()
+                + ", diskWrites=" + getDiskWriteCount() + ", diskEvictions=" + getDiskEvictionCount() + "]";
+    }
+
+    /**
+     * Looks the URL up in memory, then on disk. Entries found on disk are promoted to memory.
+     */
+    private Entry lookup(String url) {
+        synchronized (this) {
+            Entry entry = memory.get(url);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        Entry entry = readFromDisk(url);
+        if (entry != null) {
+            putInMemory(url, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Stores a fresh response. It goes to disk only if it replaces a cached one, i.e. if its URL has
+     * been requested before.
+     */
+    private void store(String url, Entry entry, boolean requestedBefore) {
+        storeCount.incrementAndGet();
+        putInMemory(url, entry);
+        if (requestedBefore) {
+            writeToDisk(url, entry);
+        }
+    }
+
+    /**
+     * Records that a cached response has been revalidated: it is written to disk unless it is
+     * there already, in which case its file is marked as recently used.
+     */
+    private void revalidated(String url, Entry entry) {
+        if (directory == null) {
+            return;
+        }
+        if (entry.onDisk) {
+            fileFor(url).setLastModified(System.currentTimeMillis());
+        } else {
+            writeToDisk(url, entry);
+        }
+    }
+
+    private synchronized void putInMemory(String url, Entry entry) {
+        Entry previous = memory.put(url, entry);
+        if (previous != null) {
+            memoryBytes -= previous.body.length;
+        }
+        memoryBytes += entry.body.length;
+        Iterator<Entry> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().body.length;
+            eldest.remove();
+        }
+    }
+
+    private Entry readFromDisk(String url) {
+        if (directory == null) {
+            return null;
+        }
+        File file = fileFor(url);
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            // The URL is stored as well, in case two URLs ever share a file name.
+            if (in.readInt() != DISK_FORMAT_VERSION || !url.equals(in.readUTF())) {
+                return null;
+            }
+            String etag = in.readUTF();
+            String contentType = emptyToNull(in.readUTF());
+            String contentEncoding = emptyToNull(in.readUTF());
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            Entry entry = new Entry(etag, contentType, contentEncoding, body);
+            entry.onDisk = true;
+            return entry;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Ignoring unreadable cache file " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(String url, Entry entry) {
+        if (directory == null) {
+            return;
+        }
+        File file = fileFor(url);
+        File temporary = null;
+        try {
+            // A unique name, so that processes sharing the directory never write to the same file.
+            temporary = File.createTempFile(file.getName(), ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary));
+            try {
+                out.writeInt(DISK_FORMAT_VERSION);
+                out.writeUTF(url);
+                out.writeUTF(entry.etag);
+                out.writeUTF(nullToEmpty(entry.contentType));
+                out.writeUTF(nullToEmpty(entry.contentEncoding));
+                out.writeInt(entry.body.length);
+                out.write(entry.body);
+            } finally {
+                out.close();
+            }
+            TemporaryFiles.replace(temporary, file);
+            entry.onDisk = true;
+            diskWriteCount.incrementAndGet();
+            addDiskBytes(file.length());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot write response cache file " + file, e);
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Adds a written file to the size of the disk tier and trims the tier once it is too large.
+     */
+    private void addDiskBytes(long bytes) {
+        synchronized (diskLock) {
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                for (File file : cacheFiles()) {
+                    diskBytes += file.length();
+                }
+            } else {
+                diskBytes += bytes;
+            }
+            if (diskBytes > maxDiskBytes) {
+                trimDisk();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier is back to three quarters of its
+     * limit, so that it is not trimmed again on the next write.
+     */
+    private void trimDisk() {
+        File[] files = cacheFiles();
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+            total += files[i].length();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return lastModified[a] < lastModified[b] ? -1 : lastModified[a] == lastModified[b] ? 0 : 1;
+            }
+        });
+        long target = maxDiskBytes / 4 * 3;
+        for (int i = 0; i < order.length && total > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                diskEvictionCount.incrementAndGet();
+            }
+        }
+        diskBytes = total;
+    }
+
+    /**
+     * Lists the cache files of the disk tier, leaving out files still being written.
+     */
+    private File[] cacheFiles() {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().length() == FILE_NAME_LENGTH && file.isFile();
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private File fileFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing was written, nothing to lose.
+        }
+    }
+
+    /**
+     * Cached response body with the headers needed to serve it again.
+     */
+    private static final class Entry {
+
+        final String etag;
+
+        final String contentType;
+
+        final String contentEncoding;
+
+        final byte[] body;
+
+        /**
+         * Whether the entry is stored in the disk tier.
+         */
+        volatile boolean onDisk;
+
+        Entry(String etag, String contentType, String contentEncoding, byte[] body) {
+            this.etag = etag;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+    }
+
+    private final class CachingRequest extends ForwardingLowLevelHttpRequest {
+
+        CachingRequest(String method, String url) throws IOException {
+            super(EtagCachingHttpTransport.this, method, url);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            // Requests that are already conditional are left alone; the caller handles the 304.
+            if (!"GET".equals(getMethod()) || getFirstHeaderValue("If-None-Match") != null) {
+                return super.execute();
+            }
+
+            Entry cached = lookup(getUrl());
+            if (cached != null) {
+                hitCount.incrementAndGet();
+                getDelegate().addHeader("If-None-Match", cached.etag);
+            } else {
+                missCount.incrementAndGet();
+            }
+
+            LowLevelHttpResponse response = super.execute();
+            int statusCode = response.getStatusCode();
+            if (statusCode == 304 && cached != null) {
+                notModifiedCount.incrementAndGet();
+                revalidated(getUrl(), cached);
+                return fromCache(BufferedHttpResponse.read(response), cached);
+            }
+            if (statusCode != 200) {
+                return response;
+            }
+
+            String etag = BufferedHttpResponse.firstHeaderValue(response, "ETag");
+            long length = response.getContentLength();
+            if (etag == null || length > maxEntryBytes) {
+                return response;
+            }
+            BufferedHttpResponse buffered = BufferedHttpResponse.read(response);
+            if (buffered.getBody().length <= maxEntryBytes) {
+                store(getUrl(), new Entry(etag, buffered.getContentType(), buffered.getContentEncoding(),
+                        buffered.getBody()), cached != null);
+            }
+            return buffered;
+        }
+
+        /**
+         * Turns a 304 into the 200 the caller would have received, keeping the fresh headers of the
+         * 304 (date, cache control, ETag) but the content headers of the cached body.
+         */
+        private LowLevelHttpResponse fromCache(BufferedHttpResponse notModified, Entry cached) {
+            List<String> names = new ArrayList<String>();
+            List<String> values = new ArrayList<String>();
+            for (int i = 0; i < notModified.getHeaderCount(); i++) {
+                String name = notModified.getHeaderName(i);
+                if (name != null && !name.equalsIgnoreCase("Content-Length")
+                        && !name.equalsIgnoreCase("Content-Type") && !name.equalsIgnoreCase("Content-Encoding")) {
+                    names.add(name);
+                    values.add(notModified.getHeaderValue(i));
+                }
+            }
+            if (cached.contentType != null) {
+                names.add("Content-Type");
+                values.add(cached.contentType);
+            }
+            if (cached.contentEncoding != null) {
+                names.add("Content-Encoding");
+                values.add(cached.contentEncoding);
+            }
+            return new BufferedHttpResponse(200, "OK", "HTTP/1.1 200 OK", cached.contentType,
+                    cached.contentEncoding, cached.body, names, values);
+        }
+    }
+}
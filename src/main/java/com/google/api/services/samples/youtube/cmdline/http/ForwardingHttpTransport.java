@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Transport that hands every request to another transport. Subclasses override
+ * {@link #buildRequest} to add behavior around the requests of the wrapped transport.
+ * <p/>
+ * {@link HttpTransport#buildRequest(String, String)} is protected, so the wrapped transport is
+ * called through reflection. This works for any transport, including final ones such as
+ * {@link com.google.api.client.http.apache.ApacheHttpTransport}.
+ */
+public abstract class ForwardingHttpTransport extends HttpTransport {
+
+    private static final Method BUILD_REQUEST;
+
+    static {
+        try {
+            BUILD_REQUEST = HttpTransport.class.getDeclaredMethod("buildRequest", String.class, String.class);
+            BUILD_REQUEST.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final HttpTransport delegate;
+
+    /**
+     * @param delegate transport that executes the requests
+     */
+    protected ForwardingHttpTransport(HttpTransport delegate) {
+        if (delegate == null) {
+            throw new NullPointerException("delegate");
+        }
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the wrapped transport.
+     */
+    public final HttpTransport getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return buildDelegateRequest(method, url);
+    }
+
+    /**
+     * Builds a request on the wrapped transport.
+     */
+    protected final LowLevelHttpRequest buildDelegateRequest(String method, String url) throws IOException {
+        try {
+            return (LowLevelHttpRequest) BUILD_REQUEST.invoke(delegate, method, url);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public boolean supportsMethod(String method) throws IOException {
+        return delegate.supportsMethod(method);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        delegate.shutdown();
+    }
+}
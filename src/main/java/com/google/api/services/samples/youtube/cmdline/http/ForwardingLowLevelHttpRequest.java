@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request of a {@link ForwardingHttpTransport} that passes everything on to a request of the
+ * wrapped transport. Headers and timeouts are recorded as well, so subclasses can inspect them and
+ * build further identical requests (for example to retry) with {@link #newDelegateRequest()}.
+ * <p/>
+ * {@link #abort()} is passed on to the request being executed, so that the bottom transport can
+ * close its connection if it supports that.
+ */
+public class ForwardingLowLevelHttpRequest extends LowLevelHttpRequest {
+
+    private final ForwardingHttpTransport transport;
+
+    private final String method;
+
+    private final String url;
+
+    private final LowLevelHttpRequest delegate;
+
+    private final List<String> headerNames = new ArrayList<String>();
+
+    private final List<String> headerValues = new ArrayList<String>();
+
+    private int connectTimeout = -1;
+
+    private int readTimeout = -1;
+
+    private volatile boolean aborted;
+
+    /**
+     * Request of the wrapped transport being executed, or {@code null}.
+     */
+    private volatile LowLevelHttpRequest executing;
+
+    /**
+     * @param transport transport that created this request
+     * @param method    HTTP method
+     * @param url       request URL
+     */
+    public ForwardingLowLevelHttpRequest(ForwardingHttpTransport transport, String method, String url)
+            throws IOException {
+        this.transport = transport;
+        this.method = method;
+        this.url = url;
+        this.delegate = transport.buildDelegateRequest(method, url);
+    }
+
+    /**
+     * Returns the HTTP method.
+     */
+    public final String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the request URL.
+     */
+    public final String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the request of the wrapped transport.
+     */
+    protected final LowLevelHttpRequest getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the first value of the given header (case-insensitive), or {@code null}.
+     */
+    public final String getFirstHeaderValue(String name) {
+        for (int i = 0; i < headerNames.size(); i++) {
+            if (headerNames.get(i).equalsIgnoreCase(name)) {
+                return headerValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void addHeader(String name, String value) throws IOException {
+        headerNames.add(name);
+        headerValues.add(value);
+        delegate.addHeader(name, value);
+    }
+
+    @Override
+    public void setTimeout(int connectTimeout, int readTimeout) throws IOException {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        delegate.setTimeout(connectTimeout, readTimeout);
+    }
+
+    @Override
+    public LowLevelHttpResponse execute() throws IOException {
+        return execute(delegate);
+    }
+
+    /**
+     * Copies the content of this request onto the given request of the wrapped transport and
+     * executes it.
+     */
+    protected final LowLevelHttpResponse execute(LowLevelHttpRequest request) throws IOException {
+        request.setContentType(getContentType());
+        request.setContentEncoding(getContentEncoding());
+        request.setContentLength(getContentLength());
+        request.setStreamingContent(getStreamingContent());
+        executing = request;
+        try {
+            // Checked after publishing the request, so that a concurrent abort() sees one or the other.
+            if (aborted) {
+                throw new InterruptedIOException("Request aborted: " + url);
+            }
+            return request.execute();
+        } finally {
+            executing = null;
+        }
+    }
+
+    /**
+     * Aborts the request: it fails if it has not been sent yet, and the request of the wrapped
+     * transport being executed, if any, is aborted as well. Can be called from any thread.
+     */
+    public void abort() {
+        aborted = true;
+        LowLevelHttpRequest request = executing;
+        if (request instanceof ForwardingLowLevelHttpRequest) {
+            ((ForwardingLowLevelHttpRequest) request).abort();
+        }
+    }
+
+    /**
+     * Returns whether {@link #abort()} has been called.
+     */
+    public final boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Builds a new request on the wrapped transport with the same method, URL, headers and
+     * timeouts as this one. Content is copied when it is executed with {@link #execute(LowLevelHttpRequest)}.
+     */
+    protected final LowLevelHttpRequest newDelegateRequest() throws IOException {
+        LowLevelHttpRequest request = transport.buildDelegateRequest(method, url);
+        for (int i = 0; i < headerNames.size(); i++) {
+            request.addHeader(headerNames.get(i), headerValues.get(i));
+        }
+        if (connectTimeout >= 0 || readTimeout >= 0) {
+            request.setTimeout(connectTimeout, readTimeout);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.ProxySelectorRoutePlanner;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.ProxySelector;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP transport on a pool of keep-alive connections shared by every request.
+ * <p/>
+ * Requests are executed by Apache HttpClient with a thread-safe connection manager, so a
+ * connection (and its TLS session) is reused by the next request to the same host instead of
+ * paying a TCP and TLS handshake per request. Connections left idle longer than the configured
+ * timeout are closed by a background thread before the server drops them. TLS sessions are cached
+ * by an {@link SSLContext} of the transport's own, so even a new connection usually resumes the
+ * previous session with an abbreviated handshake, while the JVM-wide default context is left alone.
+ * <p/>
+ * {@linkplain ForwardingLowLevelHttpRequest#abort() Aborting} a request aborts the HttpClient
+ * request, which closes its connection even while it is waiting for the response.
+ * <p/>
+ * Instances are created with {@link Builder}.
+ */
+public final class PooledHttpTransport extends ForwardingHttpTransport {
+
+    private static final Logger LOGGER = Logger.getLogger(PooledHttpTransport.class.getName());
+
+    /**
+     * HttpClient request of an ApacheHttpRequest, which the class does not expose; {@code null} if
+     * it cannot be accessed, in which case requests are not aborted.
+     */
+    private static final Field APACHE_REQUEST = apacheRequestField();
+
+    private final ThreadSafeClientConnManager connectionManager;
+
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicLong evictionRuns = new AtomicLong();
+
+    private final AtomicLong evictedConnections = new AtomicLong();
+
+    private PooledHttpTransport(ApacheHttpTransport delegate, ThreadSafeClientConnManager connectionManager,
+                                final long idleTimeoutMillis) {
+        super(delegate);
+        this.connectionManager = connectionManager;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "http-connection-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdleConnections(idleTimeoutMillis);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static Field apacheRequestField() {
+        try {
+            Field field = Class.forName("com.google.api.client.http.apache.ApacheHttpRequest")
+                    .getDeclaredField("request");
+            field.setAccessible(true);
+            return field;
+        } catch (ClassNotFoundException e) {
+            LOGGER.log(Level.WARNING, "Requests of the pooled transport cannot be aborted", e);
+        } catch (NoSuchFieldException e) {
+            LOGGER.log(Level.WARNING, "Requests of the pooled transport cannot be aborted", e);
+        }
+        return null;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new AbortableRequest(method, url);
+    }
+
+    private void evictIdleConnections(long idleTimeoutMillis) {
+        int before = connectionManager.getConnectionsInPool();
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        evictionRuns.incrementAndGet();
+        evictedConnections.addAndGet(Math.max(0, before - connectionManager.getConnectionsInPool()));
+    }
+
+    /**
+     * Returns the number of pooled connections, leased or idle.
+     */
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    /**
+     * Returns the number of pooled HTTPS connections to the given host, leased or idle.
+     *
+     * @param host host name, e.g. {@code www.googleapis.com}
+     */
+    public int getConnectionsInPool(String host) {
+        return connectionManager.getConnectionsInPool(new HttpRoute(new HttpHost(host, 443, "https"), null, true));
+    }
+
+    /**
+     * Returns the (approximate) number of connections closed for being idle or expired.
+     */
+    public long getEvictedConnections() {
+        return evictedConnections.get();
+    }
+
+    /**
+     * Returns how many times the idle connection eviction has run.
+     */
+    public long getEvictionRuns() {
+        return evictionRuns.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PooledHttpTransport[connectionsInPool=" + getConnectionsInPool() + ", evictedConnections="
+                + getEvictedConnections() + ", evictionRuns=" + getEvictionRuns() + "]";
+    }
+
+    /**
+     * Stops the eviction thread and closes every pooled connection.
+     */
+    @Override
+    public void shutdown() throws IOException {
+        evictor.shutdownNow();
+        super.shutdown();
+    }
+
+    private final class AbortableRequest extends ForwardingLowLevelHttpRequest {
+
+        AbortableRequest(String method, String url) throws IOException {
+            super(PooledHttpTransport.this, method, url);
+        }
+
+        @Override
+        public void abort() {
+            super.abort();
+            if (APACHE_REQUEST == null) {
+                return;
+            }
+            try {
+                ((AbortableHttpRequest) APACHE_REQUEST.get(getDelegate())).abort();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link PooledHttpTransport}.
+     */
+    public static final class Builder {
+
+        private int maxConnectionsPerRoute = 20;
+
+        private int maxConnectionsTotal = 200;
+
+        private long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+
+        private int tlsSessionCacheSize = 1000;
+
+        private int tlsSessionTimeoutSeconds = (int) TimeUnit.HOURS.toSeconds(24);
+
+        /**
+         * Sets the maximum number of connections to one host (default 20).
+         */
+        public Builder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections across all hosts (default 200).
+         */
+        public Builder setMaxConnectionsTotal(int maxConnectionsTotal) {
+            this.maxConnectionsTotal = maxConnectionsTotal;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may stay idle in the pool before it is closed (default 30 seconds).
+         */
+        public Builder setIdleTimeout(long idleTimeout, TimeUnit unit) {
+            this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+            return this;
+        }
+
+        /**
+         * Sets the number of TLS sessions kept for resumption (default 1000, 0 for no limit).
+         */
+        public Builder setTlsSessionCacheSize(int tlsSessionCacheSize) {
+            this.tlsSessionCacheSize = tlsSessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a TLS session may be resumed (default 24 hours, 0 for no limit).
+         */
+        public Builder setTlsSessionTimeout(long tlsSessionTimeout, TimeUnit unit) {
+            this.tlsSessionTimeoutSeconds = (int) unit.toSeconds(tlsSessionTimeout);
+            return this;
+        }
+
+        public PooledHttpTransport build() {
+            HttpParams params = new BasicHttpParams();
+            HttpConnectionParams.setStaleCheckingEnabled(params, false);
+            HttpConnectionParams.setSocketBufferSize(params, 8192);
+            ConnManagerParams.setMaxTotalConnections(params, maxConnectionsTotal);
+            ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+
+            SchemeRegistry registry = new SchemeRegistry();
+            registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+            registry.register(new Scheme("https", new SSLSocketFactory(newSslContext()), 443));
+
+            ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager(params, registry);
+            DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, params);
+            // Retries are left to the Google client library, as with the default ApacheHttpTransport.
+            httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+            httpClient.setRoutePlanner(new ProxySelectorRoutePlanner(registry, ProxySelector.getDefault()));
+
+            return new PooledHttpTransport(new ApacheHttpTransport(httpClient), connectionManager, idleTimeoutMillis);
+        }
+
+        /**
+         * Creates the SSL context the TLS sockets are created from. Its client session cache decides
+         * how many sessions can be resumed and for how long; it is not shared with the default
+         * context, so other TLS clients in the process keep their own settings.
+         */
+        private SSLContext newSslContext() {
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, null, null);
+                SSLSessionContext sessions = context.getClientSessionContext();
+                sessions.setSessionCacheSize(tlsSessionCacheSize);
+                sessions.setSessionTimeout(tlsSessionTimeoutSeconds);
+                return context;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Thrown by {@link QuotaSchedulingHttpTransport} instead of sending a request that would exceed
+ * the daily quota budget.
+ */
+public class QuotaExhaustedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String method;
+
+    private final long cost;
+
+    private final long remaining;
+
+    private final long resetTimeMillis;
+
+    /**
+     * @param method          API method of the request, e.g. {@code search.list}
+     * @param cost            quota cost of the request
+     * @param remaining       quota units left in the current window
+     * @param resetTimeMillis time at which the budget is refilled
+     */
+    public QuotaExhaustedException(String method, long cost, long remaining, long resetTimeMillis) {
+        super("Daily quota budget exhausted: " + method + " costs " + cost + " units, " + remaining
+                + " left until " + new Date(resetTimeMillis));
+        this.method = method;
+        this.cost = cost;
+        this.remaining = remaining;
+        this.resetTimeMillis = resetTimeMillis;
+    }
+
+    /**
+     * Returns the API method of the rejected request.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the quota cost of the rejected request.
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    /**
+     * Returns the quota units left when the request was rejected.
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Returns the time (in milliseconds since the epoch) at which the budget is refilled.
+     */
+    public long getResetTimeMillis() {
+        return resetTimeMillis;
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Transport that charges every YouTube Data API request against a daily quota budget before
+ * sending it.
+ * <p/>
+ * The cost of a request is looked up by API method (for example {@code search.list} or
+ * {@code videos.insert}), which is derived from the HTTP method and the URL path. Batch requests
+ * are charged the sum of their parts. The budget is a token bucket holding the daily quota, which
+ * is refilled when the quota window rolls over at midnight Pacific Time, as the API does.
+ * <p/>
+ * Requests belong to one of two {@linkplain Lane lanes}, set per thread with {@link #setLane}:
+ * <ul>
+ * <li>{@link Lane#INTERACTIVE} (default) requests are sent right away as long as the budget
+ * allows, and fail with {@link QuotaExhaustedException} otherwise.</li>
+ * <li>{@link Lane#BULK} requests are paced: they may only spend what has accrued since the start
+ * of the window (plus a small burst) and never the share reserved for interactive requests, so
+ * they wait instead of failing and bulk throughput is spread over the whole day.</li>
+ * </ul>
+ * A request that fails with an I/O error stays charged, unless no connection to the server could
+ * be opened. The budget only counts requests made by this process. Requests to other APIs (such as
+ * YouTube Analytics) are not charged. Instances are created with {@link Builder}.
+ */
+public final class QuotaSchedulingHttpTransport extends ForwardingHttpTransport {
+
+    /**
+     * Priority lane of a request.
+     */
+    public enum Lane {
+        /**
+         * Requests a user is waiting for; never delayed.
+         */
+        INTERACTIVE,
+        /**
+         * Background requests; paced over the quota window.
+         */
+        BULK
+    }
+
+    private static final ThreadLocal<Lane> LANE = new ThreadLocal<Lane>() {
+        @Override
+        protected Lane initialValue() {
+            return Lane.INTERACTIVE;
+        }
+    };
+
+    private static final Pattern BATCH_PART_REQUEST_LINE = Pattern.compile("^(GET|POST|PUT|DELETE|PATCH) (\\S+)");
+
+    private static final String API_PATH = "/youtube/v3/";
+
+    private final long dailyQuota;
+
+    private final long interactiveReserve;
+
+    private final long bulkBurst;
+
+    private final TimeZone windowTimeZone;
+
+    private final Map<String, Long> costs;
+
+    private final long defaultReadCost;
+
+    private final long defaultWriteCost;
+
+    /**
+     * Window start and end and units used in it, guarded by this.
+     */
+    private long windowStart;
+
+    private long windowEnd;
+
+    private long used;
+
+    private final ConcurrentMap<String, AtomicLong> usedByMethod = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong delayedCount = new AtomicLong();
+
+    private QuotaSchedulingHttpTransport(HttpTransport delegate, Builder builder) {
+        super(delegate);
+        this.dailyQuota = builder.dailyQuota;
+        this.interactiveReserve = builder.dailyQuota * builder.interactiveReservePercent / 100;
+        this.bulkBurst = builder.bulkBurst >= 0 ? builder.bulkBurst : builder.dailyQuota / 20;
+        this.windowTimeZone = builder.windowTimeZone;
+        this.costs = new HashMap<String, Long>(builder.costs);
+        this.defaultReadCost = builder.defaultReadCost;
+        this.defaultWriteCost = builder.defaultWriteCost;
+        startWindow(System.currentTimeMillis());
+    }
+
+    /**
+     * Sets the lane of the requests made by the current thread.
+     *
+     * @return the previous lane, to be restored when done
+     */
+    public static Lane setLane(Lane lane) {
+        Lane previous = LANE.get();
+        LANE.set(lane);
+        return previous;
+    }
+
+    /**
+     * Returns the lane of the requests made by the current thread.
+     */
+    public static Lane getLane() {
+        return LANE.get();
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new ScheduledRequest(method, url);
+    }
+
+    /**
+     * Returns the quota cost of the given API method, e.g. {@code search.list}.
+     */
+    public long getCost(String apiMethod) {
+        Long cost = costs.get(apiMethod);
+        if (cost != null) {
+            return cost;
+        }
+        return apiMethod.endsWith(".list") ? defaultReadCost : defaultWriteCost;
+    }
+
+    /**
+     * Returns the daily quota.
+     */
+    public long getDailyQuota() {
+        return dailyQuota;
+    }
+
+    /**
+     * Returns the quota units left in the current window.
+     */
+    public synchronized long getRemaining() {
+        rollWindow(System.currentTimeMillis());
+        return dailyQuota - used;
+    }
+
+    /**
+     * Returns the quota units used in the current window.
+     */
+    public synchronized long getUsed() {
+        rollWindow(System.currentTimeMillis());
+        return used;
+    }
+
+    /**
+     * Returns the time (in milliseconds since the epoch) at which the budget is next refilled.
+     */
+    public synchronized long getResetTimeMillis() {
+        rollWindow(System.currentTimeMillis());
+        return windowEnd;
+    }
+
+    /**
+     * Returns the quota units charged per API method since this transport was created.
+     */
+    public Map<String, Long> getUsageByMethod() {
+        Map<String, Long> usage = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : usedByMethod.entrySet()) {
+            usage.put(entry.getKey(), entry.getValue().get());
+        }
+        return usage;
+    }
+
+    /**
+     * Returns the number of interactive requests rejected for lack of budget.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of bulk requests that had to wait for budget.
+     */
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "QuotaSchedulingHttpTransport[remaining=" + getRemaining() + "/" + dailyQuota + ", resetsAt="
+                + new Date(getResetTimeMillis()) + ", rejected=" + getRejectedCount() + ", delayed="
+                + getDelayedCount() + ", usage=" + getUsageByMethod() + "]";
+    }
+
+    /**
+     * Takes the cost of a request from the bucket, waiting for bulk requests as needed.
+     *
+     * @return start of the window the cost was charged to
+     */
+    private synchronized long acquire(String apiMethod, long cost, Lane lane) throws IOException {
+        boolean delayed = false;
+        while (true) {
+            long now = System.currentTimeMillis();
+            rollWindow(now);
+            if (cost > dailyQuota || (lane == Lane.INTERACTIVE && used + cost > dailyQuota)) {
+                rejectedCount.incrementAndGet();
+                throw new QuotaExhaustedException(apiMethod, cost, dailyQuota - used, windowEnd);
+            }
+            if (lane == Lane.INTERACTIVE || used + cost <= bulkAllowance(now)) {
+                used += cost;
+                return windowStart;
+            }
+            if (!delayed) {
+                delayed = true;
+                delayedCount.incrementAndGet();
+            }
+            try {
+                wait(Math.max(1, bulkWaitMillis(now, cost)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for quota");
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given failure happened before the request was sent, because no
+     * connection to the server could be opened.
+     */
+    private static boolean neverSent(IOException e) {
+        return e instanceof ConnectException || e instanceof NoRouteToHostException
+                || e instanceof UnknownHostException;
+    }
+
+    /**
+     * Gives back the cost of a request that never reached the server.
+     */
+    private synchronized void release(long cost, long chargedInWindow) {
+        if (chargedInWindow == windowStart) {
+            used = Math.max(0, used - cost);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns how many units bulk requests may have used by the given time: the burst plus a
+     * linear share of the daily quota, minus the interactive reserve.
+     */
+    private long bulkAllowance(long now) {
+        double elapsed = (double) (now - windowStart) / (windowEnd - windowStart);
+        return Math.min(dailyQuota - interactiveReserve, bulkBurst + (long) (dailyQuota * elapsed));
+    }
+
+    private long bulkWaitMillis(long now, long cost) {
+        long needed = used + cost - bulkBurst;
+        if (used + cost > dailyQuota - interactiveReserve) {
+            return windowEnd - now;
+        }
+        long accruedAt = windowStart + (long) ((double) needed / dailyQuota * (windowEnd - windowStart));
+        return Math.min(windowEnd, accruedAt) - now;
+    }
+
+    private void rollWindow(long now) {
+        if (now >= windowEnd) {
+            startWindow(now);
+            notifyAll();
+        }
+    }
+
+    private void startWindow(long now) {
+        Calendar calendar = Calendar.getInstance(windowTimeZone);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        windowStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        windowEnd = calendar.getTimeInMillis();
+        used = 0;
+    }
+
+    /**
+     * Returns the API method of a request, e.g. {@code videos.insert}, or {@code null} for
+     * requests outside of the Data API.
+     */
+    static String apiMethod(String httpMethod, String url) {
+        int path = url.indexOf(API_PATH);
+        if (path < 0) {
+            return null;
+        }
+        int query = url.indexOf('?', path);
+        String[] segments = url.substring(path + API_PATH.length(), query < 0 ? url.length() : query).split("/");
+        String resource = segments[0];
+        if (segments.length > 1) {
+            // Actions such as thumbnails/set, liveBroadcasts/bind or watermarks/unset.
+            return resource + "." + segments[1];
+        }
+        if ("GET".equals(httpMethod)) {
+            return resource + ".list";
+        }
+        if ("PUT".equals(httpMethod)) {
+            return resource + ".update";
+        }
+        if ("DELETE".equals(httpMethod)) {
+            return resource + ".delete";
+        }
+        return resource + ".insert";
+    }
+
+    private final class ScheduledRequest extends ForwardingLowLevelHttpRequest {
+
+        ScheduledRequest(String method, String url) throws IOException {
+            super(QuotaSchedulingHttpTransport.this, method, url);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            if (getUrl().contains("upload_id=")) {
+                // Further chunks of a resumable upload; the upload was charged when it was started.
+                return super.execute();
+            }
+            String apiMethod;
+            Map<String, Long> charges = new HashMap<String, Long>();
+            if (isBatch()) {
+                apiMethod = "batch";
+                addBatchCharges(charges);
+            } else {
+                apiMethod = apiMethod(getMethod(), getUrl());
+                if (apiMethod == null) {
+                    return super.execute();
+                }
+                charges.put(apiMethod, getCost(apiMethod));
+            }
+
+            long cost = 0;
+            for (long charge : charges.values()) {
+                cost += charge;
+            }
+            long window = acquire(apiMethod, cost, LANE.get());
+            countUsage(charges, 1);
+            try {
+                return super.execute();
+            } catch (IOException e) {
+                // Once the request may have been sent, the API has charged it, whatever the outcome.
+                if (neverSent(e)) {
+                    release(cost, window);
+                    countUsage(charges, -1);
+                }
+                throw e;
+            }
+        }
+
+        private boolean isBatch() {
+            int query = getUrl().indexOf('?');
+            return "POST".equals(getMethod()) && (query < 0 ? getUrl() : getUrl().substring(0, query)).endsWith("/batch");
+        }
+
+        /**
+         * Adds the cost of each part of a batch request to the given charges by API method.
+         */
+        private void addBatchCharges(Map<String, Long> charges) throws IOException {
+            StreamingContent content = getStreamingContent();
+            if (content == null || getContentEncoding() != null) {
+                charges.put("batch", defaultWriteCost);
+                return;
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            content.writeTo(buffer);
+            final byte[] bytes = buffer.toByteArray();
+            // The content has been consumed; send the buffered copy instead.
+            setStreamingContent(new StreamingContent() {
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(bytes);
+                }
+            });
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), "UTF-8"));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                Matcher matcher = BATCH_PART_REQUEST_LINE.matcher(line);
+                if (matcher.find()) {
+                    String partMethod = apiMethod(matcher.group(1), matcher.group(2));
+                    if (partMethod != null) {
+                        Long charged = charges.get(partMethod);
+                        charges.put(partMethod, (charged == null ? 0 : charged) + getCost(partMethod));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) the given charges to the usage by API method.
+     */
+    private void countUsage(Map<String, Long> charges, int sign) {
+        for (Map.Entry<String, Long> charge : charges.entrySet()) {
+            AtomicLong counter = usedByMethod.get(charge.getKey());
+            if (counter == null) {
+                AtomicLong newCounter = new AtomicLong();
+                counter = usedByMethod.putIfAbsent(charge.getKey(), newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.addAndGet(sign * charge.getValue());
+        }
+    }
+
+    /**
+     * Builder for {@link QuotaSchedulingHttpTransport}.
+     */
+    public static final class Builder {
+
+        private final HttpTransport delegate;
+
+        private long dailyQuota = 10000;
+
+        private int interactiveReservePercent = 10;
+
+        private long bulkBurst = -1;
+
+        private TimeZone windowTimeZone = TimeZone.getTimeZone("America/Los_Angeles");
+
+        private final Map<String, Long> costs = new HashMap<String, Long>();
+
+        private long defaultReadCost = 1;
+
+        private long defaultWriteCost = 50;
+
+        /**
+         * @param delegate transport that executes the requests
+         */
+        public Builder(HttpTransport delegate) {
+            this.delegate = delegate;
+            costs.put("search.list", 100L);
+            costs.put("videos.insert", 1600L);
+            costs.put("captions.insert", 400L);
+            costs.put("captions.update", 450L);
+            costs.put("captions.download", 200L);
+        }
+
+        /**
+         * Sets the daily quota of the project (default 10000 units).
+         */
+        public Builder setDailyQuota(long dailyQuota) {
+            this.dailyQuota = dailyQuota;
+            return this;
+        }
+
+        /**
+         * Sets the share of the daily quota that bulk requests may not use (default 10 percent).
+         */
+        public Builder setInteractiveReservePercent(int interactiveReservePercent) {
+            this.interactiveReservePercent = interactiveReservePercent;
+            return this;
+        }
+
+        /**
+         * Sets how many units bulk requests may use at the start of a window before pacing applies
+         * (default 5 percent of the daily quota).
+         */
+        public Builder setBulkBurst(long bulkBurst) {
+            this.bulkBurst = bulkBurst;
+            return this;
+        }
+
+        /**
+         * Sets the time zone whose midnight starts a new quota window (default America/Los_Angeles).
+         */
+        public Builder setWindowTimeZone(TimeZone windowTimeZone) {
+            this.windowTimeZone = windowTimeZone;
+            return this;
+        }
+
+        /**
+         * Sets the cost of an API method, e.g. {@code setCost("search.list", 100)}. Methods without
+         * an explicit cost cost 1 unit when they end with {@code .list} and 50 units otherwise.
+         */
+        public Builder setCost(String apiMethod, long cost) {
+            costs.put(apiMethod, cost);
+            return this;
+        }
+
+        public QuotaSchedulingHttpTransport build() {
+            return new QuotaSchedulingHttpTransport(delegate, this);
+        }
+    }
+}
@@ -0,0 +1,603 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport that retries failed GET requests and hedges slow ones.
+ * <p/>
+ * A GET request that fails with an I/O error, a 5xx or 429 status, or a 403 whose reason is
+ * {@code rateLimitExceeded} or {@code userRateLimitExceeded} is sent again after a random delay
+ * between zero and an exponentially growing ceiling ("full jitter"), up to a maximum number of
+ * attempts. Other methods are never retried, since they are not idempotent or their content
+ * cannot be sent twice.
+ * <p/>
+ * When a GET has not been answered after the 95th percentile of recent GET latencies, a second
+ * copy is sent; whichever answer arrives first is used, and the other copy is
+ * {@linkplain ForwardingLowLevelHttpRequest#abort() aborted} so that its connection is released.
+ * This cuts the tail latency of long pagination loops. Hedged copies run on pool threads in the
+ * {@linkplain QuotaSchedulingHttpTransport.Lane quota lane} of the calling thread.
+ * <p/>
+ * A hedged copy that has reached the API is charged quota like any other request, even when it
+ * loses. When a {@link QuotaSchedulingHttpTransport} is below this transport, only API methods
+ * costing at most the hedging limit (1 unit by default, so never {@code search.list}) are hedged.
+ * <p/>
+ * Retries and hedges draw from a shared budget: every request adds a fraction of a token (10% by
+ * default) and every retry or hedge takes a whole one, so extra requests never exceed that share of
+ * the traffic, even while the API is failing. Instances are created with {@link Builder}.
+ */
+public final class RetryingHttpTransport extends ForwardingHttpTransport {
+
+    private static final Logger LOGGER = Logger.getLogger(RetryingHttpTransport.class.getName());
+
+    private static final String[] RETRYABLE_403_REASONS = {"\"rateLimitExceeded\"", "\"userRateLimitExceeded\""};
+
+    /**
+     * Number of latency samples needed before requests are hedged.
+     */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final int maxAttempts;
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final double budgetRatio;
+
+    private final double maxBudget;
+
+    private final boolean hedging;
+
+    private final long maxHedgeCost;
+
+    /**
+     * Quota scheduler below this transport, which prices the requests to hedge, or {@code null}.
+     */
+    private final QuotaSchedulingHttpTransport quotaScheduler;
+
+    private final Random random = new Random();
+
+    /**
+     * Retry budget in tokens, guarded by this.
+     */
+    private double budget;
+
+    /**
+     * Ring buffer of recent GET latencies in nanoseconds, guarded by itself.
+     */
+    private final long[] latencies;
+
+    private int latencyCount;
+
+    private int latencyIndex;
+
+    private final ExecutorService hedgeExecutor;
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    private final AtomicLong budgetExhaustedCount = new AtomicLong();
+
+    private RetryingHttpTransport(HttpTransport delegate, Builder builder) {
+        super(delegate);
+        this.maxAttempts = builder.maxAttempts;
+        this.initialDelayMillis = builder.initialDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.budgetRatio = builder.budgetRatio;
+        this.maxBudget = builder.maxBudget;
+        this.budget = builder.maxBudget;
+        this.hedging = builder.hedging;
+        this.maxHedgeCost = builder.maxHedgeCost;
+        this.quotaScheduler = findQuotaScheduler(delegate);
+        this.latencies = new long[builder.latencyWindow];
+        this.hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "hedged-request-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static QuotaSchedulingHttpTransport findQuotaScheduler(HttpTransport transport) {
+        while (transport instanceof ForwardingHttpTransport) {
+            if (transport instanceof QuotaSchedulingHttpTransport) {
+                return (QuotaSchedulingHttpTransport) transport;
+            }
+            transport = ((ForwardingHttpTransport) transport).getDelegate();
+        }
+        return null;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        if (!"GET".equals(method)) {
+            return super.buildRequest(method, url);
+        }
+        return new RetryingRequest(method, url);
+    }
+
+    /**
+     * Returns the number of retries sent.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Returns the number of hedged copies sent.
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns the number of hedged copies that answered before the original request.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Returns how many retries or hedges were skipped because the budget was used up.
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhaustedCount.get();
+    }
+
+    /**
+     * Returns the delay after which a GET is hedged, or -1 while there are too few samples.
+     */
+    public long getHedgeDelayMillis() {
+        long nanos = hedgeDelayNanos();
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryingHttpTransport[retries=" + getRetryCount() + ", hedges=" + getHedgeCount() + ", hedgeWins="
+                + getHedgeWinCount() + ", budgetExhausted=" + getBudgetExhaustedCount() + ", hedgeDelayMs="
+                + getHedgeDelayMillis() + "]";
+    }
+
+    /**
+     * Stops the hedging threads and shuts the wrapped transport down.
+     */
+    @Override
+    public void shutdown() throws IOException {
+        hedgeExecutor.shutdownNow();
+        super.shutdown();
+    }
+
+    private synchronized void depositBudget() {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    private synchronized boolean withdrawBudget() {
+        if (budget < 1) {
+            budgetExhaustedCount.incrementAndGet();
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[latencyIndex] = nanos;
+            latencyIndex = (latencyIndex + 1) % latencies.length;
+            latencyCount = Math.min(latencies.length, latencyCount + 1);
+        }
+    }
+
+    private long hedgeDelayNanos() {
+        long[] sorted;
+        synchronized (latencies) {
+            if (latencyCount < MIN_HEDGE_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(sorted);
+        return sorted[(int) (sorted.length * 0.95)];
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt - 1, 20));
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    private static boolean isRetryable(IOException e) {
+        return !(e instanceof InterruptedIOException) && !(e instanceof QuotaExhaustedException);
+    }
+
+    private static void disconnectQuietly(LowLevelHttpResponse response) {
+        try {
+            response.disconnect();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot disconnect discarded response", e);
+        }
+    }
+
+    /**
+     * Outcome of one copy of a request.
+     */
+    private static final class Attempt {
+
+        final LowLevelHttpResponse response;
+
+        final IOException failure;
+
+        final boolean hedge;
+
+        Attempt(LowLevelHttpResponse response, IOException failure, boolean hedge) {
+            this.response = response;
+            this.failure = failure;
+            this.hedge = hedge;
+        }
+    }
+
+    private final class RetryingRequest extends ForwardingLowLevelHttpRequest {
+
+        RetryingRequest(String method, String url) throws IOException {
+            super(RetryingHttpTransport.this, method, url);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            depositBudget();
+            for (int attempt = 1; ; attempt++) {
+                LowLevelHttpRequest request = attempt == 1 ? getDelegate() : newDelegateRequest();
+                boolean lastAttempt = attempt >= maxAttempts;
+
+                LowLevelHttpResponse response;
+                try {
+                    response = executeHedged(request);
+                } catch (IOException e) {
+                    if (lastAttempt || !isRetryable(e) || !withdrawBudget()) {
+                        throw e;
+                    }
+                    LOGGER.log(Level.FINE, "Retrying " + getUrl() + " after I/O error", e);
+                    sleep(backoffMillis(attempt));
+                    retryCount.incrementAndGet();
+                    continue;
+                }
+
+                int statusCode = response.getStatusCode();
+                if (statusCode == 403) {
+                    // The error reason tells a rate limit apart from a permission or quota error.
+                    BufferedHttpResponse buffered = BufferedHttpResponse.read(response);
+                    response = buffered;
+                    if (!isRateLimited(buffered)) {
+                        return response;
+                    }
+                } else if (statusCode != 429 && statusCode < 500) {
+                    return response;
+                }
+                if (lastAttempt || !withdrawBudget()) {
+                    return response;
+                }
+                LOGGER.fine("Retrying " + getUrl() + " after status " + statusCode);
+                disconnectQuietly(response);
+                sleep(backoffMillis(attempt));
+                retryCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Executes the request, sending a second copy if it has not been answered after the hedge
+         * delay and its quota cost is low enough.
+         */
+        private LowLevelHttpResponse executeHedged(final LowLevelHttpRequest request) throws IOException {
+            long hedgeDelay = hedging && isCheapEnoughToHedge() ? hedgeDelayNanos() : -1;
+            long start = System.nanoTime();
+            if (hedgeDelay < 0) {
+                LowLevelHttpResponse response = execute(request);
+                recordLatency(System.nanoTime() - start);
+                return response;
+            }
+
+            final BlockingQueue<Attempt> attempts = new LinkedBlockingQueue<Attempt>();
+            List<Copy> copies = new ArrayList<Copy>(2);
+            copies.add(submit(request, false, attempts));
+            try {
+                Attempt first = attempts.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    if (withdrawBudget()) {
+                        hedgeCount.incrementAndGet();
+                        copies.add(submit(newDelegateRequest(), true, attempts));
+                    }
+                    first = attempts.take();
+                }
+                int pending = copies.size() - 1;
+                // An I/O error of one copy is only reported if the other copy fails as well.
+                while (first.failure != null && pending > 0) {
+                    first = attempts.take();
+                    pending--;
+                }
+                if (pending > 0) {
+                    discard(copies, attempts);
+                }
+                if (first.failure != null) {
+                    throw first.failure;
+                }
+                if (first.hedge) {
+                    hedgeWinCount.incrementAndGet();
+                }
+                recordLatency(System.nanoTime() - start);
+                return first.response;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                discard(copies, attempts);
+                throw new InterruptedIOException("Interrupted while waiting for the response");
+            }
+        }
+
+        /**
+         * Returns whether a copy of this request may be sent, which is the case when no quota
+         * scheduler is below this transport or the request costs at most the hedging limit.
+         */
+        private boolean isCheapEnoughToHedge() {
+            if (quotaScheduler == null) {
+                return true;
+            }
+            String apiMethod = QuotaSchedulingHttpTransport.apiMethod(getMethod(), getUrl());
+            return apiMethod == null || quotaScheduler.getCost(apiMethod) <= maxHedgeCost;
+        }
+
+        private Copy submit(LowLevelHttpRequest request, boolean hedge, BlockingQueue<Attempt> attempts) {
+            Copy copy = new Copy(request, hedge, attempts);
+            copy.future = hedgeExecutor.submit(copy);
+            return copy;
+        }
+
+        /**
+         * Aborts the copies that have not answered yet and disconnects the responses delivered but
+         * not taken, releasing their connections.
+         */
+        private void discard(List<Copy> copies, BlockingQueue<Attempt> attempts) {
+            for (Copy copy : copies) {
+                copy.discard();
+            }
+            // Copies deliver nothing once discarded, so the queue holds every response left over.
+            for (Attempt loser = attempts.poll(); loser != null; loser = attempts.poll()) {
+                if (loser.response != null) {
+                    disconnectQuietly(loser.response);
+                }
+            }
+        }
+
+        /**
+         * One copy of the request, executed on a pool thread in the quota lane of the caller.
+         */
+        private final class Copy implements Runnable {
+
+            private final LowLevelHttpRequest request;
+
+            private final boolean hedge;
+
+            private final BlockingQueue<Attempt> attempts;
+
+            private final QuotaSchedulingHttpTransport.Lane lane = QuotaSchedulingHttpTransport.getLane();
+
+            private Future<?> future;
+
+            /**
+             * Whether the outcome has been delivered, and whether it is no longer wanted, guarded by
+             * this.
+             */
+            private boolean delivered;
+
+            private boolean discarded;
+
+            Copy(LowLevelHttpRequest request, boolean hedge, BlockingQueue<Attempt> attempts) {
+                this.request = request;
+                this.hedge = hedge;
+                this.attempts = attempts;
+            }
+
+            public void run() {
+                QuotaSchedulingHttpTransport.Lane previousLane = QuotaSchedulingHttpTransport.setLane(lane);
+                try {
+                    deliver(new Attempt(execute(request), null, hedge));
+                } catch (IOException e) {
+                    deliver(new Attempt(null, e, hedge));
+                } catch (RuntimeException e) {
+                    deliver(new Attempt(null, new IOException(e), hedge));
+                } finally {
+                    QuotaSchedulingHttpTransport.setLane(previousLane);
+                }
+            }
+
+            private void deliver(Attempt attempt) {
+                synchronized (this) {
+                    if (!discarded) {
+                        delivered = true;
+                        attempts.add(attempt);
+                        return;
+                    }
+                }
+                if (attempt.response != null) {
+                    disconnectQuietly(attempt.response);
+                }
+            }
+
+            /**
+             * Stops the copy unless it has delivered its outcome: it is not started if it is still
+             * queued, it stops waiting for quota or a concurrency slot, and the request is aborted if
+             * it is already in flight.
+             */
+            void discard() {
+                synchronized (this) {
+                    if (delivered) {
+                        return;
+                    }
+                    discarded = true;
+                }
+                future.cancel(true);
+                if (request instanceof ForwardingLowLevelHttpRequest) {
+                    ((ForwardingLowLevelHttpRequest) request).abort();
+                }
+            }
+        }
+
+        private boolean isRateLimited(BufferedHttpResponse response) {
+            try {
+                String body = response.getBodyAsString();
+                for (String reason : RETRYABLE_403_REASONS) {
+                    if (body.contains(reason)) {
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot read 403 response body", e);
+            }
+            return false;
+        }
+
+        private void sleep(long millis) throws IOException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry");
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link RetryingHttpTransport}.
+     */
+    public static final class Builder {
+
+        private final HttpTransport delegate;
+
+        private int maxAttempts = 5;
+
+        private long initialDelayMillis = 500;
+
+        private long maxDelayMillis = TimeUnit.SECONDS.toMillis(32);
+
+        private double budgetRatio = 0.1;
+
+        private double maxBudget = 10;
+
+        private boolean hedging = true;
+
+        private long maxHedgeCost = 1;
+
+        private int latencyWindow = 1000;
+
+        /**
+         * @param delegate transport that executes the requests
+         */
+        public Builder(HttpTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Sets how many times a GET is sent at most, hedged copies not counted (default 5).
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the ceiling of the delay before the first retry; it doubles with every further
+         * attempt (default 500 milliseconds).
+         */
+        public Builder setInitialDelay(long initialDelay, TimeUnit unit) {
+            this.initialDelayMillis = unit.toMillis(initialDelay);
+            return this;
+        }
+
+        /**
+         * Sets the largest ceiling of the delay before a retry (default 32 seconds).
+         */
+        public Builder setMaxDelay(long maxDelay, TimeUnit unit) {
+            this.maxDelayMillis = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Sets the share of requests that may be retries or hedges (default 0.1), and how many
+         * tokens the budget can save up for bursts of failures (default 10).
+         */
+        public Builder setRetryBudget(double budgetRatio, double maxBudget) {
+            this.budgetRatio = budgetRatio;
+            this.maxBudget = maxBudget;
+            return this;
+        }
+
+        /**
+         * Sets whether slow GET requests are hedged (default true).
+         */
+        public Builder setHedging(boolean hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Sets the highest quota cost of a request that may be hedged (default 1 unit); only
+         * applies when a {@link QuotaSchedulingHttpTransport} is below this transport.
+         */
+        public Builder setMaxHedgeCost(long maxHedgeCost) {
+            this.maxHedgeCost = maxHedgeCost;
+            return this;
+        }
+
+        /**
+         * Sets the number of recent GET latencies the hedge delay is computed from (default 1000).
+         */
+        public Builder setLatencyWindow(int latencyWindow) {
+            this.latencyWindow = latencyWindow;
+            return this;
+        }
+
+        public RetryingHttpTransport build() {
+            return new RetryingHttpTransport(delegate, this);
+        }
+    }
+}
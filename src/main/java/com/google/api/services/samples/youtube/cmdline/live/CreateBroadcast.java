@@ -14,10 +14,12 @@
 
 package com.google.api.services.samples.youtube.cmdline.live;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.AsyncRequests;
+import com.google.api.services.samples.youtube.cmdline.client.RequestFunction;
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.*;
 import com.google.common.collect.Lists;
@@ -29,7 +31,8 @@ import java.util.List;
 
 /**
  * Demo of inserting a broadcast and a stream then binding them together using the YouTube Live API
- * (V3) with OAuth2 for authorization.
+ * (V3) with OAuth2 for authorization. The two inserts run concurrently and the bind follows as soon
+ * as both have completed.
  *
  * @author Ibrahim Ulukaya
  */
@@ -49,17 +52,17 @@ public class CreateBroadcast {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "createbroadcast");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential)
-                    .setApplicationName("youtube-cmdline-createbroadcast-sample").build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "createbroadcast", "youtube-cmdline-createbroadcast-sample");
 
             // Prompt the user for a title for this broadcast via the terminal.
             String title = getBroadcastTitle();
             System.out.println("You chose " + title + " for broadcast title.");
 
+            // Get the user's selected title for stream.
+            String streamTitle = getStreamTitle();
+            System.out.println("You chose " + streamTitle + " for stream title.");
+
             // Create a snippet with title, scheduled start and end times.
             LiveBroadcastSnippet broadcastSnippet = new LiveBroadcastSnippet();
             broadcastSnippet.setTitle(title);
@@ -79,27 +82,9 @@ public class CreateBroadcast {
             YouTube.LiveBroadcasts.Insert liveBroadcastInsert =
                     youtube.liveBroadcasts().insert("snippet,status", broadcast);
 
-            // Request is executed and inserted broadcast is returned
-            LiveBroadcast returnedBroadcast = liveBroadcastInsert.execute();
-
-            // Print out returned results.
-            System.out.println("\n================== Returned Broadcast ==================\n");
-            System.out.println("  - Id: " + returnedBroadcast.getId());
-            System.out.println("  - Title: " + returnedBroadcast.getSnippet().getTitle());
-            System.out.println("  - Description: " + returnedBroadcast.getSnippet().getDescription());
-            System.out.println("  - Published At: " + returnedBroadcast.getSnippet().getPublishedAt());
-            System.out.println(
-                    "  - Scheduled Start Time: " + returnedBroadcast.getSnippet().getScheduledStartTime());
-            System.out.println(
-                    "  - Scheduled End Time: " + returnedBroadcast.getSnippet().getScheduledEndTime());
-
-            // Get the user's selected title for stream.
-            title = getStreamTitle();
-            System.out.println("You chose " + title + " for stream title.");
-
             // Create a snippet with title.
             LiveStreamSnippet streamSnippet = new LiveStreamSnippet();
-            streamSnippet.setTitle(title);
+            streamSnippet.setTitle(streamTitle);
 
             // Create content distribution network with format and ingestion type.
             CdnSettings cdnSettings = new CdnSettings();
@@ -115,8 +100,47 @@ public class CreateBroadcast {
             YouTube.LiveStreams.Insert liveStreamInsert =
                     youtube.liveStreams().insert("snippet,cdn", stream);
 
+            // The broadcast and the stream do not depend on each other, so both insert requests are
+            // executed concurrently.
+            AsyncRequests async = AsyncRequests.getDefault();
+            final RequestFuture<LiveBroadcast> broadcastFuture = async.execute(liveBroadcastInsert);
+            final RequestFuture<LiveStream> streamFuture = async.execute(liveStreamInsert);
+
+            // Once both are inserted, they are bound together.
+            RequestFuture<LiveBroadcast> boundBroadcastFuture = broadcastFuture.compose(
+                    new RequestFunction<LiveBroadcast, RequestFuture<LiveBroadcast>>() {
+                        public RequestFuture<LiveBroadcast> apply(final LiveBroadcast insertedBroadcast) {
+                            return streamFuture.compose(new RequestFunction<LiveStream, RequestFuture<LiveBroadcast>>() {
+                                public RequestFuture<LiveBroadcast> apply(LiveStream insertedStream)
+                                        throws IOException {
+                                    // Create the bind request
+                                    YouTube.LiveBroadcasts.Bind liveBroadcastBind = youtube.liveBroadcasts()
+                                            .bind(insertedBroadcast.getId(), "id,contentDetails");
+
+                                    // Set stream id to bind
+                                    liveBroadcastBind.setStreamId(insertedStream.getId());
+                                    return AsyncRequests.getDefault().execute(liveBroadcastBind);
+                                }
+                            });
+                        }
+                    });
+
+            // Request is executed and inserted broadcast is returned
+            LiveBroadcast returnedBroadcast = broadcastFuture.getResult();
+
+            // Print out returned results.
+            System.out.println("\n================== Returned Broadcast ==================\n");
+            System.out.println("  - Id: " + returnedBroadcast.getId());
+            System.out.println("  - Title: " + returnedBroadcast.getSnippet().getTitle());
+            System.out.println("  - Description: " + returnedBroadcast.getSnippet().getDescription());
+            System.out.println("  - Published At: " + returnedBroadcast.getSnippet().getPublishedAt());
+            System.out.println(
+                    "  - Scheduled Start Time: " + returnedBroadcast.getSnippet().getScheduledStartTime());
+            System.out.println(
+                    "  - Scheduled End Time: " + returnedBroadcast.getSnippet().getScheduledEndTime());
+
             // Request is executed and inserted stream is returned
-            LiveStream returnedStream = liveStreamInsert.execute();
+            LiveStream returnedStream = streamFuture.getResult();
 
             // Print out returned results.
             System.out.println("\n================== Returned Stream ==================\n");
@@ -125,15 +149,8 @@ public class CreateBroadcast {
             System.out.println("  - Description: " + returnedStream.getSnippet().getDescription());
             System.out.println("  - Published At: " + returnedStream.getSnippet().getPublishedAt());
 
-            // Create the bind request
-            YouTube.LiveBroadcasts.Bind liveBroadcastBind =
-                    youtube.liveBroadcasts().bind(returnedBroadcast.getId(), "id,contentDetails");
-
-            // Set stream id to bind
-            liveBroadcastBind.setStreamId(returnedStream.getId());
-
-            // Request is executed and bound broadcast is returned
-            returnedBroadcast = liveBroadcastBind.execute();
+            // Bind request is executed and bound broadcast is returned
+            returnedBroadcast = boundBroadcastFuture.getResult();
 
             // Print out returned results.
             System.out.println("\n================== Returned Bound Broadcast ==================\n");
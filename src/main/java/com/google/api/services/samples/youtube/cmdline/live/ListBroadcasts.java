@@ -14,12 +14,11 @@
 
 package com.google.api.services.samples.youtube.cmdline.live;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.PagedList;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.LiveBroadcast;
-import com.google.api.services.youtube.model.LiveBroadcastListResponse;
 import com.google.common.collect.Lists;
 
 import java.io.IOException;
@@ -48,12 +47,8 @@ public class ListBroadcasts {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube.readonly");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "listbroadcasts");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential)
-                    .setApplicationName("youtube-cmdline-listbroadcasts-sample").build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "listbroadcasts", "youtube-cmdline-listbroadcasts-sample");
 
             // Create request to list broadcasts.
             YouTube.LiveBroadcasts.List liveBroadcastRequest =
@@ -62,15 +57,14 @@ public class ListBroadcasts {
             // Modify results to have broadcasts in all states.
             liveBroadcastRequest.setBroadcastStatus("all");
 
-            // List request is executed and list of broadcasts are returned
-            LiveBroadcastListResponse returnedListResponse = liveBroadcastRequest.execute();
-
-            // Get the list of broadcasts associated with the user.
-            List<LiveBroadcast> returnedList = returnedListResponse.getItems();
+            // Broadcasts of every page; the next page is fetched while one is printed.
+            PagedList<LiveBroadcast>.ItemIterator broadcasts =
+                    new PagedList<LiveBroadcast>(liveBroadcastRequest, LiveBroadcast.class).iterator();
 
             // Print out returned results.
             System.out.println("\n================== Returned Broadcasts ==================\n");
-            for (LiveBroadcast broadcast : returnedList) {
+            while (broadcasts.hasNext()) {
+                LiveBroadcast broadcast = broadcasts.next();
                 System.out.println("  - Id: " + broadcast.getId());
                 System.out.println("  - Title: " + broadcast.getSnippet().getTitle());
                 System.out.println("  - Description: " + broadcast.getSnippet().getDescription());
@@ -14,16 +14,19 @@
 
 package com.google.api.services.samples.youtube.cmdline.live;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.services.samples.youtube.cmdline.Auth;
+import com.google.api.services.samples.youtube.cmdline.client.PagedList;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.LiveStream;
-import com.google.api.services.youtube.model.LiveStreamListResponse;
 import com.google.common.collect.Lists;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Demo of listing streams using the YouTube Live API (V3) with OAuth2 for authorization.
@@ -46,13 +49,8 @@ public class ListStreams {
         List<String> scopes = Lists.newArrayList("https://www.googleapis.com/auth/youtube.readonly");
 
         try {
-            // Authorization.
-            Credential credential = Auth.authorize(scopes, "liststreams");
-
-            // YouTube object used to make all API requests.
-            youtube = new YouTube.Builder(Auth.HTTP_TRANSPORT, Auth.JSON_FACTORY, credential)
-                    .setApplicationName("youtube-cmdline-liststreams-sample")
-                    .build();
+            // Authorization. The returned YouTube object is used to make all API requests.
+            youtube = Auth.getYouTube(scopes, "liststreams", "youtube-cmdline-liststreams-sample");
 
             // List streams request is created.
             YouTube.LiveStreams.List livestreamRequest = youtube.liveStreams().list("id,snippet");
@@ -60,20 +58,41 @@ public class ListStreams {
             // Modify results to have only user's streams.
             livestreamRequest.setMine(true);
 
-            // List request is executed and list of streams are returned
-            LiveStreamListResponse returnedListResponse = livestreamRequest.execute();
-
-            // Get the list of streams associated with the user.
-            List<LiveStream> returnedList = returnedListResponse.getItems();
-
-            // Print out returned results.
+            // Print out the streams of every page as they arrive, asking for one stream at a time.
+            final CountDownLatch finished = new CountDownLatch(1);
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
             System.out.println("\n================== Returned Streams ==================\n");
-            for (LiveStream stream : returnedList) {
-                System.out.println("  - Id: " + stream.getId());
-                System.out.println("  - Title: " + stream.getSnippet().getTitle());
-                System.out.println("  - Description: " + stream.getSnippet().getDescription());
-                System.out.println("  - Published At: " + stream.getSnippet().getPublishedAt());
-                System.out.println("\n-------------------------------------------------------------\n");
+            new PagedList<LiveStream>(livestreamRequest, LiveStream.class).subscribe(new Subscriber<LiveStream>() {
+                private Subscription subscription;
+
+                public void onSubscribe(Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                public void onNext(LiveStream stream) {
+                    System.out.println("  - Id: " + stream.getId());
+                    System.out.println("  - Title: " + stream.getSnippet().getTitle());
+                    System.out.println("  - Description: " + stream.getSnippet().getDescription());
+                    System.out.println("  - Published At: " + stream.getSnippet().getPublishedAt());
+                    System.out.println("\n-------------------------------------------------------------\n");
+                    subscription.request(1);
+                }
+
+                public void onError(Throwable t) {
+                    failure.set(t);
+                    finished.countDown();
+                }
+
+                public void onComplete() {
+                    finished.countDown();
+                }
+            });
+
+            // Waits for the last page; a failed page request is handled below.
+            finished.await();
+            if (failure.get() != null) {
+                throw failure.get();
             }
 
         } catch (GoogleJsonResponseException e) {
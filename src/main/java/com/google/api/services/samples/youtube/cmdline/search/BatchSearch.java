@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.search;
+
+import com.google.api.services.samples.youtube.cmdline.client.RequestExecutors;
+import com.google.api.services.samples.youtube.cmdline.http.QuotaSchedulingHttpTransport;
+import com.google.api.services.samples.youtube.cmdline.topics.Topic;
+import com.google.api.services.samples.youtube.cmdline.topics.TopicResolver;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.SearchListResponse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs many searches read from a stream, with a bounded number in flight.
+ * <p/>
+ * Each line of the input is a query, optionally followed by a tab and a topic ID; blank lines are
+ * skipped. With a {@link TopicResolver}, each line is instead a topic query, such as "Paris", a tab
+ * and the search query: the topic query is resolved to a topic ID first (resolutions are cached),
+ * and the search runs without a topic if none matches. Every other parameter (part, type, fields,
+ * page size, API key) is copied from a template request. Searches run in the bulk
+ * {@linkplain QuotaSchedulingHttpTransport.Lane quota lane}. Lines are only read while fewer than
+ * {@link Builder#setParallelism} searches are in flight, so an arbitrarily long input is processed
+ * in constant memory. Searches go through a {@link SearchCache}, so a query repeated within its
+ * time to live is answered without a request.
+ * <p/>
+ * Responses are handed to the listener in completion order, one at a time. A failed search is
+ * reported to the listener and does not stop the batch; only a failing listener does.
+ * <p/>
+ * Instances are created with {@link Builder} and may run several batches, one at a time.
+ */
+public final class BatchSearch {
+
+    /**
+     * Receives the outcome of every search of a batch. Calls are never concurrent.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the response of a search.
+         */
+        void onResponse(Query query, SearchListResponse response) throws IOException;
+
+        /**
+         * Called when a search, or the resolution of its topic, failed.
+         */
+        void onFailure(Query query, IOException failure) throws IOException;
+    }
+
+    /**
+     * Search of a batch, as read from the input.
+     */
+    public static final class Query {
+
+        private final String query;
+
+        private final String topicQuery;
+
+        private final String topicId;
+
+        Query(String query, String topicQuery, String topicId) {
+            this.query = query;
+            this.topicQuery = topicQuery;
+            this.topicId = topicId;
+        }
+
+        /**
+         * Returns the search query.
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * Returns the topic query to resolve, or {@code null} without a {@link TopicResolver}.
+         */
+        public String getTopicQuery() {
+            return topicQuery;
+        }
+
+        /**
+         * Returns the topic ID of the search, or {@code null} for a search without a topic.
+         */
+        public String getTopicId() {
+            return topicId;
+        }
+    }
+
+    private final YouTube.Search.List template;
+
+    private final SearchCache cache;
+
+    private final int parallelism;
+
+    private final TopicResolver topicResolver;
+
+    private final AtomicLong queryCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong elapsedNanos = new AtomicLong();
+
+    private BatchSearch(Builder builder) {
+        this.template = builder.template;
+        this.cache = builder.cache != null ? builder.cache : new SearchCache.Builder().build();
+        this.parallelism = builder.parallelism;
+        this.topicResolver = builder.topicResolver;
+    }
+
+    /**
+     * Runs a search for every line of the input and returns once all of them completed.
+     *
+     * @param queries  input, read up to its end but not closed
+     * @param listener receives the response or failure of every search
+     * @return number of searches run
+     * @throws IOException if the input cannot be read or the listener fails
+     */
+    public synchronized long execute(BufferedReader queries, final Listener listener) throws IOException {
+        final Semaphore permits = new Semaphore(parallelism);
+        final AtomicReference<Throwable> listenerFailure = new AtomicReference<Throwable>();
+        ExecutorService executor = RequestExecutors.newExecutor("batch-search");
+        long start = System.nanoTime();
+        long batchCount = 0;
+        try {
+            String line;
+            while (listenerFailure.get() == null && (line = queries.readLine()) != null) {
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                final Query query;
+                if (tab < 0) {
+                    query = new Query(line, null, null);
+                } else if (topicResolver == null) {
+                    query = new Query(line.substring(0, tab), null, line.substring(tab + 1));
+                } else {
+                    query = new Query(line.substring(tab + 1), line.substring(0, tab), null);
+                }
+                permits.acquire();
+                batchCount++;
+                queryCount.incrementAndGet();
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            QuotaSchedulingHttpTransport.Lane previousLane =
+                                    QuotaSchedulingHttpTransport.setLane(QuotaSchedulingHttpTransport.Lane.BULK);
+                            try {
+                                search(query, listener);
+                            } catch (Throwable t) {
+                                listenerFailure.compareAndSet(null, t);
+                            } finally {
+                                QuotaSchedulingHttpTransport.setLane(previousLane);
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            // Every permit is back once the last search completed.
+            permits.acquire(parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching");
+        } finally {
+            executor.shutdown();
+            elapsedNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        Throwable cause = listenerFailure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return batchCount;
+    }
+
+    /**
+     * Returns the cache the searches go through.
+     */
+    public SearchCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the number of searches started.
+     */
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    /**
+     * Returns the number of searches that failed.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the number of searches per second over every completed batch.
+     */
+    public double getQueriesPerSecond() {
+        long nanos = elapsedNanos.get();
+        return nanos == 0 ? 0 : queryCount.get() / (nanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchSearch[queries=%d, failures=%d, qps=%.1f, cacheHitRatio=%.3f]", getQueryCount(),
+                getFailureCount(), getQueriesPerSecond(), cache.getHitRatio());
+    }
+
+    private void search(Query query, Listener listener) throws IOException {
+        SearchListResponse response;
+        try {
+            if (query.getTopicQuery() != null) {
+                Topic topic = topicResolver.resolve(query.getTopicQuery());
+                if (topic != null) {
+                    query = new Query(query.getQuery(), query.getTopicQuery(), topic.getMid());
+                }
+            }
+            response = cache.execute(newRequest(query.getQuery(), query.getTopicId()));
+        } catch (IOException e) {
+            failureCount.incrementAndGet();
+            synchronized (listener) {
+                listener.onFailure(query, e);
+            }
+            return;
+        }
+        synchronized (listener) {
+            listener.onResponse(query, response);
+        }
+    }
+
+    /**
+     * Copies the parameters of the template into a new request for the given query.
+     */
+    private YouTube.Search.List newRequest(String query, String topicId) throws IOException {
+        YouTube.Search.List request = SearchRequests.copyOf(template);
+        request.setQ(query);
+        if (topicId != null) {
+            request.setTopicId(topicId);
+        }
+        return request;
+    }
+
+    /**
+     * Builder for {@link BatchSearch}.
+     */
+    public static final class Builder {
+
+        private final YouTube.Search.List template;
+
+        private SearchCache cache;
+
+        private int parallelism = 8;
+
+        private TopicResolver topicResolver;
+
+        /**
+         * @param template search request with the parameters shared by every search, such as
+         *                 {@code type}, {@code fields}, {@code maxResults} and {@code key}
+         */
+        public Builder(YouTube.Search.List template) {
+            this.template = template;
+        }
+
+        /**
+         * Sets the cache, which may be shared with other batches (default: a new cache with the
+         * default settings of {@link SearchCache.Builder}).
+         */
+        public Builder setCache(SearchCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of searches in flight (default 8).
+         */
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the resolver of topic queries, which makes each line a topic query and a search
+         * query (default: none, each line is a search query and a topic ID).
+         */
+        public Builder setTopicResolver(TopicResolver topicResolver) {
+            this.topicResolver = topicResolver;
+            return this;
+        }
+
+        public BatchSearch build() {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+            return new BatchSearch(this);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.search;
+
+import com.google.api.services.samples.youtube.cmdline.client.AsyncRequests;
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.SearchListResponse;
+import com.google.api.services.youtube.model.SearchResult;
+import com.google.api.services.youtube.model.Video;
+import com.google.api.services.youtube.model.VideoListResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Joins the results of a search with the statistics and content details of their videos.
+ * <p/>
+ * {@code search.list} returns neither view counts nor durations. Rather than one
+ * {@code videos.list} per result, the video IDs of the results are collected into batches of up
+ * to 50 and each batch is looked up with a single {@code videos.list} call, which costs one request
+ * and one quota unit for 50 videos. The lookup of a page runs asynchronously while the next search
+ * page is fetched, so enrichment adds little latency beyond the search itself.
+ * <p/>
+ * Joined results are handed to the listener in search order as soon as their batch is back, so
+ * at most two pages of results are held in memory. Results that are not videos (channels or
+ * playlists), and videos that {@code videos.list} does not return (for example because they were
+ * deleted since they were indexed), are passed with a {@code null} video.
+ * <p/>
+ * Instances are created with {@link Builder} and may run several times, one at a time.
+ */
+public final class EnrichedSearch {
+
+    /**
+     * Maximum number of IDs accepted by one {@code videos.list} call.
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    /**
+     * Receives the joined results of a search.
+     */
+    public interface Listener {
+
+        /**
+         * Called once for every search result, in search order.
+         *
+         * @param result search result
+         * @param video  the video of the result with the requested parts, or {@code null}
+         */
+        void onResult(SearchResult result, Video video) throws IOException;
+    }
+
+    private final YouTube.Search.List request;
+
+    private final String videoParts;
+
+    private final String videoFields;
+
+    private final AsyncRequests asyncRequests;
+
+    private final AtomicLong searchRequestCount = new AtomicLong();
+
+    private final AtomicLong videoRequestCount = new AtomicLong();
+
+    private final AtomicLong resultCount = new AtomicLong();
+
+    private final AtomicLong missingVideoCount = new AtomicLong();
+
+    private EnrichedSearch(Builder builder) {
+        this.request = builder.request;
+        this.videoParts = builder.videoParts;
+        this.videoFields = builder.videoFields;
+        this.asyncRequests = builder.asyncRequests;
+    }
+
+    /**
+     * Pages through the search from its page token and returns once every result was handed to the
+     * listener.
+     *
+     * @return number of results
+     * @throws IOException the first failed search or lookup, or a listener failure
+     */
+    public synchronized long execute(Listener listener) throws IOException {
+        String firstPageToken = request.getPageToken();
+        LinkedList<Batch> inFlight = new LinkedList<Batch>();
+        List<SearchResult> buffer = new ArrayList<SearchResult>();
+        int bufferedIds = 0;
+        long count = 0;
+        try {
+            String pageToken = firstPageToken;
+            boolean lastPage;
+            do {
+                request.setPageToken(pageToken);
+                SearchListResponse response = request.execute();
+                searchRequestCount.incrementAndGet();
+                pageToken = response.getNextPageToken();
+                lastPage = pageToken == null;
+
+                int submitted = 0;
+                if (response.getItems() != null) {
+                    for (SearchResult result : response.getItems()) {
+                        buffer.add(result);
+                        if (videoIdOf(result) != null && ++bufferedIds == MAX_BATCH_SIZE) {
+                            inFlight.add(lookUp(buffer));
+                            submitted++;
+                            buffer = new ArrayList<SearchResult>();
+                            bufferedIds = 0;
+                        }
+                    }
+                }
+                if (lastPage && !buffer.isEmpty()) {
+                    inFlight.add(lookUp(buffer));
+                    submitted++;
+                }
+
+                // Batches submitted before this page was fetched have had its round trip to complete.
+                while (inFlight.size() > submitted) {
+                    count += deliver(inFlight.removeFirst(), listener);
+                }
+            } while (!lastPage);
+
+            while (!inFlight.isEmpty()) {
+                count += deliver(inFlight.removeFirst(), listener);
+            }
+            return count;
+        } finally {
+            for (Batch batch : inFlight) {
+                batch.videos.cancel(true);
+            }
+            request.setPageToken(firstPageToken);
+        }
+    }
+
+    /**
+     * Returns the number of {@code search.list} requests made.
+     */
+    public long getSearchRequestCount() {
+        return searchRequestCount.get();
+    }
+
+    /**
+     * Returns the number of {@code videos.list} requests made.
+     */
+    public long getVideoRequestCount() {
+        return videoRequestCount.get();
+    }
+
+    /**
+     * Returns the number of results handed to the listener.
+     */
+    public long getResultCount() {
+        return resultCount.get();
+    }
+
+    /**
+     * Returns the number of video results whose video was not returned by {@code videos.list}.
+     */
+    public long getMissingVideoCount() {
+        return missingVideoCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "EnrichedSearch[results=" + getResultCount() + ", missingVideos=" + getMissingVideoCount()
+                + ", searchRequests=" + getSearchRequestCount() + ", videoRequests=" + getVideoRequestCount() + "]";
+    }
+
+    /**
+     * Starts the {@code videos.list} call for the videos among the given results.
+     */
+    private Batch lookUp(List<SearchResult> results) throws IOException {
+        StringBuilder ids = new StringBuilder();
+        for (SearchResult result : results) {
+            String videoId = videoIdOf(result);
+            if (videoId != null) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(videoId);
+            }
+        }
+        RequestFuture<VideoListResponse> videos;
+        if (ids.length() == 0) {
+            videos = new RequestFuture<VideoListResponse>();
+            videos.set(new VideoListResponse());
+        } else {
+            YouTube.Videos.List videoRequest = SearchRequests.videosOf(request, videoParts, ids.toString());
+            videoRequest.setFields(videoFields);
+            videoRequestCount.incrementAndGet();
+            videos = asyncRequests.execute(videoRequest);
+        }
+        return new Batch(results, videos);
+    }
+
+    private int deliver(Batch batch, Listener listener) throws IOException {
+        Map<String, Video> videosById = new HashMap<String, Video>();
+        List<Video> videos = batch.videos.getResult().getItems();
+        if (videos != null) {
+            for (Video video : videos) {
+                videosById.put(video.getId(), video);
+            }
+        }
+        for (SearchResult result : batch.results) {
+            String videoId = videoIdOf(result);
+            Video video = videoId == null ? null : videosById.get(videoId);
+            if (videoId != null && video == null) {
+                missingVideoCount.incrementAndGet();
+            }
+            resultCount.incrementAndGet();
+            listener.onResult(result, video);
+        }
+        return batch.results.size();
+    }
+
+    private static String videoIdOf(SearchResult result) {
+        return result.getId() == null ? null : result.getId().getVideoId();
+    }
+
+    /**
+     * Search results waiting for the videos being looked up for them.
+     */
+    private static final class Batch {
+
+        final List<SearchResult> results;
+
+        final RequestFuture<VideoListResponse> videos;
+
+        Batch(List<SearchResult> results, RequestFuture<VideoListResponse> videos) {
+            this.results = results;
+            this.videos = videos;
+        }
+    }
+
+    /**
+     * Builder for {@link EnrichedSearch}.
+     */
+    public static final class Builder {
+
+        private final YouTube.Search.List request;
+
+        private String videoParts = "statistics,contentDetails";
+
+        private String videoFields = "items(id,statistics,contentDetails/duration)";
+
+        private AsyncRequests asyncRequests = AsyncRequests.getDefault();
+
+        /**
+         * @param request search to enrich; its {@code fields}, if set, must include
+         *                {@code items/id/videoId} and {@code nextPageToken}
+         */
+        public Builder(YouTube.Search.List request) {
+            this.request = request;
+        }
+
+        /**
+         * Sets the parts requested from {@code videos.list} (default {@code statistics,contentDetails}).
+         */
+        public Builder setVideoParts(String videoParts) {
+            this.videoParts = videoParts;
+            return this;
+        }
+
+        /**
+         * Sets the fields requested from {@code videos.list}, which must include {@code items/id}
+         * (default {@code items(id,statistics,contentDetails/duration)}).
+         */
+        public Builder setVideoFields(String videoFields) {
+            this.videoFields = videoFields;
+            return this;
+        }
+
+        /**
+         * Sets where the {@code videos.list} calls run (default {@link AsyncRequests#getDefault()}).
+         */
+        public Builder setAsyncRequests(AsyncRequests asyncRequests) {
+            this.asyncRequests = asyncRequests;
+            return this;
+        }
+
+        public EnrichedSearch build() {
+            return new EnrichedSearch(this);
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.search;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.samples.youtube.cmdline.catalog.LongIntHashMap;
+import com.google.api.services.samples.youtube.cmdline.catalog.VideoIds;
+import com.google.api.services.samples.youtube.cmdline.client.RequestExecutors;
+import com.google.api.services.samples.youtube.cmdline.http.QuotaSchedulingHttpTransport;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.SearchListResponse;
+import com.google.api.services.youtube.model.SearchResult;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Finds every video matching a search, beyond the few hundred results a single
+ * {@code search.list} query returns however many pages are requested.
+ * <p/>
+ * The search is split into {@code publishedAfter}/{@code publishedBefore} windows. A window whose
+ * first page estimates more results than the cap, or that actually returns as many as the cap, is
+ * split in two halves, recursively, until every window is small enough to be read completely.
+ * Windows run concurrently, at most {@link Builder#setMaxConcurrentWindows} at a time, in the bulk
+ * {@linkplain QuotaSchedulingHttpTransport.Lane quota lane}. Results are de-duplicated by video ID
+ * (windows overlap at their bounds, and a split window's first page is not thrown away) and handed
+ * to the listener one at a time. Progress and the quota spent are available while the search runs,
+ * from the getters and {@link #toString()}.
+ * <p/>
+ * Instances are created with {@link Builder} and run once.
+ */
+public final class PartitionedSearch {
+
+    /**
+     * Number of results after which {@code search.list} stops returning more.
+     */
+    public static final int DEFAULT_RESULT_CAP = 500;
+
+    /**
+     * Publish time of the first YouTube video, the default start of the search.
+     */
+    private static final long FIRST_VIDEO_MILLIS = new DateTime("2005-04-23T00:00:00Z").getValue();
+
+    /**
+     * Windows of a second or less are not split any further.
+     */
+    private static final long MIN_WINDOW_MILLIS = 1000;
+
+    private static final long MAX_RESULTS_PER_PAGE = 50;
+
+    /**
+     * Receives the results of a search.
+     */
+    public interface Listener {
+
+        /**
+         * Called once for every distinct video, never concurrently.
+         */
+        void onResult(SearchResult result) throws IOException;
+    }
+
+    private final YouTube.Search.List template;
+
+    private final long publishedAfter;
+
+    private final long publishedBefore;
+
+    private final int resultCap;
+
+    private final long quotaCostPerRequest;
+
+    private final Semaphore windowPermits;
+
+    /**
+     * Windows waiting for a permit, as {after, before} pairs, guarded by itself.
+     */
+    private final Deque<long[]> queuedWindows = new ArrayDeque<long[]>();
+
+    private final ExecutorService executor;
+
+    private final Object resultLock = new Object();
+
+    private final LongIntHashMap seenVideoIds = new LongIntHashMap();
+
+    /**
+     * Results whose video ID cannot be packed, which should not happen.
+     */
+    private final Set<String> seenOtherIds = new HashSet<String>();
+
+    private final AtomicInteger pendingWindows = new AtomicInteger();
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong windowCount = new AtomicLong();
+
+    private final AtomicLong completedWindowCount = new AtomicLong();
+
+    private final AtomicLong splitCount = new AtomicLong();
+
+    private final AtomicLong resultCount = new AtomicLong();
+
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    private Listener listener;
+
+    private PartitionedSearch(Builder builder) {
+        this.template = builder.template;
+        this.publishedAfter = builder.publishedAfter;
+        this.publishedBefore = builder.publishedBefore;
+        this.resultCap = builder.resultCap;
+        this.quotaCostPerRequest = builder.quotaCostPerRequest;
+        this.windowPermits = new Semaphore(builder.maxConcurrentWindows);
+        this.executor = RequestExecutors.newExecutor("partitioned-search");
+    }
+
+    /**
+     * Runs the search and returns once every window has been read.
+     *
+     * @param listener receives every distinct result
+     * @return number of distinct results
+     * @throws IOException the first failed request or listener call, which stops the search
+     */
+    public long execute(Listener listener) throws IOException {
+        synchronized (this) {
+            if (this.listener != null) {
+                throw new IllegalStateException("A partitioned search runs once");
+            }
+            this.listener = listener;
+        }
+        try {
+            submit(publishedAfter, publishedBefore);
+            finished.await();
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching");
+        } finally {
+            executor.shutdown();
+        }
+        Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return resultCount.get();
+    }
+
+    /**
+     * Returns the number of {@code search.list} requests made.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the quota units spent on requests so far.
+     */
+    public long getQuotaCost() {
+        return requestCount.get() * quotaCostPerRequest;
+    }
+
+    /**
+     * Returns the number of windows created, including the whole search range.
+     */
+    public long getWindowCount() {
+        return windowCount.get();
+    }
+
+    /**
+     * Returns the number of windows that have been read or split.
+     */
+    public long getCompletedWindowCount() {
+        return completedWindowCount.get();
+    }
+
+    /**
+     * Returns how many times a window was split in two.
+     */
+    public long getSplitCount() {
+        return splitCount.get();
+    }
+
+    /**
+     * Returns the number of distinct results so far.
+     */
+    public long getResultCount() {
+        return resultCount.get();
+    }
+
+    /**
+     * Returns the number of results dropped because their video had already been found.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionedSearch[results=" + getResultCount() + ", duplicates=" + getDuplicateCount() + ", windows="
+                + getCompletedWindowCount() + "/" + getWindowCount() + ", splits=" + getSplitCount() + ", requests="
+                + getRequestCount() + ", quotaCost=" + getQuotaCost() + "]";
+    }
+
+    private void submit(long after, long before) {
+        windowCount.incrementAndGet();
+        pendingWindows.incrementAndGet();
+        synchronized (queuedWindows) {
+            queuedWindows.addLast(new long[]{after, before});
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts queued windows while fewer than the maximum are running, so that no thread is started
+     * for a window before it may run. The window queued last is started first, which reads split
+     * windows depth first and keeps the queue short.
+     */
+    private void dispatch() {
+        while (windowPermits.tryAcquire()) {
+            long[] window;
+            synchronized (queuedWindows) {
+                window = queuedWindows.pollLast();
+            }
+            if (window == null) {
+                windowPermits.release();
+                // A window queued while the permit was held found none free; start it now.
+                synchronized (queuedWindows) {
+                    if (queuedWindows.isEmpty()) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            start(window[0], window[1]);
+        }
+    }
+
+    /**
+     * Runs a window that holds a permit.
+     */
+    private void start(final long after, final long before) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    QuotaSchedulingHttpTransport.Lane previousLane =
+                            QuotaSchedulingHttpTransport.setLane(QuotaSchedulingHttpTransport.Lane.BULK);
+                    try {
+                        if (failure.get() == null) {
+                            search(after, before);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        QuotaSchedulingHttpTransport.setLane(previousLane);
+                        windowPermits.release();
+                        dispatch();
+                        windowDone();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            windowPermits.release();
+            windowDone();
+        }
+    }
+
+    private void windowDone() {
+        completedWindowCount.incrementAndGet();
+        if (pendingWindows.decrementAndGet() == 0) {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Reads one window, or splits it once it turns out to hold more results than can be read.
+     */
+    private void search(long after, long before) throws IOException {
+        boolean splittable = before - after > MIN_WINDOW_MILLIS;
+        YouTube.Search.List request = newRequest(after, before);
+        int windowResults = 0;
+        String pageToken = null;
+        do {
+            if (failure.get() != null) {
+                return;
+            }
+            request.setPageToken(pageToken);
+            SearchListResponse response = request.execute();
+            requestCount.incrementAndGet();
+            if (response.getItems() != null) {
+                windowResults += response.getItems().size();
+                deliver(response);
+            }
+            if (pageToken == null && splittable && response.getPageInfo() != null
+                    && response.getPageInfo().getTotalResults() != null
+                    && response.getPageInfo().getTotalResults() > resultCap) {
+                split(after, before);
+                return;
+            }
+            pageToken = response.getNextPageToken();
+        } while (pageToken != null);
+
+        // The estimate on the first page was too low: the window was cut off at the cap.
+        if (windowResults >= resultCap && splittable) {
+            split(after, before);
+        }
+    }
+
+    private void split(long after, long before) {
+        splitCount.incrementAndGet();
+        long middle = after + (before - after) / 2;
+        submit(after, middle);
+        submit(middle, before);
+    }
+
+    private void deliver(SearchListResponse response) throws IOException {
+        synchronized (resultLock) {
+            for (SearchResult result : response.getItems()) {
+                String videoId = result.getId() == null ? null : result.getId().getVideoId();
+                boolean first;
+                if (VideoIds.isValid(videoId)) {
+                    first = seenVideoIds.put(VideoIds.pack(videoId), 0) < 0;
+                } else {
+                    first = seenOtherIds.add(String.valueOf(videoId));
+                }
+                if (first) {
+                    resultCount.incrementAndGet();
+                    listener.onResult(result);
+                } else {
+                    duplicateCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the parameters of the template into a new request for the given window.
+     */
+    private YouTube.Search.List newRequest(long after, long before) throws IOException {
+        YouTube.Search.List request = SearchRequests.copyOf(template);
+        request.setPublishedAfter(new DateTime(after));
+        request.setPublishedBefore(new DateTime(before));
+        request.setMaxResults(MAX_RESULTS_PER_PAGE);
+        String fields = template.getFields();
+        if (fields != null) {
+            // Splitting needs the estimate and paging needs the token, whatever the template asks for.
+            request.setFields(fields + ",nextPageToken,pageInfo/totalResults");
+        }
+        return request;
+    }
+
+    /**
+     * Builder for {@link PartitionedSearch}.
+     */
+    public static final class Builder {
+
+        private final YouTube.Search.List template;
+
+        private long publishedAfter = FIRST_VIDEO_MILLIS;
+
+        private long publishedBefore = System.currentTimeMillis();
+
+        private int resultCap = DEFAULT_RESULT_CAP;
+
+        private int maxConcurrentWindows = 8;
+
+        private long quotaCostPerRequest = 100;
+
+        /**
+         * @param template search request with the query parameters, such as {@code q}, {@code type}
+         *                 and {@code key}; its page token, page size and publish time bounds are set
+         *                 for each window
+         */
+        public Builder(YouTube.Search.List template) {
+            this.template = template;
+        }
+
+        /**
+         * Sets the start of the search range (default: April 2005, when the first video was published).
+         */
+        public Builder setPublishedAfter(DateTime publishedAfter) {
+            this.publishedAfter = publishedAfter.getValue();
+            return this;
+        }
+
+        /**
+         * Sets the end of the search range (default: now).
+         */
+        public Builder setPublishedBefore(DateTime publishedBefore) {
+            this.publishedBefore = publishedBefore.getValue();
+            return this;
+        }
+
+        /**
+         * Sets the number of results from which a window is split (default {@value #DEFAULT_RESULT_CAP}).
+         */
+        public Builder setResultCap(int resultCap) {
+            this.resultCap = resultCap;
+            return this;
+        }
+
+        /**
+         * Sets how many windows are read at the same time (default 8).
+         */
+        public Builder setMaxConcurrentWindows(int maxConcurrentWindows) {
+            this.maxConcurrentWindows = maxConcurrentWindows;
+            return this;
+        }
+
+        /**
+         * Sets the quota cost of one {@code search.list} request, for reporting (default 100).
+         */
+        public Builder setQuotaCostPerRequest(long quotaCostPerRequest) {
+            this.quotaCostPerRequest = quotaCostPerRequest;
+            return this;
+        }
+
+        public PartitionedSearch build() {
+            if (publishedAfter >= publishedBefore) {
+                throw new IllegalArgumentException("publishedAfter must be before publishedBefore");
+            }
+            return new PartitionedSearch(this);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.search;
+
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.SearchListResponse;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of {@code search.list} responses, so that a query asked again within a short time
+ * costs neither a round trip nor quota.
+ * <p/>
+ * Responses are keyed on the parameters that decide what is returned: {@code q}, {@code type},
+ * {@code topicId}, {@code fields} and {@code maxResults}. Other parameters, such as the API key or
+ * a page token, are ignored, so the cache is only meant for first pages of searches made with one
+ * key. Entries expire a fixed time after they were loaded and the least recently used entry is
+ * evicted once the cache is full.
+ * <p/>
+ * Concurrent lookups of the same missing key share a single request: the first caller executes it
+ * and the others wait for its response. Failures are not cached. Every caller receives its own copy
+ * of the response, so callers may modify it.
+ * <p/>
+ * Instances are created with {@link Builder}.
+ */
+public final class SearchCache {
+
+    private final int maxEntries;
+
+    private final long ttlNanos;
+
+    /**
+     * Entries in access order, so that the first entry is the least recently used one.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private SearchCache(Builder builder) {
+        this.maxEntries = builder.maxEntries;
+        this.ttlNanos = builder.ttlNanos;
+    }
+
+    /**
+     * Returns the cached response for the request, or executes the request and caches its response.
+     *
+     * @return copy of the response
+     */
+    public SearchListResponse execute(YouTube.Search.List request) throws IOException {
+        Key key = new Key(request);
+        RequestFuture<SearchListResponse> future;
+        RequestFuture<SearchListResponse> loading = null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.loadedNanos < ttlNanos) {
+                future = entry.future;
+            } else {
+                loading = new RequestFuture<SearchListResponse>();
+                future = loading;
+                entries.put(key, new Entry(loading));
+                evict();
+            }
+        }
+
+        if (loading == null) {
+            hitCount.incrementAndGet();
+            return future.getResult().clone();
+        }
+        missCount.incrementAndGet();
+        try {
+            SearchListResponse response = request.execute();
+            // Waiters copy from a private copy, so changes the caller makes to its response never reach them.
+            loading.set(response.clone());
+            return response;
+        } catch (IOException e) {
+            remove(key, loading);
+            loading.setException(e);
+            throw e;
+        } catch (RuntimeException e) {
+            remove(key, loading);
+            loading.setException(e);
+            throw e;
+        } catch (Error e) {
+            remove(key, loading);
+            loading.setException(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of entries, including expired entries that have not been evicted yet.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache, including lookups that waited for a
+     * response being loaded.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that executed their request.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache, between 0 and 1.
+     */
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Returns the number of entries dropped because the cache was full.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchCache[size=%d, hits=%d, misses=%d, hitRatio=%.3f, evictions=%d]", size(),
+                getHitCount(), getMissCount(), getHitRatio(), getEvictionCount());
+    }
+
+    private synchronized void remove(Key key, RequestFuture<SearchListResponse> future) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.future == future) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Drops expired entries from the least recently used end, then the least recently used entries
+     * until the cache fits. Must be called with the lock held.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (entries.size() > maxEntries) {
+                evictionCount.incrementAndGet();
+            } else if (now - entry.loadedNanos < ttlNanos) {
+                break;
+            }
+            eldest.remove();
+        }
+    }
+
+    private static final class Entry {
+
+        final RequestFuture<SearchListResponse> future;
+
+        final long loadedNanos = System.nanoTime();
+
+        Entry(RequestFuture<SearchListResponse> future) {
+            this.future = future;
+        }
+    }
+
+    /**
+     * Parameters that identify a search.
+     */
+    private static final class Key {
+
+        private final String q;
+
+        private final String type;
+
+        private final String topicId;
+
+        private final String fields;
+
+        private final Long maxResults;
+
+        Key(YouTube.Search.List request) {
+            this.q = request.getQ();
+            this.type = request.getType();
+            this.topicId = request.getTopicId();
+            this.fields = request.getFields();
+            this.maxResults = request.getMaxResults();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return equal(q, other.q) && equal(type, other.type) && equal(topicId, other.topicId)
+                    && equal(fields, other.fields) && equal(maxResults, other.maxResults);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 17;
+            for (Object value : new Object[]{q, type, topicId, fields, maxResults}) {
+                hash = 31 * hash + (value == null ? 0 : value.hashCode());
+            }
+            return hash;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * Builder for {@link SearchCache}.
+     */
+    public static final class Builder {
+
+        private int maxEntries = 10000;
+
+        private long ttlNanos = TimeUnit.MINUTES.toNanos(10);
+
+        /**
+         * Sets the maximum number of responses kept (default 10000).
+         */
+        public Builder setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets how long a response is served after it was loaded (default 10 minutes).
+         */
+        public Builder setTimeToLive(long timeToLive, TimeUnit unit) {
+            this.ttlNanos = unit.toNanos(timeToLive);
+            return this;
+        }
+
+        public SearchCache build() {
+            return new SearchCache(this);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.search;
+
+import com.google.api.services.youtube.YouTube;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Builds the requests the search classes send on behalf of a template request.
+ */
+final class SearchRequests {
+
+    private SearchRequests() {
+    }
+
+    /**
+     * Creates a {@code search.list} request on the client of the template, with a copy of every
+     * parameter of the template.
+     */
+    static YouTube.Search.List copyOf(YouTube.Search.List template) throws IOException {
+        YouTube youtube = template.getAbstractGoogleClient();
+        YouTube.Search.List request = youtube.search().list(template.getPart());
+        for (Map.Entry<String, Object> parameter : template.entrySet()) {
+            request.set(parameter.getKey(), parameter.getValue());
+        }
+        return request;
+    }
+
+    /**
+     * Creates a {@code videos.list} request for the given ids on the client of the search request,
+     * with the same API key.
+     */
+    static YouTube.Videos.List videosOf(YouTube.Search.List search, String parts, String ids) throws IOException {
+        YouTube.Videos.List request = search.getAbstractGoogleClient().videos().list(parts);
+        request.setId(ids);
+        request.setKey(search.getKey());
+        return request;
+    }
+}
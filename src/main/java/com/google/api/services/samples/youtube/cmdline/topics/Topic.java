@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.topics;
+
+/**
+ * Topic of the topic dictionary: a Freebase machine ID (mid), usable as the {@code topicId} of a
+ * search, with its name and the name of its notable type, such as "Film".
+ */
+public final class Topic {
+
+    private final String mid;
+
+    private final String name;
+
+    private final String notable;
+
+    private final int distance;
+
+    /**
+     * @param mid     machine ID, e.g. {@code /m/0dgw9r}
+     * @param name    display name
+     * @param notable name of the notable type, or {@code null}
+     */
+    public Topic(String mid, String name, String notable) {
+        this(mid, name, notable, 0);
+    }
+
+    Topic(String mid, String name, String notable, int distance) {
+        this.mid = mid;
+        this.name = name;
+        this.notable = notable;
+        this.distance = distance;
+    }
+
+    public String getMid() {
+        return mid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the name of the notable type, or {@code null}.
+     */
+    public String getNotable() {
+        return notable;
+    }
+
+    /**
+     * Returns the number of edits between the name and the query of a fuzzy lookup, 0 otherwise.
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    @Override
+    public String toString() {
+        return notable == null ? name + " " + mid : name + " (" + notable + ") " + mid;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.topics;
+
+import com.google.api.services.samples.youtube.cmdline.TemporaryFiles;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Offline dictionary of topics, resolving topic names to the mids accepted as {@code topicId} by
+ * {@code search.list} without a call to the Freebase search API.
+ * <p/>
+ * The dictionary is built from a dump file with one topic per line: the mid, a tab, the name and
+ * optionally a tab and the name of its notable type; lines starting with {@code #} are skipped, and
+ * the file may be gzip-compressed if its name ends with {@code .gz}. Such a file is easily
+ * extracted from the {@code type.object.name} and {@code common.topic.notable_types} triples of a
+ * Freebase data dump. The dump is compiled into a {@link TopicTrie} next to it, which is only
+ * rebuilt when the dump is newer, so opening the dictionary afterwards just maps that file.
+ * <p/>
+ * Nothing is read until the first lookup. After that, a background thread checks the dump every
+ * refresh interval and, if it changed, builds a new trie and swaps it in; lookups keep using the
+ * previous trie meanwhile. Instances are created with {@link Builder} and are safe for use by
+ * multiple threads.
+ */
+public final class TopicDictionary {
+
+    private static final Logger LOGGER = Logger.getLogger(TopicDictionary.class.getName());
+
+    private final File dumpFile;
+
+    private final File trieFile;
+
+    private final long refreshIntervalMillis;
+
+    private volatile TopicTrie trie;
+
+    /**
+     * Modification time of the dump the current trie was built from.
+     */
+    private long loadedDumpModified;
+
+    private ScheduledExecutorService refresher;
+
+    private boolean closed;
+
+    private final AtomicLong buildCount = new AtomicLong();
+
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    private TopicDictionary(Builder builder) {
+        this.dumpFile = builder.dumpFile;
+        this.trieFile = builder.trieFile != null ? builder.trieFile : new File(dumpFile.getPath() + ".trie");
+        this.refreshIntervalMillis = builder.refreshIntervalMillis;
+    }
+
+    /**
+     * Returns the topics named exactly like the query, once normalized.
+     */
+    public List<Topic> lookup(String name) throws IOException {
+        return getTrie().lookup(name);
+    }
+
+    /**
+     * Returns up to {@code limit} topics whose name starts with the prefix, exact matches first.
+     */
+    public List<Topic> complete(String prefix, int limit) throws IOException {
+        return getTrie().complete(prefix, limit);
+    }
+
+    /**
+     * Returns up to {@code limit} topics whose name is within {@code maxEdits} edits of the query,
+     * closest first.
+     */
+    public List<Topic> fuzzy(String name, int maxEdits, int limit) throws IOException {
+        return getTrie().fuzzy(name, maxEdits, limit);
+    }
+
+    /**
+     * Returns the best candidates for what a user typed: topics whose name starts with the query,
+     * topped up with names one or two edits away (one for queries shorter than five characters),
+     * which catches typos.
+     *
+     * @param limit maximum number of topics returned
+     */
+    public List<Topic> search(String query, int limit) throws IOException {
+        TopicTrie current = getTrie();
+        List<Topic> topics = new ArrayList<Topic>(current.complete(query, limit));
+        if (topics.size() < limit) {
+            Set<String> mids = new HashSet<String>();
+            for (Topic topic : topics) {
+                mids.add(topic.getMid());
+            }
+            int maxEdits = TopicTrie.normalize(query).length() < 5 ? 1 : 2;
+            for (Topic topic : current.fuzzy(query, maxEdits, limit)) {
+                if (topics.size() < limit && mids.add(topic.getMid())) {
+                    topics.add(topic);
+                }
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * Returns the number of topics, loading the dictionary if needed.
+     */
+    public int size() throws IOException {
+        return getTrie().size();
+    }
+
+    /**
+     * Returns the compiled trie file.
+     */
+    public File getTrieFile() {
+        return trieFile;
+    }
+
+    /**
+     * Returns how many times a trie was built from the dump.
+     */
+    public long getBuildCount() {
+        return buildCount.get();
+    }
+
+    /**
+     * Returns how many times a changed dump was swapped in after the first load.
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * Checks whether the dump changed since it was loaded and, if so, rebuilds the trie and swaps
+     * it in. Called periodically by the background thread; loads the dictionary if it was not
+     * loaded yet.
+     *
+     * @return whether a new trie was swapped in
+     */
+    public synchronized boolean refresh() throws IOException {
+        long dumpModified = dumpFile.lastModified();
+        if (trie != null && dumpModified == loadedDumpModified) {
+            return false;
+        }
+        if (dumpModified == 0) {
+            throw new IOException("Topic dump " + dumpFile + " does not exist");
+        }
+        boolean initial = trie == null;
+        boolean built = false;
+        if (!initial || trieFile.lastModified() < dumpModified) {
+            build();
+            built = true;
+        }
+        TopicTrie loaded;
+        try {
+            loaded = TopicTrie.map(trieFile);
+        } catch (IOException e) {
+            if (built) {
+                throw e;
+            }
+            // Left behind by another version, or damaged: build it again.
+            LOGGER.log(Level.WARNING, "Rebuilding unreadable topic trie " + trieFile, e);
+            build();
+            loaded = TopicTrie.map(trieFile);
+        }
+        trie = loaded;
+        loadedDumpModified = dumpModified;
+        if (initial) {
+            startRefresher();
+        } else {
+            refreshCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Stops the background refresh. Lookups keep working on the current trie.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        TopicTrie current = trie;
+        return "TopicDictionary[" + dumpFile + ", topics=" + (current == null ? "not loaded" : current.size())
+                + ", builds=" + getBuildCount() + ", refreshes=" + getRefreshCount() + "]";
+    }
+
+    private TopicTrie getTrie() throws IOException {
+        TopicTrie current = trie;
+        if (current == null) {
+            synchronized (this) {
+                if (trie == null) {
+                    refresh();
+                }
+                current = trie;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Compiles the dump into a temporary file that replaces the trie file once complete.
+     */
+    private void build() throws IOException {
+        long start = System.nanoTime();
+        List<Topic> topics = readDump();
+        // A unique name, so that processes sharing the dump never write to the same file.
+        File temporary = File.createTempFile(trieFile.getName(), ".tmp", trieFile.getAbsoluteFile().getParentFile());
+        try {
+            TopicTrie.write(topics, temporary);
+            TemporaryFiles.replace(temporary, trieFile);
+        } finally {
+            temporary.delete();
+        }
+        buildCount.incrementAndGet();
+        LOGGER.info(String.format("Built topic trie %s from %d topics in %.1f s", trieFile, topics.size(),
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    private List<Topic> readDump() throws IOException {
+        InputStream in = new FileInputStream(dumpFile);
+        try {
+            if (dumpFile.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+            List<Topic> topics = new ArrayList<Topic>();
+            int skipped = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] columns = line.split("\t", 4);
+                if (columns.length < 2 || columns[0].length() == 0 || columns[1].length() == 0) {
+                    skipped++;
+                    continue;
+                }
+                String notable = columns.length > 2 && columns[2].length() > 0 ? columns[2] : null;
+                topics.add(new Topic(columns[0], columns[1], notable));
+            }
+            if (skipped > 0) {
+                LOGGER.warning("Skipped " + skipped + " malformed lines of topic dump " + dumpFile);
+            }
+            return topics;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void startRefresher() {
+        if (refreshIntervalMillis <= 0 || closed || refresher != null) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "topic-dictionary-refresher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot refresh topic dictionary " + dumpFile, e);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Cannot refresh topic dictionary " + dumpFile, e);
+                }
+            }
+        }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builder for {@link TopicDictionary}.
+     */
+    public static final class Builder {
+
+        private final File dumpFile;
+
+        private File trieFile;
+
+        private long refreshIntervalMillis = TimeUnit.HOURS.toMillis(1);
+
+        /**
+         * @param dumpFile tab-separated topic dump, optionally gzip-compressed
+         */
+        public Builder(File dumpFile) {
+            this.dumpFile = dumpFile;
+        }
+
+        /**
+         * Sets where the compiled trie is kept (default: the dump path followed by {@code .trie}).
+         */
+        public Builder setTrieFile(File trieFile) {
+            this.trieFile = trieFile;
+            return this;
+        }
+
+        /**
+         * Sets how often the dump is checked for changes (default 1 hour, 0 to never check).
+         */
+        public Builder setRefreshInterval(long refreshInterval, TimeUnit unit) {
+            this.refreshIntervalMillis = unit.toMillis(refreshInterval);
+            return this;
+        }
+
+        public TopicDictionary build() {
+            return new TopicDictionary(this);
+        }
+    }
+}
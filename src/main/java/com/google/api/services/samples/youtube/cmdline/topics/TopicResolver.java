@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.topics;
+
+import com.google.api.services.samples.youtube.cmdline.client.RequestFuture;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves what a user typed as a topic to the best matching topic, remembering every resolution.
+ * <p/>
+ * Topic queries are cached by their {@linkplain TopicTrie#normalize normalized} form for the
+ * lifetime of the resolver; a batch has few distinct topic queries and topics rarely change, so
+ * nothing is evicted. Concurrent resolutions of the same query share a single lookup, and failed
+ * lookups are not cached. Instances are safe for use by multiple threads.
+ */
+public final class TopicResolver {
+
+    /**
+     * Finds the topics matching a query, best match first.
+     */
+    public interface Source {
+
+        /**
+         * @param limit maximum number of topics returned
+         */
+        List<Topic> find(String topicQuery, int limit) throws IOException;
+    }
+
+    private final Source source;
+
+    private final ConcurrentMap<String, RequestFuture<Topic>> resolutions =
+            new ConcurrentHashMap<String, RequestFuture<Topic>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param source where topics are looked up on a cache miss
+     */
+    public TopicResolver(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Returns a resolver looking topics up in an offline dictionary.
+     */
+    public static TopicResolver forDictionary(final TopicDictionary dictionary) {
+        return new TopicResolver(new Source() {
+            public List<Topic> find(String topicQuery, int limit) throws IOException {
+                return dictionary.search(topicQuery, limit);
+            }
+        });
+    }
+
+    /**
+     * Returns the best topic for the query, or {@code null} if none matches.
+     */
+    public Topic resolve(String topicQuery) throws IOException {
+        String key = TopicTrie.normalize(topicQuery);
+        RequestFuture<Topic> future = resolutions.get(key);
+        if (future != null) {
+            hitCount.incrementAndGet();
+            return future.getResult();
+        }
+        RequestFuture<Topic> newFuture = new RequestFuture<Topic>();
+        future = resolutions.putIfAbsent(key, newFuture);
+        if (future != null) {
+            hitCount.incrementAndGet();
+            return future.getResult();
+        }
+
+        missCount.incrementAndGet();
+        try {
+            List<Topic> topics = source.find(topicQuery, 1);
+            Topic topic = topics.isEmpty() ? null : topics.get(0);
+            newFuture.set(topic);
+            return topic;
+        } catch (IOException e) {
+            resolutions.remove(key, newFuture);
+            newFuture.setException(e);
+            throw e;
+        } catch (RuntimeException e) {
+            resolutions.remove(key, newFuture);
+            newFuture.setException(e);
+            throw e;
+        } catch (Error e) {
+            resolutions.remove(key, newFuture);
+            newFuture.setException(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of resolutions answered from the cache, including resolutions that
+     * waited for a lookup in flight.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups made.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TopicResolver[resolved=" + resolutions.size() + ", hits=" + getHitCount() + ", misses="
+                + getMissCount() + "]";
+    }
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.topics;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only dictionary of topic names in a memory-mapped file, organized as a sorted radix trie.
+ * <p/>
+ * Names are {@linkplain #normalize normalized} (case, accents and spacing are ignored) and the
+ * topics are stored sorted by normalized name, so every node of the trie covers a contiguous range
+ * of topics: its exact matches first, then the topics of its subtree. A prefix lookup walks one
+ * node per distinct branch of the prefix and returns the start of the range, and a fuzzy lookup
+ * walks the trie computing one row of the edit distance table per character, abandoning a branch
+ * as soon as every cell of its row exceeds the allowed edits. Chains of nodes with a single child
+ * are merged into one edge, so there are at most about twice as many nodes as topics.
+ * <p/>
+ * Layout, big-endian: a header (magic, format version, topic count, node count, root offset,
+ * string bytes, node bytes), the topics as name, mid and notable type offsets into the strings,
+ * the strings (length-prefixed UTF-8, notable types stored once), and the nodes: first topic,
+ * end of the exact matches, end of the subtree, edge label, then the children as first label
+ * character and offset, sorted by character. A trie is limited to 2 GB. Instances are safe for
+ * use by multiple threads.
+ */
+public final class TopicTrie {
+
+    private static final int MAGIC = 0x59545450;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 28;
+
+    private static final int TOPIC_BYTES = 12;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private final int nodeCount;
+
+    private final int strings;
+
+    private final int nodes;
+
+    private final int root;
+
+    private TopicTrie(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a topic trie");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported topic trie version " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.nodeCount = buffer.getInt(12);
+        int rootOffset = buffer.getInt(16);
+        int stringBytes = buffer.getInt(20);
+        int nodeBytes = buffer.getInt(24);
+
+        strings = HEADER_BYTES + size * TOPIC_BYTES;
+        nodes = strings + stringBytes;
+        root = nodes + rootOffset;
+        if ((long) nodes + nodeBytes != buffer.capacity()) {
+            throw new IOException("Truncated topic trie");
+        }
+    }
+
+    /**
+     * Maps a trie file read-only. The mapping stays valid after the file is replaced or deleted.
+     *
+     * @throws IOException if the file cannot be read, or is not a trie of this format version
+     */
+    public static TopicTrie map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return new TopicTrie(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a trie of the given topics. Topics whose name is empty once normalized are skipped.
+     */
+    public static void write(Collection<Topic> topics, File file) throws IOException {
+        List<KeyedTopic> keyed = new ArrayList<KeyedTopic>(topics.size());
+        for (Topic topic : topics) {
+            String key = normalize(topic.getName());
+            if (key.length() > 0) {
+                keyed.add(new KeyedTopic(key, topic));
+            }
+        }
+        Collections.sort(keyed);
+        List<Topic> sorted = new ArrayList<Topic>(keyed.size());
+        String[] sortedKeys = new String[keyed.size()];
+        for (int i = 0; i < sortedKeys.length; i++) {
+            sortedKeys[i] = keyed.get(i).key;
+            sorted.add(keyed.get(i).topic);
+        }
+
+        // Topics and strings; notable types repeat a lot and are stored once.
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream stringOut = new DataOutputStream(stringBytes);
+        Map<String, Integer> notableOffsets = new HashMap<String, Integer>();
+        int[] topicOffsets = new int[sorted.size() * 3];
+        for (int i = 0; i < sorted.size(); i++) {
+            Topic topic = sorted.get(i);
+            topicOffsets[i * 3] = writeString(stringOut, topic.getName());
+            topicOffsets[i * 3 + 1] = writeString(stringOut, topic.getMid());
+            if (topic.getNotable() == null) {
+                topicOffsets[i * 3 + 2] = -1;
+            } else {
+                Integer offset = notableOffsets.get(topic.getNotable());
+                if (offset == null) {
+                    offset = writeString(stringOut, topic.getNotable());
+                    notableOffsets.put(topic.getNotable(), offset);
+                }
+                topicOffsets[i * 3 + 2] = offset;
+            }
+        }
+
+        NodeWriter nodeWriter = new NodeWriter(sortedKeys);
+        int rootOffset = nodeWriter.write(0, sortedKeys.length, 0, 0);
+        long length = HEADER_BYTES + (long) sorted.size() * TOPIC_BYTES + stringBytes.size() + nodeWriter.bytes.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Topic dictionary too large for a trie: " + length + " bytes");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(sorted.size());
+            out.writeInt(nodeWriter.nodeCount);
+            out.writeInt(rootOffset);
+            out.writeInt(stringBytes.size());
+            out.writeInt(nodeWriter.bytes.size());
+            for (int offset : topicOffsets) {
+                out.writeInt(offset);
+            }
+            stringBytes.writeTo(out);
+            nodeWriter.bytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, 0xffff);
+        int offset = out.size();
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+        return offset;
+    }
+
+    /**
+     * Returns the form of a name used as trie key: lower case, without accents, with single spaces.
+     */
+    public static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        String stripped = COMBINING_MARKS.matcher(decomposed).replaceAll("");
+        return WHITESPACE.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * Returns the number of topics.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of trie nodes.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the size of the mapped file.
+     */
+    public int getMappedBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns the topics whose name matches the given name exactly, once normalized.
+     */
+    public List<Topic> lookup(String name) {
+        String key = normalize(name);
+        int node = find(key, false);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        return topics(buffer.getInt(node), buffer.getInt(node + 4), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns topics whose normalized name starts with the given prefix, in name order; exact
+     * matches come first.
+     *
+     * @param limit maximum number of topics returned
+     */
+    public List<Topic> complete(String prefix, int limit) {
+        int node = find(normalize(prefix), true);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        return topics(buffer.getInt(node), buffer.getInt(node + 8), limit);
+    }
+
+    /**
+     * Returns topics whose normalized name is within the given number of edits (insertions,
+     * deletions or substitutions of a character) of the normalized name, closest first.
+     *
+     * @param maxEdits maximum edit distance, typically 1 or 2
+     * @param limit    maximum number of topics returned
+     */
+    public List<Topic> fuzzy(String name, int maxEdits, int limit) {
+        String key = normalize(name);
+        int[] row = new int[key.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        List<int[]> matches = new ArrayList<int[]>();
+        searchChildren(root, key, row, maxEdits, matches);
+        Collections.sort(matches, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[0] != b[0] ? a[0] - b[0] : a[1] - b[1];
+            }
+        });
+
+        List<Topic> result = new ArrayList<Topic>();
+        for (int[] match : matches) {
+            for (int topic = match[1]; topic < match[2] && result.size() < limit; topic++) {
+                result.add(topic(topic, match[0]));
+            }
+            if (result.size() >= limit) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the node whose key is the given key, or, for a prefix, the first node whose key
+     * starts with it; -1 if there is none.
+     */
+    private int find(String key, boolean prefix) {
+        int node = root;
+        int depth = 0;
+        while (depth < key.length()) {
+            int child = child(node, key.charAt(depth));
+            if (child < 0) {
+                return -1;
+            }
+            int labelLength = buffer.getChar(child + 12);
+            for (int i = 0; i < labelLength; i++, depth++) {
+                if (depth == key.length()) {
+                    return prefix ? child : -1;
+                }
+                if (buffer.getChar(child + 14 + i * 2) != key.charAt(depth)) {
+                    return -1;
+                }
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the child of a node whose label starts with the given character, or -1.
+     */
+    private int child(int node, char c) {
+        int children = node + 14 + buffer.getChar(node + 12) * 2;
+        int low = 0;
+        int high = buffer.getChar(children) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char label = buffer.getChar(children + 2 + middle * 6);
+            if (label < c) {
+                low = middle + 1;
+            } else if (label > c) {
+                high = middle - 1;
+            } else {
+                return nodes + buffer.getInt(children + 2 + middle * 6 + 2);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Extends the edit distance row of a node along the label of each of its children, collecting
+     * the exact matches of children within the allowed edits as {distance, first, end}.
+     */
+    private void searchChildren(int node, String key, int[] row, int maxEdits, List<int[]> matches) {
+        int children = node + 14 + buffer.getChar(node + 12) * 2;
+        int childCount = buffer.getChar(children);
+        for (int c = 0; c < childCount; c++) {
+            int child = nodes + buffer.getInt(children + 2 + c * 6 + 2);
+            int[] childRow = row;
+            boolean reachable = true;
+            int labelLength = buffer.getChar(child + 12);
+            for (int i = 0; i < labelLength && reachable; i++) {
+                childRow = nextRow(childRow, key, buffer.getChar(child + 14 + i * 2));
+                reachable = min(childRow) <= maxEdits;
+            }
+            if (!reachable) {
+                continue;
+            }
+            int distance = childRow[key.length()];
+            int first = buffer.getInt(child);
+            int exactEnd = buffer.getInt(child + 4);
+            if (distance <= maxEdits && exactEnd > first) {
+                matches.add(new int[]{distance, first, exactEnd});
+            }
+            searchChildren(child, key, childRow, maxEdits, matches);
+        }
+    }
+
+    private static int[] nextRow(int[] row, String key, char c) {
+        int[] next = new int[row.length];
+        next[0] = row[0] + 1;
+        for (int i = 1; i < row.length; i++) {
+            int substitution = row[i - 1] + (key.charAt(i - 1) == c ? 0 : 1);
+            next[i] = Math.min(substitution, Math.min(row[i] + 1, next[i - 1] + 1));
+        }
+        return next;
+    }
+
+    private static int min(int[] row) {
+        int min = row[0];
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private List<Topic> topics(int first, int end, int limit) {
+        List<Topic> topics = new ArrayList<Topic>(Math.min(end - first, Math.min(limit, 64)));
+        for (int topic = first; topic < end && topics.size() < limit; topic++) {
+            topics.add(topic(topic, 0));
+        }
+        return topics;
+    }
+
+    private Topic topic(int topic, int distance) {
+        int offsets = HEADER_BYTES + topic * TOPIC_BYTES;
+        int notable = buffer.getInt(offsets + 8);
+        return new Topic(string(buffer.getInt(offsets + 4)), string(buffer.getInt(offsets)),
+                notable < 0 ? null : string(notable), distance);
+    }
+
+    private String string(int offset) {
+        int position = strings + offset;
+        byte[] bytes = new byte[buffer.getChar(position)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 2);
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Topic with its normalized name, ordered by name, then mid.
+     */
+    private static final class KeyedTopic implements Comparable<KeyedTopic> {
+
+        final String key;
+
+        final Topic topic;
+
+        KeyedTopic(String key, Topic topic) {
+            this.key = key;
+            this.topic = topic;
+        }
+
+        public int compareTo(KeyedTopic other) {
+            int order = key.compareTo(other.key);
+            return order != 0 ? order : topic.getMid().compareTo(other.topic.getMid());
+        }
+    }
+
+    /**
+     * Writes the nodes of a sorted key array bottom-up, children before their parent.
+     */
+    private static final class NodeWriter {
+
+        final String[] keys;
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        int nodeCount;
+
+        NodeWriter(String[] keys) {
+            this.keys = keys;
+        }
+
+        /**
+         * Writes the node of the keys in [first, end), which share their first {@code depth}
+         * characters, reached by the label that ends at {@code depth} and starts at
+         * {@code labelStart}.
+         *
+         * @return offset of the node
+         */
+        int write(int first, int end, int labelStart, int depth) throws IOException {
+            int exactEnd = first;
+            while (exactEnd < end && keys[exactEnd].length() == depth) {
+                exactEnd++;
+            }
+
+            List<Integer> childOffsets = new ArrayList<Integer>();
+            List<Character> childLabels = new ArrayList<Character>();
+            int group = exactEnd;
+            while (group < end) {
+                char c = keys[group].charAt(depth);
+                int groupEnd = group + 1;
+                while (groupEnd < end && keys[groupEnd].charAt(depth) == c) {
+                    groupEnd++;
+                }
+                // Keys are sorted, so the prefix shared by the whole group is the one shared by its
+                // first and last keys.
+                String low = keys[group];
+                String high = keys[groupEnd - 1];
+                int childDepth = depth + 1;
+                while (childDepth < low.length() && childDepth < high.length()
+                        && low.charAt(childDepth) == high.charAt(childDepth) && childDepth - depth < 0xffff) {
+                    childDepth++;
+                }
+                childOffsets.add(write(group, groupEnd, depth, childDepth));
+                childLabels.add(c);
+                group = groupEnd;
+            }
+
+            int offset = out.size();
+            out.writeInt(first);
+            out.writeInt(exactEnd);
+            out.writeInt(end);
+            String label = first < end ? keys[first].substring(labelStart, depth) : "";
+            out.writeChar(label.length());
+            out.writeChars(label);
+            out.writeChar(childOffsets.size());
+            for (int i = 0; i < childOffsets.size(); i++) {
+                out.writeChar(childLabels.get(i));
+                out.writeInt(childOffsets.get(i));
+            }
+            nodeCount++;
+            return offset;
+        }
+    }
+}
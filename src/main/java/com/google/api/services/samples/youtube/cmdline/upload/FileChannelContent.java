@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.upload;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.InputStreamContent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Upload content read from a region of a file through memory-mapped windows.
+ * <p/>
+ * With an {@link InputStreamContent} of unknown length, {@link MediaHttpUploader} reads every chunk
+ * into a heap buffer of the chunk size before sending it; with a known length but a stream that
+ * does not support {@link InputStream#mark}, it wraps the stream in a buffer that grows to the
+ * chunk size to be able to resend the chunk. This content has an exact length and its stream
+ * supports mark and reset by moving a position in the mapped file, so no chunk is ever buffered
+ * whole, however large the file is: bytes are copied from the mapped file to the connection
+ * through a small copy buffer, {@link #writeTo} using one reusable 64 KB transfer buffer. A
+ * {@linkplain #slice(long, long) slice} serves a single chunk the same way.
+ * <p/>
+ * Every call to {@link #getInputStream()} opens the file again, so the content can be sent any
+ * number of times and retries are supported. The file is mapped in windows of at most 64 MB, which
+ * keeps the mapped address space small and works for files over 2 GB.
+ */
+public final class FileChannelContent extends AbstractInputStreamContent {
+
+    /**
+     * Largest region of the file mapped at once.
+     */
+    private static final long MAX_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Size of the buffer {@link #writeTo} moves bytes through, larger than the default copy buffer
+     * to make fewer writes to the connection.
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final long offset;
+
+    private final long length;
+
+    /**
+     * @param type media type of the file, e.g. {@code video/*}
+     * @param file file to upload
+     * @throws java.io.FileNotFoundException if the file cannot be opened
+     */
+    public FileChannelContent(String type, File file) throws IOException {
+        this(type, file, 0, size(file));
+    }
+
+    private FileChannelContent(String type, File file, long offset, long length) {
+        super(type);
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns the content of a region of this content, e.g. one chunk of a resumable upload.
+     *
+     * @param offset offset of the region within this content
+     * @param length length of the region
+     */
+    public FileChannelContent slice(long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Region " + offset + "+" + length + " of " + this.length + " bytes");
+        }
+        FileChannelContent slice = new FileChannelContent(getType(), file, this.offset + offset, length);
+        slice.setCloseInputStream(getCloseInputStream());
+        return slice;
+    }
+
+    /**
+     * Returns the file the content is read from.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the offset of the content within the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean retrySupported() {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new MappedInputStream(new RandomAccessFile(file, "r").getChannel());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = getInputStream();
+        try {
+            byte[] buffer = new byte[(int) Math.min(TRANSFER_BUFFER_SIZE, Math.max(1, length))];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        out.flush();
+    }
+
+    @Override
+    public FileChannelContent setType(String type) {
+        return (FileChannelContent) super.setType(type);
+    }
+
+    @Override
+    public FileChannelContent setCloseInputStream(boolean closeInputStream) {
+        return (FileChannelContent) super.setCloseInputStream(closeInputStream);
+    }
+
+    private static long size(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.length();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Stream over the region of the file, mapping one window at a time. Mark and reset only move
+     * the position, so any number of bytes can be read between them.
+     */
+    private final class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        /**
+         * Position in the file of the next byte to read.
+         */
+        private long position = offset;
+
+        private long mark = offset;
+
+        private MappedByteBuffer window;
+
+        private long windowStart;
+
+        MappedInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Maps the window holding the current position if needed, and returns whether there is
+         * anything left to read.
+         */
+        private boolean ensureWindow() throws IOException {
+            long end = offset + length;
+            if (position >= end) {
+                return false;
+            }
+            if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+                if (!channel.isOpen()) {
+                    throw new IOException("Stream closed");
+                }
+                if (channel.size() < end) {
+                    throw new IOException("File " + file + " is shorter than the upload content");
+                }
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(MAX_WINDOW_SIZE, end - windowStart));
+            }
+            window.position((int) (position - windowStart));
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureWindow()) {
+                return -1;
+            }
+            position++;
+            return window.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureWindow()) {
+                return -1;
+            }
+            int read = Math.min(len, window.remaining());
+            window.get(buffer, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, offset + length - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, offset + length - position);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mark = position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position = mark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+    }
+}
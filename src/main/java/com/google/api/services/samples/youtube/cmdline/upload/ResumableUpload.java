@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.upload;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClient;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads a file with the resumable upload protocol, surviving both dropped connections and a
+ * restart of the process.
+ * <p/>
+ * {@link MediaHttpUploader} keeps the session URI and the upload offset in memory only, so a
+ * crash halfway through a large video throws away everything sent so far and the next run starts
+ * (and pays the insert quota) again. This uploader drives the same protocol itself and records the
+ * session in an {@link UploadJournal}: right after the session is initiated, and again whenever
+ * the server confirms a chunk. When the same file is uploaded to the same URL again, the uploader
+ * asks the server how much of it arrived ({@code PUT} with {@code Content-Range: bytes *}/length,
+ * answered by {@code 308} and a {@code Range} header) and sends only the rest. The same status
+ * query recovers from a failed chunk within a run, with exponential backoff between attempts.
+ * <p/>
+ * The request supplies the upload URL, the metadata, the media type of its media content and the
+ * response type; its media content itself is not read, the chunks are
+ * {@linkplain FileChannelContent#slice slices} of the file.
+ * Instances are created with {@link Builder} and upload once.
+ *
+ * @param <T> type of the response
+ */
+public final class ResumableUpload<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(ResumableUpload.class.getName());
+
+    /**
+     * Resumable upload chunks other than the last must be a multiple of this size.
+     */
+    private static final int CHUNK_GRANULARITY = MediaHttpUploader.MINIMUM_CHUNK_SIZE;
+
+    private static final long MAX_BACKOFF_MILLIS = 32000;
+
+    private final AbstractGoogleJsonClientRequest<T> request;
+
+    private final File file;
+
+    private final UploadJournal journal;
+
+    private final int chunkSize;
+
+    private final int maxRetries;
+
+    private final ProgressListener progressListener;
+
+    private final Random random = new Random();
+
+    private volatile long length;
+
+    private volatile long bytesUploaded;
+
+    private volatile long resumedBytes;
+
+    private volatile int chunkCount;
+
+    private volatile int retryCount;
+
+    private ResumableUpload(Builder<T> builder) {
+        this.request = builder.request;
+        this.file = builder.file;
+        this.journal = builder.journal;
+        this.chunkSize = builder.chunkSize;
+        this.maxRetries = builder.maxRetries;
+        this.progressListener = builder.progressListener;
+    }
+
+    /**
+     * Uploads the file, resuming an earlier upload of it from the journal if there is one, and
+     * returns the parsed response.
+     *
+     * @throws GoogleJsonResponseException if the server rejects the upload, or keeps failing after
+     *                                     the configured number of retries
+     */
+    public T execute() throws IOException {
+        HttpContent mediaContent = request.getMediaHttpUploader().getMediaContent();
+        String mediaType = mediaContent.getType();
+        GenericUrl uploadUrl = request.buildHttpRequestUrl();
+        uploadUrl.put("uploadType", "resumable");
+        String uploadKey = uploadUrl.build();
+        String fingerprint = UploadJournal.fingerprint(file);
+        FileChannelContent fileContent = new FileChannelContent(mediaType, file);
+        length = fileContent.getLength();
+
+        UploadJournal.Entry entry = journal == null ? null : journal.find(uploadKey, file, fingerprint);
+        String sessionUri = null;
+        // Whether the offset must be asked from the server before the next chunk is sent.
+        boolean queryOffset = false;
+        if (entry != null) {
+            sessionUri = entry.getSessionUri();
+            bytesUploaded = entry.getConfirmedBytes();
+            queryOffset = true;
+            LOGGER.info("Resuming upload of " + file + " from the journal");
+        }
+
+        int failures = 0;
+        while (true) {
+            try {
+                if (sessionUri == null) {
+                    sessionUri = initiate(uploadUrl, mediaType);
+                    bytesUploaded = 0;
+                    if (journal != null) {
+                        entry = journal.create(uploadKey, file, fingerprint, sessionUri);
+                    }
+                    notifyProgress();
+                }
+                HttpResponse response = queryOffset ? queryStatus(sessionUri) : sendChunk(sessionUri, fileContent);
+                int statusCode = response.getStatusCode();
+                if (response.isSuccessStatusCode()) {
+                    T result = response.parseAs(request.getResponseClass());
+                    bytesUploaded = length;
+                    if (entry != null) {
+                        journal.remove(entry);
+                    }
+                    notifyProgress();
+                    return result;
+                }
+                if (statusCode == 404 || statusCode == 410) {
+                    // The session expired or was cancelled on the server; only a new one can continue.
+                    response.disconnect();
+                    LOGGER.info("Upload session of " + file + " is gone, starting a new one");
+                    if (entry != null) {
+                        journal.remove(entry);
+                        entry = null;
+                    }
+                    sessionUri = null;
+                    queryOffset = false;
+                    continue;
+                }
+                if (statusCode != 308) {
+                    throw GoogleJsonResponseException.from(client().getJsonFactory(), response);
+                }
+                long confirmed = confirmedBytes(response.getHeaders().getRange());
+                response.disconnect();
+                if (queryOffset && chunkCount == 0) {
+                    resumedBytes = confirmed;
+                }
+                bytesUploaded = confirmed;
+                queryOffset = false;
+                failures = 0;
+                if (entry != null) {
+                    journal.update(entry, confirmed);
+                }
+                notifyProgress();
+            } catch (IOException e) {
+                if (!isRetriable(e) || ++failures > maxRetries) {
+                    throw e;
+                }
+                retryCount++;
+                long backoff = backoffMillis(failures);
+                LOGGER.log(Level.FINE, "Upload of " + file + " failed, asking the server for the offset in "
+                        + backoff + " ms", e);
+                sleep(backoff);
+                // Without a session there is no offset to ask for; the initiation is simply repeated.
+                queryOffset = sessionUri != null;
+            }
+        }
+    }
+
+    /**
+     * Starts a session, posting the metadata of the request, and returns the session URI.
+     */
+    private String initiate(GenericUrl uploadUrl, String mediaType) throws IOException {
+        HttpContent metadata = request.getHttpContent();
+        HttpRequest initiation = requestFactory().buildPostRequest(uploadUrl,
+                metadata == null ? new EmptyContent() : metadata);
+        initiation.getHeaders().fromHttpHeaders(request.getRequestHeaders());
+        initiation.getHeaders().set("X-Upload-Content-Type", mediaType);
+        initiation.getHeaders().set("X-Upload-Content-Length", length);
+        initiation.setThrowExceptionOnExecuteError(false);
+        HttpResponse response = initiation.execute();
+        if (!response.isSuccessStatusCode()) {
+            throw GoogleJsonResponseException.from(client().getJsonFactory(), response);
+        }
+        String sessionUri = response.getHeaders().getLocation();
+        response.disconnect();
+        if (sessionUri == null) {
+            throw new IOException("Upload initiation returned no session URI");
+        }
+        return sessionUri;
+    }
+
+    /**
+     * Sends the chunk starting at the current offset, read from the mapped file.
+     */
+    private HttpResponse sendChunk(String sessionUri, FileChannelContent fileContent) throws IOException {
+        long offset = bytesUploaded;
+        long chunkLength = Math.min(chunkSize, length - offset);
+        HttpRequest put = requestFactory().buildPutRequest(new GenericUrl(sessionUri),
+                fileContent.slice(offset, chunkLength));
+        put.getHeaders().setContentRange(chunkLength == 0 ? "bytes */" + length
+                : "bytes " + offset + "-" + (offset + chunkLength - 1) + "/" + length);
+        chunkCount++;
+        return executeUploadRequest(put);
+    }
+
+    /**
+     * Asks the server how many bytes of the session it has.
+     */
+    private HttpResponse queryStatus(String sessionUri) throws IOException {
+        HttpRequest put = requestFactory().buildPutRequest(new GenericUrl(sessionUri), new EmptyContent());
+        put.getHeaders().setContentRange("bytes */" + length);
+        return executeUploadRequest(put);
+    }
+
+    private HttpResponse executeUploadRequest(HttpRequest put) throws IOException {
+        put.setThrowExceptionOnExecuteError(false);
+        // 308 is the "resume incomplete" answer of the protocol, not a redirect.
+        put.setFollowRedirects(false);
+        put.setParser(client().getObjectParser());
+        HttpResponse response = put.execute();
+        if (response.getStatusCode() >= 500) {
+            throw GoogleJsonResponseException.from(client().getJsonFactory(), response);
+        }
+        return response;
+    }
+
+    private AbstractGoogleJsonClient client() {
+        return request.getAbstractGoogleClient();
+    }
+
+    private HttpRequestFactory requestFactory() {
+        return request.getAbstractGoogleClient().getRequestFactory();
+    }
+
+    /**
+     * Parses the {@code Range} header of a 308 response, {@code bytes=0-}last, which is absent
+     * while the server has nothing.
+     */
+    private static long confirmedBytes(String range) {
+        if (range == null) {
+            return 0;
+        }
+        return Long.parseLong(range.substring(range.indexOf('-') + 1).trim()) + 1;
+    }
+
+    /**
+     * Server errors, rate limiting and I/O errors are worth retrying; other HTTP errors are not.
+     */
+    private static boolean isRetriable(IOException e) {
+        if (e instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) e).getStatusCode();
+            return statusCode >= 500 || statusCode == 429;
+        }
+        return !(e instanceof InterruptedIOException);
+    }
+
+    private long backoffMillis(int failures) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, 1000L << Math.min(failures - 1, 5));
+        return backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry the upload");
+        }
+    }
+
+    private void notifyProgress() throws IOException {
+        if (progressListener != null) {
+            progressListener.progressChanged(this);
+        }
+    }
+
+    /**
+     * Returns the file being uploaded.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the length of the file in bytes, once the upload has started.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes the server has confirmed.
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * Returns the fraction of the file the server has confirmed, between 0 and 1.
+     */
+    public double getProgress() {
+        return length == 0 ? 0 : (double) bytesUploaded / length;
+    }
+
+    /**
+     * Returns the number of bytes that were already on the server from an earlier run, or 0 if the
+     * upload did not resume one.
+     */
+    public long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    /**
+     * Returns the number of chunks sent.
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the number of failed requests that were retried.
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ResumableUpload[file=" + file + ", bytesUploaded=" + bytesUploaded + ", length=" + length
+                + ", resumedBytes=" + resumedBytes + ", chunks=" + chunkCount + ", retries=" + retryCount + "]";
+    }
+
+    /**
+     * Listener notified when an upload session starts and whenever the server confirms more bytes.
+     */
+    public interface ProgressListener {
+
+        void progressChanged(ResumableUpload<?> upload) throws IOException;
+    }
+
+    /**
+     * Builder for {@link ResumableUpload}.
+     *
+     * @param <T> type of the response
+     */
+    public static final class Builder<T> {
+
+        private final AbstractGoogleJsonClientRequest<T> request;
+
+        private final File file;
+
+        private UploadJournal journal;
+
+        private int chunkSize = MediaHttpUploader.DEFAULT_CHUNK_SIZE;
+
+        private int maxRetries = 10;
+
+        private ProgressListener progressListener;
+
+        /**
+         * @param request media upload request, e.g. {@code videos.insert}, created with media content of
+         *                the file's media type
+         * @param file    file to upload
+         */
+        public Builder(AbstractGoogleJsonClientRequest<T> request, File file) {
+            this.request = request;
+            this.file = file;
+        }
+
+        /**
+         * Sets the journal that makes the upload resumable across runs (default none, resumable
+         * within the run only).
+         */
+        public Builder<T> setJournal(UploadJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * Sets the size of each chunk, a multiple of 256 KB (default 10 MB). Smaller chunks lose less
+         * on a failure and are journaled more often, at the cost of more requests.
+         */
+        public Builder<T> setChunkSize(int chunkSize) {
+            if (chunkSize <= 0 || chunkSize % CHUNK_GRANULARITY != 0) {
+                throw new IllegalArgumentException("chunkSize must be a positive multiple of " + CHUNK_GRANULARITY);
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Sets how many consecutive failures are retried before the upload gives up (default 10).
+         */
+        public Builder<T> setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder<T> setProgressListener(ProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public ResumableUpload<T> build() {
+            return new ResumableUpload<T>(this);
+        }
+    }
+}
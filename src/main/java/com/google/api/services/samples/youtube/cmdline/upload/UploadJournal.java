@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.upload;
+
+import com.google.api.services.samples.youtube.cmdline.TemporaryFiles;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On-disk journal of the resumable uploads in progress, so that an upload interrupted by a crash
+ * or a lost connection continues from where the server left off instead of starting over.
+ * <p/>
+ * Every upload has its own small record, named after the upload URL and the path of the file,
+ * holding the session URI, the path, length and content fingerprint of the file and the last byte
+ * the server confirmed. A record is written to a temporary file, synced to disk and renamed over
+ * the previous one, so a crash at any point leaves either the old or the new record. The confirmed
+ * offset in the record may lag behind the server, never run ahead of it; {@link ResumableUpload}
+ * asks the server for the actual offset before resuming.
+ * <p/>
+ * A record no longer matches, and is discarded, when the file changed since the upload started or
+ * when it is older than a resumable session lives on the server.
+ */
+public final class UploadJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(UploadJournal.class.getName());
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Lifetime of a resumable upload session on the server.
+     */
+    private static final long SESSION_LIFETIME_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Files up to this length are fingerprinted in full.
+     */
+    private static final long FULL_FINGERPRINT_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Number and size of the evenly spaced blocks fingerprinted in larger files.
+     */
+    private static final int FINGERPRINT_SAMPLES = 64;
+
+    private static final int FINGERPRINT_SAMPLE_SIZE = 64 * 1024;
+
+    private final File directory;
+
+    /**
+     * @param directory directory of the journal records, created (readable by the owner only) if
+     *                  it does not exist
+     */
+    public UploadJournal(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            if (!directory.mkdirs()) {
+                throw new IOException("Cannot create upload journal directory " + directory);
+            }
+            // Session URIs let anyone holding them upload to the session; keep them to the owner.
+            directory.setReadable(false, false);
+            directory.setReadable(true, true);
+            directory.setWritable(false, false);
+            directory.setWritable(true, true);
+            directory.setExecutable(false, false);
+            directory.setExecutable(true, true);
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the journal directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the record of an unfinished upload of the given file to the given URL, or
+     * {@code null} if there is none. A record that no longer matches the file, or whose session has
+     * expired, is deleted.
+     *
+     * @param uploadUrl   upload URL of the request, which tells uploads of the same file apart
+     * @param file        file being uploaded
+     * @param fingerprint current {@linkplain #fingerprint(File) fingerprint} of the file
+     */
+    public Entry find(String uploadUrl, File file, String fingerprint) throws IOException {
+        File recordFile = recordFile(uploadUrl, file);
+        Entry entry;
+        try {
+            entry = read(recordFile);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (EOFException e) {
+            // Only a record written before this format could be short; it is of no use.
+            entry = null;
+        }
+        if (entry == null) {
+            delete(recordFile);
+            return null;
+        }
+        if (!entry.getUploadUrl().equals(uploadUrl) || !entry.getPath().equals(file.getCanonicalPath())
+                || entry.getLength() != file.length() || !entry.getFingerprint().equals(fingerprint)) {
+            LOGGER.info("Discarding upload journal record of changed file " + file);
+            delete(recordFile);
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.getCreatedMillis() > SESSION_LIFETIME_MILLIS) {
+            LOGGER.info("Discarding upload journal record of expired session for " + file);
+            delete(recordFile);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Records a new upload session, before any of its bytes are sent.
+     *
+     * @param uploadUrl   upload URL of the request
+     * @param file        file being uploaded
+     * @param fingerprint {@linkplain #fingerprint(File) fingerprint} of the file
+     * @param sessionUri  session URI returned by the server when the upload was initiated
+     */
+    public Entry create(String uploadUrl, File file, String fingerprint, String sessionUri) throws IOException {
+        Entry entry = new Entry(recordFile(uploadUrl, file), uploadUrl, sessionUri, file.getCanonicalPath(),
+                file.length(), fingerprint, 0, System.currentTimeMillis());
+        write(entry);
+        return entry;
+    }
+
+    /**
+     * Records the number of bytes the server has confirmed.
+     */
+    public void update(Entry entry, long confirmedBytes) throws IOException {
+        entry.confirmedBytes = confirmedBytes;
+        write(entry);
+    }
+
+    /**
+     * Deletes the record of a finished or abandoned upload.
+     */
+    public void remove(Entry entry) {
+        delete(entry.recordFile);
+    }
+
+    /**
+     * Returns a fingerprint of the length and content of the file: the SHA-256 of the whole file
+     * up to 16 MB, and of evenly spaced samples, the first and last block included, above that.
+     * Larger files are sampled so that resuming a 10 GB upload does not start with reading 10 GB.
+     */
+    public static String fingerprint(File file) throws IOException {
+        MessageDigest digest = sha256();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                digest.update((byte) (length >>> shift));
+            }
+            byte[] buffer = new byte[FINGERPRINT_SAMPLE_SIZE];
+            if (length <= FULL_FINGERPRINT_LENGTH) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            } else {
+                long stride = (length - FINGERPRINT_SAMPLE_SIZE) / (FINGERPRINT_SAMPLES - 1);
+                for (int i = 0; i < FINGERPRINT_SAMPLES; i++) {
+                    in.seek(i == FINGERPRINT_SAMPLES - 1 ? length - FINGERPRINT_SAMPLE_SIZE : i * stride);
+                    in.readFully(buffer);
+                    digest.update(buffer);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return hex(digest.digest());
+    }
+
+    private File recordFile(String uploadUrl, File file) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update((uploadUrl + '\n' + file.getCanonicalPath()).getBytes("UTF-8"));
+        return new File(directory, hex(digest.digest()).substring(0, 32) + ".upload");
+    }
+
+    private static Entry read(File recordFile) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(recordFile));
+        try {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String uploadUrl = in.readUTF();
+            String sessionUri = in.readUTF();
+            String path = in.readUTF();
+            long length = in.readLong();
+            String fingerprint = in.readUTF();
+            long confirmedBytes = in.readLong();
+            long createdMillis = in.readLong();
+            return new Entry(recordFile, uploadUrl, sessionUri, path, length, fingerprint, confirmedBytes,
+                    createdMillis);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(Entry entry) throws IOException {
+        File temporary = new File(entry.recordFile.getParentFile(), entry.recordFile.getName() + ".tmp");
+        try {
+            FileOutputStream file = new FileOutputStream(temporary);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(entry.uploadUrl);
+                out.writeUTF(entry.sessionUri);
+                out.writeUTF(entry.path);
+                out.writeLong(entry.length);
+                out.writeUTF(entry.fingerprint);
+                out.writeLong(entry.confirmedBytes);
+                out.writeLong(entry.createdMillis);
+                out.flush();
+                // The record must be on disk before the rename makes it the current one.
+                file.getFD().sync();
+            } finally {
+                file.close();
+            }
+            TemporaryFiles.replace(temporary, entry.recordFile);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    private static void delete(File recordFile) {
+        if (recordFile.exists() && !recordFile.delete()) {
+            LOGGER.log(Level.WARNING, "Cannot delete upload journal record " + recordFile);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Journal record of one upload.
+     */
+    public static final class Entry {
+
+        private final File recordFile;
+
+        private final String uploadUrl;
+
+        private final String sessionUri;
+
+        private final String path;
+
+        private final long length;
+
+        private final String fingerprint;
+
+        private final long createdMillis;
+
+        private long confirmedBytes;
+
+        Entry(File recordFile, String uploadUrl, String sessionUri, String path, long length, String fingerprint,
+              long confirmedBytes, long createdMillis) {
+            this.recordFile = recordFile;
+            this.uploadUrl = uploadUrl;
+            this.sessionUri = sessionUri;
+            this.path = path;
+            this.length = length;
+            this.fingerprint = fingerprint;
+            this.confirmedBytes = confirmedBytes;
+            this.createdMillis = createdMillis;
+        }
+
+        /**
+         * Returns the upload URL of the request that initiated the session.
+         */
+        public String getUploadUrl() {
+            return uploadUrl;
+        }
+
+        /**
+         * Returns the session URI the media is uploaded to.
+         */
+        public String getSessionUri() {
+            return sessionUri;
+        }
+
+        /**
+         * Returns the canonical path of the file.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the length of the file in bytes.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the fingerprint of the file when the upload started.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Returns the number of bytes the server had confirmed when the record was last written.
+         */
+        public long getConfirmedBytes() {
+            return confirmedBytes;
+        }
+
+        /**
+         * Returns when the session was initiated, in milliseconds since the epoch.
+         */
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+    }
+}
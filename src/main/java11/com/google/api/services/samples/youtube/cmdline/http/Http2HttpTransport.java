@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HTTP transport on the JDK 11 {@link HttpClient}, which negotiates HTTP/2 with the server.
+ * <p/>
+ * Over HTTP/2 every concurrent request to a host is a stream on one shared connection, so a
+ * fan-out of {@code videos.list} or {@code playlistItems.list} calls is no longer limited by the
+ * number of pooled connections, and a slow response does not hold up the requests queued behind
+ * it. Servers that only speak HTTP/1.1 are still served, over a regular connection.
+ * <p/>
+ * Only available when building with JDK 11 or newer (the {@code jdk11} profile); select it with
+ * {@code -Dyoutube.http.transport=http2}.
+ */
+public final class Http2HttpTransport extends HttpTransport {
+
+    /**
+     * Headers that {@link HttpClient} manages itself and refuses to accept from the caller.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(
+            Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient client;
+
+    /**
+     * Creates a transport on a new HTTP/2 client using the default executor.
+     */
+    public Http2HttpTransport() {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(20))
+                .build());
+    }
+
+    /**
+     * @param client client that executes the requests
+     */
+    public Http2HttpTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the underlying client.
+     */
+    public HttpClient getClient() {
+        return client;
+    }
+
+    @Override
+    public boolean supportsMethod(String method) {
+        return true;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        return new Http2Request(method, url);
+    }
+
+    private final class Http2Request extends LowLevelHttpRequest {
+
+        private final HttpRequest.Builder builder;
+
+        private final String method;
+
+        Http2Request(String method, String url) {
+            this.method = method;
+            this.builder = HttpRequest.newBuilder(URI.create(url));
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.US))) {
+                builder.header(name, value);
+            }
+        }
+
+        @Override
+        public void setTimeout(int connectTimeout, int readTimeout) {
+            // The connect timeout belongs to the shared client; the read timeout becomes the
+            // deadline for the response headers.
+            if (readTimeout > 0) {
+                builder.timeout(Duration.ofMillis(readTimeout));
+            }
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            if (getContentType() != null) {
+                builder.header("Content-Type", getContentType());
+            }
+            if (getContentEncoding() != null) {
+                builder.header("Content-Encoding", getContentEncoding());
+            }
+            builder.method(method, bodyPublisher());
+            try {
+                return new Http2Response(client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + method + " response");
+            }
+        }
+
+        private HttpRequest.BodyPublisher bodyPublisher() throws IOException {
+            StreamingContent content = getStreamingContent();
+            if (content == null) {
+                return HttpRequest.BodyPublishers.noBody();
+            }
+            // Request bodies are JSON or single upload chunks, so they are buffered once to give the
+            // client an exact length and a body it can replay on a new stream.
+            long length = getContentLength();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE
+                    ? (int) length : 8192);
+            content.writeTo(body);
+            return HttpRequest.BodyPublishers.ofByteArray(body.toByteArray());
+        }
+    }
+
+    private static final class Http2Response extends LowLevelHttpResponse {
+
+        private final HttpResponse<InputStream> response;
+
+        private final List<String> headerNames = new ArrayList<String>();
+
+        private final List<String> headerValues = new ArrayList<String>();
+
+        Http2Response(HttpResponse<InputStream> response) {
+            this.response = response;
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+                if (header.getKey().startsWith(":")) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    headerNames.add(header.getKey());
+                    headerValues.add(value);
+                }
+            }
+        }
+
+        @Override
+        public InputStream getContent() {
+            return response.body();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return response.headers().firstValue("Content-Encoding").orElse(null);
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        }
+
+        @Override
+        public String getContentType() {
+            return response.headers().firstValue("Content-Type").orElse(null);
+        }
+
+        @Override
+        public String getStatusLine() {
+            String version = response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1";
+            return version + " " + response.statusCode();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            // HTTP/2 has no reason phrase.
+            return null;
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return headerNames.size();
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return headerNames.get(index);
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return headerValues.get(index);
+        }
+
+        @Override
+        public void disconnect() throws IOException {
+            response.body().close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.http;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares {@link NetHttpTransport} and {@link Http2HttpTransport} on a concurrent fan-out of GET
+ * requests against a local stand-in server.
+ * <p/>
+ * The server is Jetty speaking HTTP/1.1 and cleartext HTTP/2 on the same port and answering each
+ * request with a small JSON body after a fixed delay, which stands in for the API latency. The
+ * HTTP/1.1 transport can only have as many requests in flight as it has connections, while the
+ * HTTP/2 transport multiplexes all of them over one connection.
+ * <p/>
+ * Usage: {@code Http2TransportBenchmark [requests] [concurrency] [serverDelayMillis]}
+ * (defaults: 2000 requests, 64 concurrent, 20 ms).
+ */
+public class Http2TransportBenchmark {
+
+    private static final byte[] BODY =
+            "{\"kind\":\"youtube#videoListResponse\",\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        long delayMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        Server server = startServer(delayMillis, concurrency);
+        try {
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            GenericUrl url = new GenericUrl("http://localhost:" + port + "/youtube/v3/videos?part=id");
+
+            System.out.println("Requests: " + requests + ", concurrency: " + concurrency
+                    + ", server delay: " + delayMillis + " ms");
+            run("NetHttpTransport (HTTP/1.1)", new NetHttpTransport(), url, requests, concurrency);
+            run("Http2HttpTransport (h2c)", new Http2HttpTransport(), url, requests, concurrency);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Server startServer(final long delayMillis, int concurrency) throws Exception {
+        Server server = new Server(new QueuedThreadPool(Math.max(200, concurrency * 4)));
+        HttpConfiguration config = new HttpConfiguration();
+        ServerConnector connector = new ServerConnector(server,
+                new HttpConnectionFactory(config), new HTTP2CServerConnectionFactory(config));
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setContentType("application/json; charset=UTF-8");
+                response.setContentLength(BODY.length);
+                response.getOutputStream().write(BODY);
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void run(String name, HttpTransport transport, final GenericUrl url, int requests,
+                            int concurrency) throws Exception {
+        final HttpRequestFactory requestFactory = transport.createRequestFactory();
+
+        // Warm up: opens the first connection and, for h2c, completes the upgrade to HTTP/2.
+        get(requestFactory, url);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Callable<Long>> calls = new ArrayList<Callable<Long>>(requests);
+            for (int i = 0; i < requests; i++) {
+                calls.add(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        long start = System.nanoTime();
+                        get(requestFactory, url);
+                        return System.nanoTime() - start;
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            List<Future<Long>> results = executor.invokeAll(calls);
+            long elapsed = System.nanoTime() - start;
+
+            long[] latencies = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                latencies[i] = results.get(i).get();
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-28s %8.0f req/s   p50 %6.1f ms   p99 %6.1f ms%n", name,
+                    requests / (elapsed / 1e9), latencies[requests / 2] / 1e6,
+                    latencies[(int) (requests * 0.99)] / 1e6);
+        } finally {
+            executor.shutdownNow();
+            transport.shutdown();
+        }
+    }
+
+    private static void get(HttpRequestFactory requestFactory, GenericUrl url) throws IOException {
+        HttpResponse response = requestFactory.buildGetRequest(url).execute();
+        try {
+            response.parseAsString();
+        } finally {
+            response.disconnect();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares a fixed pool of platform threads with one virtual thread per request on a
+ * {@link FanOut} of blocking GET requests against a local stand-in server.
+ * <p/>
+ * The server answers each request with a small JSON body after a fixed delay, which stands in for
+ * the API latency. The pool can only have as many requests in flight as it has threads, while the
+ * virtual threads have all of them in flight at once. A last run lets one request fail and reports
+ * how quickly the fan-out gave up and how many of the other requests were cancelled.
+ * <p/>
+ * Usage: {@code VirtualThreadBenchmark [requests] [poolSize] [serverDelayMillis]}
+ * (defaults: 5000 requests, 64 threads, 50 ms).
+ */
+public class VirtualThreadBenchmark {
+
+    private static final byte[] BODY =
+            "{\"kind\":\"youtube#videoListResponse\",\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+
+    private static final AtomicInteger completed = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        long delayMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+
+        // Lets HttpURLConnection keep enough idle connections for the virtual thread run.
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(requests, 5)));
+
+        HttpServer server = startServer(delayMillis);
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort() + "/youtube/v3/videos";
+            HttpRequestFactory requestFactory = new NetHttpTransport().createRequestFactory();
+
+            System.out.println("Requests: " + requests + ", pool size: " + poolSize
+                    + ", server delay: " + delayMillis + " ms");
+            run("Fixed pool (" + poolSize + " threads)", Executors.newFixedThreadPool(poolSize),
+                    requestFactory, base, requests);
+            run("Virtual threads", VirtualThreads.newExecutor("benchmark"), requestFactory, base, requests);
+            runFailing(VirtualThreads.newExecutor("benchmark"), requestFactory, base, requests, delayMillis);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer startServer(final long delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean fail = exchange.getRequestURI().getQuery().contains("fail=true");
+                try {
+                    Thread.sleep(fail ? 0 : delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.sendResponseHeaders(fail ? 500 : 200, BODY.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(BODY);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return server;
+    }
+
+    private static void run(String name, ExecutorService executor, HttpRequestFactory requestFactory,
+                            String base, int requests) throws IOException {
+        List<Callable<Void>> calls = newCalls(requestFactory, base, requests, -1);
+        try {
+            long start = System.nanoTime();
+            FanOut.invokeAll(executor, calls);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-28s %8.0f req/s   %8.1f ms%n", name, requests / (elapsed / 1e9), elapsed / 1e6);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void runFailing(ExecutorService executor, HttpRequestFactory requestFactory, String base,
+                                   int requests, long delayMillis) {
+        // The first request fails right away, while the others are still waiting for the server.
+        List<Callable<Void>> calls = newCalls(requestFactory, base, requests, 0);
+        completed.set(0);
+        long start = System.nanoTime();
+        try {
+            FanOut.invokeAll(executor, calls);
+            System.out.println("Failing fan-out unexpectedly succeeded");
+        } catch (IOException e) {
+            System.out.printf("%-28s failed after %.1f ms (server delay %d ms), %d of %d requests cancelled: %s%n",
+                    "Fail fast", (System.nanoTime() - start) / 1e6, delayMillis, requests - 1 - completed.get(),
+                    requests - 1, e.getMessage().split("\n")[0]);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Callable<Void>> newCalls(final HttpRequestFactory requestFactory, String base,
+                                                 int requests, int failingIndex) {
+        List<Callable<Void>> calls = new ArrayList<Callable<Void>>(requests);
+        for (int i = 0; i < requests; i++) {
+            final GenericUrl url = new GenericUrl(base + "?part=id&id=" + i + (i == failingIndex ? "&fail=true" : ""));
+            calls.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    HttpResponse response = requestFactory.buildGetRequest(url).execute();
+                    try {
+                        response.parseAsString();
+                        completed.incrementAndGet();
+                    } finally {
+                        response.disconnect();
+                    }
+                    return null;
+                }
+            });
+        }
+        return calls;
+    }
+}
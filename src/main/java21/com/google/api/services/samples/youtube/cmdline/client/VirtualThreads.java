@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.services.samples.youtube.cmdline.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual thread executors, looked up reflectively by {@link RequestExecutors} so that the classic
+ * sources still build and run on older JDKs.
+ * <p/>
+ * A virtual thread blocked on socket I/O releases its carrier thread, so thousands of requests can
+ * wait on the network at once without a thread pool sized for them. The transports still bound how
+ * many requests are actually sent (see ConcurrencyLimitingHttpTransport). Note that on JDK 21 to 23 a
+ * virtual thread waiting inside a {@code synchronized} block, such as the concurrency limiter or the
+ * batcher waiting for a permit, pins its carrier thread; this only matters when more threads wait on
+ * a limit than there are carrier threads, and is gone from JDK 24 on.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Creates an executor starting one virtual thread per task.
+     *
+     * @param name prefix of the names of the threads
+     */
+    public static ExecutorService newExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+}